@@ -0,0 +1,327 @@
+package de.justsoftware.toolbox.kafka.client;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A set of serialized keys which is stored off heap within a memory budget.
+ *
+ * The keys are stored in an arena, an open addressed table with linear probing references them by their 128 bit hash.
+ * Keys with the same hash are compared byte by byte, so the set is exact. The space of removed keys is reclaimed when
+ * the arena is compacted.
+ *
+ * The budget limits the table and the arena. They are only reallocated to grow, the replaced buffer exists until the
+ * keys were moved. The buffers are kept when the set is cleared, so a set which is filled again doesn't allocate more
+ * direct memory.
+ */
+@ParametersAreNonnullByDefault
+final class CompactKeySet {
+
+    /**
+     * the smallest supported budget
+     */
+    static final long MIN_BUDGET_BYTES = 64 * 1024;
+
+
+    /**
+     * a slot consists of the 128 bit hash, the offset of the key in the arena and the length of the key + 1, so a zeroed
+     * slot is empty
+     */
+    private static final int SLOT_BYTES = 24;
+    private static final int HASH2 = 8;
+    private static final int OFFSET = 16;
+    private static final int LENGTH = 20;
+
+    private static final int MIN_SLOTS = 1024;
+    private static final int MIN_ARENA_BYTES = 16 * 1024;
+
+    private final long _budgetBytes;
+
+    /**
+     * a 128 bit hash function
+     */
+    private final HashFunction _hash;
+
+    private ByteBuffer _table;
+    private int _slotMask;
+    private int _size;
+
+    private ByteBuffer _arena;
+    private int _arenaUsed;
+    private long _liveKeyBytes;
+
+    CompactKeySet(final long budgetBytes) {
+        this(budgetBytes, Hashing.murmur3_128());
+    }
+
+    CompactKeySet(final long budgetBytes, final HashFunction hash) {
+        if (budgetBytes < MIN_BUDGET_BYTES) {
+            throw new IllegalArgumentException("budgetBytes must be at least " + MIN_BUDGET_BYTES + ": " + budgetBytes);
+        }
+        if (hash.bits() != 128) {
+            throw new IllegalArgumentException("hash must have 128 bits: " + hash.bits());
+        }
+        _budgetBytes = budgetBytes;
+        _hash = hash;
+        // the minimum budget is large enough for the initial table and arena
+        _table = ByteBuffer.allocateDirect(MIN_SLOTS * SLOT_BYTES);
+        _slotMask = MIN_SLOTS - 1;
+        _arena = ByteBuffer.allocateDirect(MIN_ARENA_BYTES);
+    }
+
+    int size() {
+        return _size;
+    }
+
+    boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * @return the number of bytes allocated for the table and the arena
+     */
+    long memoryBytes() {
+        return (long) _table.capacity() + _arena.capacity();
+    }
+
+    /**
+     * @return false if the key doesn't fit into the budget, the set is unchanged then
+     */
+    boolean add(final byte[] key) {
+        final ByteBuffer hash = hash(key);
+        final long h1 = hash.getLong(0);
+        final long h2 = hash.getLong(HASH2);
+        int slot = find(h1, h2, key);
+        if (slot >= 0) {
+            return true;
+        }
+        if ((_size + 1) * 2 > slotCount() || _arenaUsed + key.length > _arena.capacity()) {
+            if (!rebuildFor(key.length)) {
+                return false;
+            }
+            slot = find(h1, h2, key);
+        }
+        final int base = (-slot - 1) * SLOT_BYTES;
+        for (int i = 0; i < key.length; i++) {
+            _arena.put(_arenaUsed + i, key[i]);
+        }
+        _table.putLong(base, h1);
+        _table.putLong(base + HASH2, h2);
+        _table.putInt(base + OFFSET, _arenaUsed);
+        _table.putInt(base + LENGTH, key.length + 1);
+        _arenaUsed += key.length;
+        _liveKeyBytes += key.length;
+        _size++;
+        return true;
+    }
+
+    boolean contains(final byte[] key) {
+        return find(key) >= 0;
+    }
+
+    boolean remove(final byte[] key) {
+        final int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        _liveKeyBytes -= _table.getInt(slot * SLOT_BYTES + LENGTH) - 1;
+        _size--;
+        // backward shift deletion, so no slot is marked as deleted
+        int hole = slot;
+        for (int next = (hole + 1) & _slotMask; !isEmptySlot(next); next = (next + 1) & _slotMask) {
+            final int ideal = (int) _table.getLong(next * SLOT_BYTES) & _slotMask;
+            if (((next - ideal) & _slotMask) >= ((next - hole) & _slotMask)) {
+                copySlot(next, hole);
+                hole = next;
+            }
+        }
+        clearSlot(hole);
+        return true;
+    }
+
+    /**
+     * @param action
+     *            gets a copy of every key
+     */
+    void forEach(final Consumer<byte[]> action) {
+        for (int slot = 0; slot < slotCount(); slot++) {
+            if (!isEmptySlot(slot)) {
+                action.accept(key(slot));
+            }
+        }
+    }
+
+    /**
+     * remove all keys, the allocated memory is kept
+     */
+    void clear() {
+        for (int i = 0; i < _table.capacity(); i += Long.BYTES) {
+            _table.putLong(i, 0);
+        }
+        _size = 0;
+        _arenaUsed = 0;
+        _liveKeyBytes = 0;
+    }
+
+    /**
+     * grow the table if needed and make room for another key in the arena, by compacting it or by copying the keys into
+     * a larger arena
+     *
+     * @return false if the budget is exceeded, the set is unchanged then
+     */
+    private boolean rebuildFor(final int keyLength) {
+        final boolean growTable = (_size + 1) * 2 > slotCount();
+        final long tableBytes = growTable ? 2L * _table.capacity() : _table.capacity();
+        final long neededArenaBytes = _liveKeyBytes + keyLength;
+        long arenaBytes = _arena.capacity();
+        while (neededArenaBytes > arenaBytes * 3 / 4) {
+            arenaBytes *= 2;
+        }
+        // the arena never shrinks, it is compacted in place if it can't grow
+        arenaBytes = Math.max(Math.min(Math.min(arenaBytes, _budgetBytes - tableBytes), Integer.MAX_VALUE),
+                _arena.capacity());
+        if (tableBytes > Integer.MAX_VALUE || arenaBytes < neededArenaBytes || tableBytes + arenaBytes > _budgetBytes) {
+            return false;
+        }
+
+        compactArena(arenaBytes > _arena.capacity() ? ByteBuffer.allocateDirect((int) arenaBytes) : _arena);
+        if (growTable) {
+            rehash((int) (tableBytes / SLOT_BYTES));
+        }
+        return true;
+    }
+
+    /**
+     * copy the live keys without gaps to the start of the given arena, which may be the current one
+     */
+    private void compactArena(final ByteBuffer arena) {
+        if (arena == _arena && _arenaUsed == _liveKeyBytes) {
+            return;
+        }
+        // ordered by their offset, so keys are never overwritten before they were moved within the same arena
+        final long[] offsetAndSlot = new long[_size];
+        int count = 0;
+        for (int slot = 0; slot < slotCount(); slot++) {
+            if (!isEmptySlot(slot)) {
+                offsetAndSlot[count++] = (long) _table.getInt(slot * SLOT_BYTES + OFFSET) << 32 | slot;
+            }
+        }
+        Arrays.sort(offsetAndSlot);
+        int used = 0;
+        for (final long entry : offsetAndSlot) {
+            final int base = (int) entry * SLOT_BYTES;
+            final int offset = (int) (entry >>> 32);
+            final int length = _table.getInt(base + LENGTH) - 1;
+            for (int i = 0; i < length; i++) {
+                arena.put(used + i, _arena.get(offset + i));
+            }
+            _table.putInt(base + OFFSET, used);
+            used += length;
+        }
+        _arena = arena;
+        _arenaUsed = used;
+    }
+
+    /**
+     * move the slots into a new table with the given number of slots
+     */
+    private void rehash(final int slots) {
+        final ByteBuffer oldTable = _table;
+        final int oldSlots = slotCount();
+        _table = ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+        _slotMask = slots - 1;
+        for (int oldSlot = 0; oldSlot < oldSlots; oldSlot++) {
+            final int oldBase = oldSlot * SLOT_BYTES;
+            if (oldTable.getInt(oldBase + LENGTH) == 0) {
+                continue;
+            }
+            final long h1 = oldTable.getLong(oldBase);
+            int slot = (int) h1 & _slotMask;
+            while (!isEmptySlot(slot)) {
+                slot = (slot + 1) & _slotMask;
+            }
+            final int base = slot * SLOT_BYTES;
+            _table.putLong(base, h1);
+            _table.putLong(base + HASH2, oldTable.getLong(oldBase + HASH2));
+            _table.putLong(base + OFFSET, oldTable.getLong(oldBase + OFFSET));
+        }
+    }
+
+    private int find(final byte[] key) {
+        final ByteBuffer hash = hash(key);
+        return find(hash.getLong(0), hash.getLong(HASH2), key);
+    }
+
+    /**
+     * @return the slot of the key or -(slot where it can be inserted) - 1
+     */
+    private int find(final long h1, final long h2, final byte[] key) {
+        int slot = (int) h1 & _slotMask;
+        while (!isEmptySlot(slot)) {
+            final int base = slot * SLOT_BYTES;
+            if (_table.getLong(base) == h1 && _table.getLong(base + HASH2) == h2 && keyEquals(slot, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & _slotMask;
+        }
+        return -slot - 1;
+    }
+
+    private boolean keyEquals(final int slot, final byte[] key) {
+        final int base = slot * SLOT_BYTES;
+        if (_table.getInt(base + LENGTH) - 1 != key.length) {
+            return false;
+        }
+        final int offset = _table.getInt(base + OFFSET);
+        for (int i = 0; i < key.length; i++) {
+            if (_arena.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] key(final int slot) {
+        final int base = slot * SLOT_BYTES;
+        final byte[] result = new byte[_table.getInt(base + LENGTH) - 1];
+        final int offset = _table.getInt(base + OFFSET);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = _arena.get(offset + i);
+        }
+        return result;
+    }
+
+    private int slotCount() {
+        return _slotMask + 1;
+    }
+
+    private boolean isEmptySlot(final int slot) {
+        return _table.getInt(slot * SLOT_BYTES + LENGTH) == 0;
+    }
+
+    private void copySlot(final int from, final int to) {
+        final int fromBase = from * SLOT_BYTES;
+        final int toBase = to * SLOT_BYTES;
+        _table.putLong(toBase, _table.getLong(fromBase));
+        _table.putLong(toBase + HASH2, _table.getLong(fromBase + HASH2));
+        _table.putLong(toBase + OFFSET, _table.getLong(fromBase + OFFSET));
+    }
+
+    private void clearSlot(final int slot) {
+        final int base = slot * SLOT_BYTES;
+        _table.putLong(base, 0);
+        _table.putLong(base + HASH2, 0);
+        _table.putLong(base + OFFSET, 0);
+    }
+
+    private ByteBuffer hash(final byte[] key) {
+        return ByteBuffer.wrap(_hash.hashBytes(key).asBytes());
+    }
+
+}
@@ -1,15 +1,23 @@
 package de.justsoftware.toolbox.kafka.client;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -20,6 +28,7 @@ import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
@@ -33,8 +42,8 @@ import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.ProducerFencedException;
-import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 
 import com.google.common.collect.HashMultimap;
@@ -43,6 +52,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Implementation of {@link KafkaCleaningProducer} which reads the topic partition by partition
@@ -51,7 +61,21 @@ import com.google.common.collect.SetMultimap;
  * To prevent too much memory consumption only a predefined amount of data is stored.
  * Instead the queue is read multiple times.
  *
- * The key has to implement {@link #equals} and {@link #hashCode} correctly.
+ * Every partition is read sequentially by its consumer, the consumer only seeks when a clean run starts or when reading
+ * continues after a clean run. The consumers should fetch large batches, see {@link #createConsumer}.
+ *
+ * Records with a null key are ignored, see {@link RawKeyFilteringDeserializer}.
+ *
+ * The key has to implement {@link #equals} and {@link #hashCode} correctly. With
+ * {@link #setCompactKeySet(Serializer, Deserializer, long)} the keys are tracked serialized in an off heap table instead,
+ * so far more keys fit into the same memory and the queue has to be read less often.
+ *
+ * With {@link #setSinglePass(boolean)} the keys of the refill are indexed first, then the data before the refill is
+ * read once and all keys which are not in the index are deleted.
+ *
+ * The partitions are cleaned one by one in the calling thread, unless a parallelism is configured with
+ * {@link #setParallelism(int)}. Failures of single partitions don't stop the cleaning of the other partitions, they are
+ * thrown together when all partitions were handled.
  *
  * @author Jan Burkhardt (initial creation)
  */
@@ -60,6 +84,27 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
 
     private static final int DEFAULT_MAX_SIZE = 100000;
 
+    /**
+     * longer than the default {@code fetch.max.wait.ms}, so a poll doesn't return empty while the broker waits for data
+     */
+    public static final Duration DEFAULT_POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    /**
+     * {@code max.poll.records} of the consumers created by {@link #createConsumer}, unless specified
+     */
+    public static final int DEFAULT_MAX_POLL_RECORDS = 10000;
+
+    /**
+     * {@code fetch.min.bytes} of the consumers created by {@link #createConsumer}, unless specified
+     */
+    public static final int DEFAULT_FETCH_MIN_BYTES = 64 * 1024;
+
+    /**
+     * the smallest budget of {@link #setCompactKeySet(Serializer, Deserializer, long)}, it is split by
+     * {@link #setSinglePass(boolean)}
+     */
+    public static final long MIN_KEY_SET_BUDGET_BYTES = 2 * CompactKeySet.MIN_BUDGET_BYTES;
+
     /**
      * reusable callback
      */
@@ -81,6 +126,45 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
      */
     private int _maxSetSize = DEFAULT_MAX_SIZE;
 
+    /**
+     * serializes the keys for the compact key set, null if keys are tracked in a {@link HashSet}
+     */
+    @CheckForNull
+    private Serializer<K> _keySerializer;
+
+    @CheckForNull
+    private Deserializer<K> _keyDeserializer;
+
+    /**
+     * the memory budget of the compact key set of every partition
+     */
+    private long _keySetBudgetBytes;
+
+    /**
+     * index the keys of the refill to read the data before the refill only once
+     */
+    private boolean _singlePass;
+
+    /**
+     * the maximum time to wait for records in a poll, a poll returns as soon as records are fetched
+     */
+    private Duration _pollTimeout = DEFAULT_POLL_TIMEOUT;
+
+    /**
+     * the maximum number of partitions which are cleaned at the same time
+     */
+    private int _parallelism = 1;
+
+    /**
+     * executes the cleaning of partitions in parallel, a thread pool is created for every refill if none is given
+     */
+    @CheckForNull
+    private Executor _executor;
+
+    private KafkaCleaningProgressListener _progressListener = new KafkaCleaningProgressListener() {
+        // ignore the progress
+    };
+
     private final SetMultimap<String, KafkaCleaningProducerImplState> _activeStates =
             Multimaps.synchronizedSetMultimap(HashMultimap.create());
 
@@ -259,23 +343,20 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
             final ImmutableMap<TopicPartition, Range> allRanges =
                     ImmutableMap.copyOf(Maps.transformValues(_ranges, Range::new));
 
-            final Queue<Cleaner> cleaners = new LinkedList<>();
+            final List<CleanTask> tasks = new ArrayList<>();
 
             for (final String topic : _topics) {
                 for (final PartitionInfo partitionInfo : _delegate.partitionsFor(topic)) {
-                    final TopicPartition topicPartition = new TopicPartition(topic, partitionInfo.partition());
-                    final Consumer<K, ?> consumer = _consumerCreator.apply(topicPartition);
-                    if (consumer != null) {
-                        cleaners.add(new Cleaner(consumer, topicPartition, allRanges,
-                                topicAndKeyPredicate.apply(topic)));
-                    }
+                    tasks.add(new CleanTask(new TopicPartition(topic, partitionInfo.partition()), allRanges,
+                            topicAndKeyPredicate.apply(topic)));
                 }
             }
 
-            //instead of calling them one by one a Executor could be used to execute the tasks
-            cleaners.forEach(Cleaner::run);
-
-            close();
+            try {
+                runCleaners(tasks);
+            } finally {
+                close();
+            }
         }
 
         @Override
@@ -291,6 +372,440 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
         return this;
     }
 
+    /**
+     * Track the keys which need to be deleted in their serialized form in an off heap table, which is limited by a
+     * memory budget instead of the max set size. Keys are found by their 128 bit hash and compared byte by byte, so
+     * collisions never cause wrong deletes. Keys which are serialized to null are kept on the heap and limited by
+     * {@link #setMaxSetSize(int)}.
+     *
+     * @param keySerializer
+     *            has to produce the same bytes for equal keys
+     * @param keyDeserializer
+     *            creates the keys of the deletes from the serialized keys
+     * @param budgetBytes
+     *            the memory which may be used by every partition which is cleaned, see {@link #setParallelism(int)}. With
+     *            {@link #setSinglePass(boolean)} half of it is used for the index of the refill, all of it for the keys to
+     *            delete if the index doesn't fit. At least {@link #MIN_KEY_SET_BUDGET_BYTES}
+     */
+    @Nonnull
+    public KafkaCleaningProducerImpl<K, V> setCompactKeySet(final Serializer<K> keySerializer,
+            final Deserializer<K> keyDeserializer, final long budgetBytes) {
+        if (budgetBytes < MIN_KEY_SET_BUDGET_BYTES) {
+            throw new IllegalArgumentException(
+                    "budgetBytes must be at least " + MIN_KEY_SET_BUDGET_BYTES + ": " + budgetBytes);
+        }
+        _keySerializer = keySerializer;
+        _keyDeserializer = keyDeserializer;
+        _keySetBudgetBytes = budgetBytes;
+        return this;
+    }
+
+    /**
+     * Clean every partition in a single pass: index the keys of the refill, then read the data before the refill once and
+     * delete all keys which are not in the index. Keys to delete are sent whenever the set of keys is full, so a key
+     * which is deleted later in the data before the refill may be deleted twice.
+     *
+     * The index is limited like the set of deleted keys. With the default key set partitions whose refill has more
+     * records than {@link #setMaxSetSize(int)} are cleaned in multiple passes right away. With
+     * {@link #setCompactKeySet(Serializer, Deserializer, long)} the budget is split between the index and the set of
+     * deleted keys, the number of keys which fit can't be known in advance. If the keys of the refill don't fit into the
+     * index, the refill was read in vain and the partition is cleaned in multiple passes.
+     */
+    @Nonnull
+    public KafkaCleaningProducerImpl<K, V> setSinglePass(final boolean singlePass) {
+        _singlePass = singlePass;
+        return this;
+    }
+
+    @Nonnull
+    public KafkaCleaningProducerImpl<K, V> setPollTimeout(final Duration pollTimeout) {
+        if (pollTimeout.isNegative() || pollTimeout.isZero()) {
+            throw new IllegalArgumentException("pollTimeout must be positive: " + pollTimeout);
+        }
+        _pollTimeout = pollTimeout;
+        return this;
+    }
+
+    /**
+     * @param parallelism
+     *            the maximum number of partitions which are cleaned at the same time, every partition needs its own
+     *            consumer and set of keys
+     */
+    @Nonnull
+    public KafkaCleaningProducerImpl<K, V> setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        _parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @param executor
+     *            used to clean partitions in parallel, the calling thread cleans partitions too. If it is null, a thread
+     *            pool is created for every refill.
+     */
+    @Nonnull
+    public KafkaCleaningProducerImpl<K, V> setExecutor(@Nullable final Executor executor) {
+        _executor = executor;
+        return this;
+    }
+
+    @Nonnull
+    public KafkaCleaningProducerImpl<K, V> setProgressListener(final KafkaCleaningProgressListener progressListener) {
+        _progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Run the cleaners with at most {@link #_parallelism} threads including the calling thread and wait for them.
+     *
+     * The calling thread cleans partitions until none is left and then waits only for the helpers which already started,
+     * so helpers which are queued by a busy executor don't block the refill.
+     *
+     * @throws IllegalStateException
+     *             if any partition could not be cleaned, the failures of further partitions are suppressed exceptions.
+     *             Errors are thrown unwrapped instead. If the calling thread is interrupted, it still waits for the
+     *             helpers which already started, their failures are suppressed exceptions then.
+     */
+    private void runCleaners(final List<CleanTask> tasks) {
+        final Queue<CleanTask> pending = new ConcurrentLinkedQueue<>(tasks);
+        final Map<TopicPartition, Throwable> failures = new LinkedHashMap<>();
+        final int helpers = Math.min(_parallelism, tasks.size()) - 1;
+        if (helpers > 0) {
+            final Executor executor = _executor;
+            final ExecutorService ownExecutor = executor == null
+                ? Executors.newFixedThreadPool(helpers,
+                        new ThreadFactoryBuilder().setNameFormat("kafka-cleaner-%d").setDaemon(true).build())
+                : null;
+            final RunningHelpers running = new RunningHelpers();
+            try {
+                for (int i = 0; i < helpers; i++) {
+                    try {
+                        (ownExecutor == null ? executor : ownExecutor).execute(() -> {
+                            if (running.start()) {
+                                try {
+                                    runPending(pending, failures);
+                                } finally {
+                                    running.finish();
+                                }
+                            }
+                        });
+                    } catch (final RejectedExecutionException e) {
+                        // the calling thread cleans the partitions anyway
+                    }
+                }
+                runPending(pending, failures);
+                running.awaitStarted();
+            } catch (final InterruptedException e) {
+                pending.clear();
+                // the helpers still use the producer, which is closed after the refill
+                running.awaitStartedUninterruptibly();
+                Thread.currentThread().interrupt();
+                final IllegalStateException result =
+                        new IllegalStateException("interrupted while waiting for the cleaning of partitions", e);
+                synchronized (failures) {
+                    failures.values().forEach(result::addSuppressed);
+                }
+                throw result;
+            } finally {
+                if (ownExecutor != null) {
+                    ownExecutor.shutdown();
+                }
+            }
+        } else {
+            runPending(pending, failures);
+        }
+
+        synchronized (failures) {
+            if (!failures.isEmpty()) {
+                final Optional<Error> error =
+                        failures.values().stream().filter(Error.class::isInstance).map(Error.class::cast).findFirst();
+                if (error.isPresent()) {
+                    // errors aren't wrapped, the other failures are attached to the first one
+                    failures.values().stream().filter(e -> e != error.get()).forEach(error.get()::addSuppressed);
+                    throw error.get();
+                }
+                final IllegalStateException result = new IllegalStateException(
+                        "unable to clean partitions " + failures.keySet(), failures.values().iterator().next());
+                failures.values().stream().skip(1).forEach(result::addSuppressed);
+                throw result;
+            }
+        }
+    }
+
+    private void runPending(final Queue<CleanTask> pending, final Map<TopicPartition, Throwable> failures) {
+        for (CleanTask task = pending.poll(); task != null; task = pending.poll()) {
+            //CSOFF: IllegalCatch errors are thrown by the calling thread after all helpers finished
+            try {
+                task.run();
+            } catch (final Throwable e) {
+                //CSON: .
+                // the failure of one partition must not stop the others
+                synchronized (failures) {
+                    failures.put(task._topicPartition, e);
+                }
+                if (e instanceof RuntimeException) {
+                    _progressListener.partitionFailed(task._topicPartition, (RuntimeException) e);
+                }
+            }
+        }
+    }
+
+    /**
+     * the helpers which clean partitions besides the calling thread, helpers which start after the calling thread
+     * finished don't clean anything
+     */
+    @ParametersAreNonnullByDefault
+    private static final class RunningHelpers {
+
+        private int _running;
+        private boolean _closed;
+
+        /**
+         * @return false if the helper must not clean partitions
+         */
+        synchronized boolean start() {
+            if (_closed) {
+                return false;
+            }
+            _running++;
+            return true;
+        }
+
+        synchronized void finish() {
+            _running--;
+            notifyAll();
+        }
+
+        /**
+         * wait for the helpers which started, no further helpers are started
+         */
+        synchronized void awaitStarted() throws InterruptedException {
+            _closed = true;
+            while (_running > 0) {
+                wait();
+            }
+        }
+
+        /**
+         * like {@link #awaitStarted()}, but an interrupt is kept until the helpers finished
+         */
+        synchronized void awaitStartedUninterruptibly() {
+            _closed = true;
+            boolean interrupted = false;
+            while (_running > 0) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    /**
+     * creates the consumer of a partition when its cleaning starts, so only the consumers of the partitions which are
+     * cleaned at the same time exist
+     */
+    @ParametersAreNonnullByDefault
+    private final class CleanTask implements Runnable {
+
+        private final TopicPartition _topicPartition;
+        private final ImmutableMap<TopicPartition, Range> _allRanges;
+        private final Predicate<? super K> _keyPredicate;
+
+        private CleanTask(final TopicPartition topicPartition, final ImmutableMap<TopicPartition, Range> allRanges,
+                final Predicate<? super K> keyPredicate) {
+            _topicPartition = topicPartition;
+            _allRanges = allRanges;
+            _keyPredicate = keyPredicate;
+        }
+
+        @Override
+        public void run() {
+            final Consumer<K, ?> consumer = _consumerCreator.apply(_topicPartition);
+            if (consumer == null) {
+                return;
+            }
+            try {
+                new Cleaner(consumer, _topicPartition, _allRanges, _keyPredicate).run();
+            } finally {
+                try {
+                    consumer.close();
+                } catch (final RuntimeException e) {
+                    // ignore
+                }
+            }
+        }
+
+    }
+
+    /**
+     * a set of keys which need to be deleted
+     */
+    @ParametersAreNonnullByDefault
+    private interface KeySet<T> {
+
+        void add(@Nullable T key);
+
+        void remove(@Nullable T key);
+
+        boolean contains(@Nullable T key);
+
+        int size();
+
+        boolean isEmpty();
+
+        /**
+         * @return true if a clean run has to be done to free memory
+         */
+        boolean isFull();
+
+        void forEach(java.util.function.Consumer<? super T> action);
+
+        void clear();
+
+    }
+
+    @ParametersAreNonnullByDefault
+    private final class HashKeySet implements KeySet<K> {
+
+        private final HashSet<K> _keys = new HashSet<>(1000);
+
+        @Override
+        public void add(@Nullable final K key) {
+            _keys.add(key);
+        }
+
+        @Override
+        public void remove(@Nullable final K key) {
+            _keys.remove(key);
+        }
+
+        @Override
+        public boolean contains(@Nullable final K key) {
+            return _keys.contains(key);
+        }
+
+        @Override
+        public int size() {
+            return _keys.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return _keys.isEmpty();
+        }
+
+        @Override
+        public boolean isFull() {
+            return _keys.size() > _maxSetSize;
+        }
+
+        @Override
+        public void forEach(final java.util.function.Consumer<? super K> action) {
+            _keys.forEach(action);
+        }
+
+        @Override
+        public void clear() {
+            _keys.clear();
+        }
+
+    }
+
+    /**
+     * keys in a {@link CompactKeySet}, keys which don't fit into the budget or can't be serialized are kept on the heap
+     * until the next clean run. Keys which can't be serialized are limited by {@link #_maxSetSize} like the keys of a
+     * {@link HashKeySet}.
+     */
+    @ParametersAreNonnullByDefault
+    private final class SerializedKeySet implements KeySet<K> {
+
+        private final String _topic;
+        private final Serializer<K> _serializer;
+        private final Deserializer<K> _deserializer;
+        private final CompactKeySet _keys;
+        private final HashSet<K> _overflow = new HashSet<>();
+        private boolean _full;
+
+        SerializedKeySet(final String topic, final Serializer<K> serializer, final Deserializer<K> deserializer,
+                final long budgetBytes) {
+            _topic = topic;
+            _serializer = serializer;
+            _deserializer = deserializer;
+            _keys = new CompactKeySet(budgetBytes);
+        }
+
+        @Override
+        public void add(@Nullable final K key) {
+            if (_overflow.contains(key)) {
+                return;
+            }
+            final byte[] serialized = _serializer.serialize(_topic, key);
+            if (serialized == null) {
+                _overflow.add(key);
+                _full |= _overflow.size() > _maxSetSize;
+            } else if (!_keys.add(serialized)) {
+                _overflow.add(key);
+                _full = true;
+            }
+        }
+
+        @Override
+        public void remove(@Nullable final K key) {
+            if (!_overflow.remove(key)) {
+                final byte[] serialized = _serializer.serialize(_topic, key);
+                if (serialized != null) {
+                    _keys.remove(serialized);
+                }
+            }
+        }
+
+        @Override
+        public boolean contains(@Nullable final K key) {
+            if (_overflow.contains(key)) {
+                return true;
+            }
+            final byte[] serialized = _serializer.serialize(_topic, key);
+            return serialized != null && _keys.contains(serialized);
+        }
+
+        @Override
+        public int size() {
+            return _keys.size() + _overflow.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return _keys.isEmpty() && _overflow.isEmpty();
+        }
+
+        @Override
+        public boolean isFull() {
+            return _full;
+        }
+
+        @Override
+        public void forEach(final java.util.function.Consumer<? super K> action) {
+            _keys.forEach(serialized -> action.accept(_deserializer.deserialize(_topic, serialized)));
+            _overflow.forEach(action);
+        }
+
+        @Override
+        public void clear() {
+            _keys.clear();
+            _overflow.clear();
+            _full = false;
+        }
+
+    }
+
     @ParametersAreNonnullByDefault
     private final class Cleaner implements Runnable {
 
@@ -299,11 +814,22 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
         private final Range _range;
 
         /**
-         * the set of keys which need to be deleted
+         * the set of keys which need to be deleted, created when the strategy is chosen, so it gets the budget the
+         * index doesn't use
          */
-        private final HashSet<K> _toDelete = new HashSet<>(1000);
+        private KeySet<K> _toDelete;
         private final Predicate<? super K> _keyPredicate;
 
+        /**
+         * the number of tombstones sent
+         */
+        private long _deletedCount;
+
+        /**
+         * the offset of the next record returned by the consumer, -1 if it has to seek
+         */
+        private long _position = -1;
+
         private Cleaner(final Consumer<K, ?> consumer, final TopicPartition topicPartition,
                 final ImmutableMap<TopicPartition, Range> allRanges, final Predicate<? super K> keyPredicate) {
             _consumer = consumer;
@@ -312,6 +838,13 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
             _range = currentRange(allRanges);
         }
 
+        @Nonnull
+        private KeySet<K> newKeySet(final long budgetBytes) {
+            return _keySerializer == null || _keyDeserializer == null
+                ? new HashKeySet()
+                : new SerializedKeySet(_topicPartition.topic(), _keySerializer, _keyDeserializer, budgetBytes);
+        }
+
         @Nonnull
         private Range currentRange(final ImmutableMap<TopicPartition, Range> allOffsets) {
             final Range range = allOffsets.get(_topicPartition);
@@ -326,33 +859,98 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
 
         @Override
         public void run() {
-            try {
-                //find the beginning offset and use it
-                _consumer.seekToBeginning(ImmutableList.of(_topicPartition));
-                long offset = currentPosition();
+            _progressListener.partitionStarted(_topicPartition, _range._end);
 
-                //handle all record until we reach the start of our range
-                while (offset < _range._start) {
-                    offset = pollAndHandleRecords(offset);
+            if (!_singlePass || !cleanSinglePass()) {
+                cleanMultiplePasses();
+            }
 
-                    //if set size is exceeded to do a clean run
-                    if (_toDelete.size() > _maxSetSize) {
-                        startClean(Math.max(_range._start, offset));
-                    }
+            _progressListener.partitionFinished(_topicPartition, _deletedCount);
+        }
+
+        private void cleanMultiplePasses() {
+            // the index of a single pass which didn't fit isn't used anymore
+            _toDelete = newKeySet(_keySetBudgetBytes);
+
+            //find the beginning offset and use it
+            long offset = seekToBeginning();
+
+            //handle all record until we reach the start of our range
+            while (offset < _range._start) {
+                offset = pollAndHandleRecords(offset);
+
+                //if set size is exceeded to do a clean run
+                if (_toDelete.isFull()) {
+                    startClean(Math.max(_range._start, offset));
                 }
+            }
 
-                //range with valid records reached, start cleaning
-                startClean(offset);
+            //range with valid records reached, start cleaning
+            startClean(offset);
+        }
 
-            } finally {
-                if (_consumer != null) {
-                    try {
-                        _consumer.close();
-                    } catch (final RuntimeException e) {
-                        // ignore
+        /**
+         * Index the keys of the range, then read the records before the range and delete all keys which are not indexed.
+         *
+         * @return false if the keys of the range don't fit into the index, nothing was deleted then
+         */
+        private boolean cleanSinglePass() {
+            if (_keySerializer == null && _range._end - _range._start > _maxSetSize) {
+                // the refill may have more keys than the hash key set holds, don't read it in vain
+                return false;
+            }
+            // the index and the keys to delete share the budget
+            final KeySet<K> index = newKeySet(_keySetBudgetBytes / 2);
+            long offset = _range._start;
+            while (offset < _range._end) {
+                for (final ConsumerRecord<K, ?> record : poll(offset)) {
+                    // like in pollAndHandleRecords all records in or behind the range are valid
+                    if (record.offset() >= _range._start && matches(record.key())) {
+                        index.add(record.key());
                     }
                 }
+                if (index.isFull()) {
+                    return false;
+                }
+                offset = _position;
+            }
+
+            _toDelete = newKeySet(_keySetBudgetBytes / 2);
+            offset = seekToBeginning();
+            while (offset < _range._start) {
+                for (final ConsumerRecord<K, ?> record : poll(offset)) {
+                    final K key = record.key();
+                    if (record.offset() < _range._start && matches(key) && !index.contains(key)) {
+                        if (record.value() == null) {
+                            _toDelete.remove(key);
+                        } else {
+                            _toDelete.add(key);
+                        }
+                    }
+                }
+                offset = _position;
+                if (_toDelete.isFull()) {
+                    deleteAll();
+                }
             }
+            deleteAll();
+            return true;
+        }
+
+        /**
+         * @return true if the key has to be cleaned, null keys can't be deleted in compacted topics
+         */
+        private boolean matches(@Nullable final K key) {
+            return key != null && _keyPredicate.test(key);
+        }
+
+        /**
+         * @return the first offset of the partition
+         */
+        private long seekToBeginning() {
+            _consumer.seekToBeginning(ImmutableList.of(_topicPartition));
+            _position = currentPosition();
+            return _position;
         }
 
         private long currentPosition() {
@@ -374,12 +972,18 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
             }
 
             // if we have entries to delete left, delete them
+            deleteAll();
+        }
+
+        /**
+         * send deletes for all keys in {@link #_toDelete}
+         */
+        private void deleteAll() {
             if (!_toDelete.isEmpty()) {
-                for (final K k : _toDelete) {
-                    final Integer partition = Integer.valueOf(_topicPartition.partition());
-                    //write through our self to prevent duplicate deletes
-                    send(new ProducerRecord<>(_topicPartition.topic(), partition, k, null));
-                }
+                final Integer partition = Integer.valueOf(_topicPartition.partition());
+                //write through our self to prevent duplicate deletes
+                _toDelete.forEach(k -> send(new ProducerRecord<>(_topicPartition.topic(), partition, k, null)));
+                _deletedCount += _toDelete.size();
                 _toDelete.clear();
                 //flush the producer to get the entries back in the consumer
                 _delegate.flush();
@@ -399,14 +1003,9 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
          * @return offset of first element which was not read
          */
         private long pollAndHandleRecords(final long offset) {
-            long newOffset = offset;
-            _consumer.seek(_topicPartition, offset);
-            // poll as short as possible to get our own entries
-            final ConsumerRecords<K, ?> records = _consumer.poll(1);
-            for (final ConsumerRecord<K, ?> record : records) {
-                newOffset = Math.max(record.offset() + 1, newOffset);
+            for (final ConsumerRecord<K, ?> record : poll(offset)) {
                 final K key = record.key();
-                if (_keyPredicate.test(key)) {
+                if (matches(key)) {
                     // a record is valid if it is a delete or if it is in or behind the range
                     if (record.value() == null || record.offset() >= _range._start) {
                         _toDelete.remove(record.key());
@@ -415,7 +1014,25 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
                     }
                 }
             }
-            return newOffset;
+            return _position;
+        }
+
+        /**
+         * Poll the records starting at the given offset and update {@link #_position}.
+         *
+         * The consumer only seeks if the offset isn't the position after the last poll, so consecutive calls read the
+         * partition sequentially and the records which were already fetched are used.
+         */
+        @Nonnull
+        private ConsumerRecords<K, ?> poll(final long offset) {
+            if (offset != _position) {
+                _consumer.seek(_topicPartition, offset);
+            }
+            final ConsumerRecords<K, ?> records = _consumer.poll(_pollTimeout);
+            // the position skips offsets without records, e.g. compacted records and transaction markers
+            _position = currentPosition();
+            _progressListener.progress(_topicPartition, _position, _range._end);
+            return records;
         }
     }
 
@@ -447,17 +1064,46 @@ public class KafkaCleaningProducerImpl<K, V> implements KafkaCleaningProducer<K,
 
     /**
      * Utility method to create an appropriate consumer
+     *
+     * The consumer fetches large batches for a sequential read, {@code max.poll.records} is
+     * {@link #DEFAULT_MAX_POLL_RECORDS} and {@code fetch.min.bytes} is {@link #DEFAULT_FETCH_MIN_BYTES} unless they are
+     * specified in the given properties. The values are deserialized by {@link ValuePresenceDeserializer}.
      */
     @Nonnull
     public static <K> Consumer<K, ?> createConsumer(final TopicPartition topicPartition,
             final Deserializer<K> keyDeserializer,
             @Nullable final Properties consumerProps) {
-        final KafkaConsumer<K, byte[]> result =
-                new KafkaConsumer<>(consumerProps, keyDeserializer, new ByteArrayDeserializer());
+        final Properties props = new Properties();
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Integer.toString(DEFAULT_MAX_POLL_RECORDS));
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, Integer.toString(DEFAULT_FETCH_MIN_BYTES));
+        if (consumerProps != null) {
+            // unlike putAll this includes the defaults of the given properties
+            for (final String name : consumerProps.stringPropertyNames()) {
+                props.setProperty(name, consumerProps.getProperty(name));
+            }
+        }
+        final KafkaConsumer<K, Boolean> result =
+                new KafkaConsumer<>(props, keyDeserializer, new ValuePresenceDeserializer());
         result.assign(ImmutableList.of(topicPartition));
         return result;
     }
 
+    /**
+     * Utility method to create an appropriate consumer which deserializes only the keys accepted by the raw key
+     * predicate, the other keys are ignored by the cleaning. This saves the deserialization of keys which are not
+     * cleaned, see {@link RawKeyFilteringDeserializer}.
+     *
+     * @param rawKeyPredicate
+     *            gets the serialized keys, it has to accept all keys which can match the key predicate of the refill
+     */
+    @Nonnull
+    public static <K> Consumer<K, ?> createConsumer(final TopicPartition topicPartition,
+            final Deserializer<K> keyDeserializer, final Predicate<byte[]> rawKeyPredicate,
+            @Nullable final Properties consumerProps) {
+        return createConsumer(topicPartition, new RawKeyFilteringDeserializer<>(keyDeserializer, rawKeyPredicate),
+                consumerProps);
+    }
+
     /**
      * Utility method to create an appropriate consumer
      */
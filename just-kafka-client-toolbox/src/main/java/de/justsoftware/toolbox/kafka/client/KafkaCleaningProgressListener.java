@@ -0,0 +1,55 @@
+package de.justsoftware.toolbox.kafka.client;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Listener for the progress of the cleaning of each partition by {@link KafkaCleaningProducerImpl}.
+ *
+ * Partitions may be cleaned in parallel, so implementations have to be thread safe.
+ */
+@ParametersAreNonnullByDefault
+public interface KafkaCleaningProgressListener {
+
+    /**
+     * the cleaning of the partition started
+     *
+     * @param endOffset
+     *            the first offset after the refill, the partition is read at most up to this offset
+     */
+    default void partitionStarted(final TopicPartition topicPartition, final long endOffset) {
+        // nothing to do
+    }
+
+    /**
+     * records of the partition were read, the partition may be read multiple times if too many keys have to be checked
+     *
+     * @param offset
+     *            the offset of the first record which was not read yet
+     * @param endOffset
+     *            the first offset after the refill
+     */
+    default void progress(final TopicPartition topicPartition, final long offset, final long endOffset) {
+        // nothing to do
+    }
+
+    /**
+     * the partition was cleaned successfully
+     *
+     * @param deletedCount
+     *            the number of keys which were deleted
+     */
+    default void partitionFinished(final TopicPartition topicPartition, final long deletedCount) {
+        // nothing to do
+    }
+
+    /**
+     * the cleaning of the partition failed, the exception is thrown by
+     * {@link KafkaCleaningProducerState#finishRefillTopicFilter} after all partitions were handled
+     */
+    default void partitionFailed(final TopicPartition topicPartition, final RuntimeException exception) {
+        // nothing to do
+    }
+
+}
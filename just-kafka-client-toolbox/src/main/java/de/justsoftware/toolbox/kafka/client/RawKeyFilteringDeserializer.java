@@ -0,0 +1,52 @@
+package de.justsoftware.toolbox.kafka.client;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Tests the serialized keys with a predicate and deserializes only the accepted keys, rejected keys become null. The
+ * cleaning of {@link KafkaCleaningProducerImpl} ignores records with null keys, so keys which are not cleaned don't have
+ * to be deserialized.
+ *
+ * @param <K>
+ *            the type of the key
+ */
+@ParametersAreNonnullByDefault
+public class RawKeyFilteringDeserializer<K> implements Deserializer<K> {
+
+    private final Deserializer<K> _delegate;
+    private final Predicate<byte[]> _rawKeyPredicate;
+
+    /**
+     * @param rawKeyPredicate
+     *            gets the serialized keys, it must not keep or modify them
+     */
+    public RawKeyFilteringDeserializer(final Deserializer<K> delegate, final Predicate<byte[]> rawKeyPredicate) {
+        _delegate = delegate;
+        _rawKeyPredicate = rawKeyPredicate;
+    }
+
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        _delegate.configure(configs, isKey);
+    }
+
+    @Override
+    @CheckForNull
+    public K deserialize(final String topic, @CheckForNull final byte[] data) {
+        return data == null || !_rawKeyPredicate.test(data)
+            ? null
+            : _delegate.deserialize(topic, data);
+    }
+
+    @Override
+    public void close() {
+        _delegate.close();
+    }
+
+}
@@ -0,0 +1,36 @@
+package de.justsoftware.toolbox.kafka.client;
+
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Deserializes only whether a value is present, {@link Boolean#TRUE} for values and null for deletes (kafka doesn't call
+ * deserializers for null). The cleaning consumers only need to know whether a record is a delete, so no value is kept
+ * in the polled records.
+ */
+@ParametersAreNonnullByDefault
+public class ValuePresenceDeserializer implements Deserializer<Boolean> {
+
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        // nothing to configure
+    }
+
+    @Override
+    @CheckForNull
+    public Boolean deserialize(final String topic, @CheckForNull final byte[] data) {
+        return data == null
+            ? null
+            : Boolean.TRUE;
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+
+}
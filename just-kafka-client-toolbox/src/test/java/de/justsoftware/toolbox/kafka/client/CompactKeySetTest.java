@@ -0,0 +1,187 @@
+package de.justsoftware.toolbox.kafka.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+
+/**
+ * tests for {@link CompactKeySet}
+ */
+@ParametersAreNonnullByDefault
+public class CompactKeySetTest {
+
+    @Nonnull
+    private static byte[] key(final int i) {
+        return ("key-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Nonnull
+    private static Set<String> contents(final CompactKeySet set) {
+        final Set<String> result = new HashSet<>();
+        set.forEach(key -> assertTrue(result.add(new String(key, StandardCharsets.UTF_8))));
+        return result;
+    }
+
+    @Nonnull
+    private static byte[] key(final String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * keys like "5/a" have the ideal slot 5, keys with the same slot have the same hash
+     */
+    @Nonnull
+    private static HashFunction slotHash() {
+        final HashFunction hash = mock(HashFunction.class);
+        when(Integer.valueOf(hash.bits())).thenReturn(Integer.valueOf(128));
+        when(hash.hashBytes(any(byte[].class))).thenAnswer(invocation -> {
+            final String key = new String(invocation.<byte[]>getArgument(0), StandardCharsets.UTF_8);
+            final long slot = Long.parseLong(key.substring(0, key.indexOf('/')));
+            return HashCode.fromBytes(ByteBuffer.allocate(16).putLong(slot).putLong(1).array());
+        });
+        return hash;
+    }
+
+    @Test
+    public void testCollisionsAreComparedByBytes() {
+        final CompactKeySet set = new CompactKeySet(CompactKeySet.MIN_BUDGET_BYTES, slotHash());
+        assertTrue(set.add(key("5/a")));
+        assertTrue(set.add(key("5/b")));
+        assertTrue(set.add(key("5/c")));
+        assertTrue(set.add(key("5/b")));
+        assertEquals(3, set.size());
+        assertFalse(set.contains(key("5/d")));
+        assertFalse(set.contains(key("5/")));
+
+        assertTrue(set.remove(key("5/b")));
+        assertFalse(set.remove(key("5/b")));
+        assertFalse(set.contains(key("5/b")));
+        assertTrue(set.contains(key("5/a")));
+        assertTrue(set.contains(key("5/c")));
+        assertEquals(ImmutableSet.of("5/a", "5/c"), contents(set));
+    }
+
+    /**
+     * the keys behind a removed key are shifted back, also across the end of the table
+     */
+    @Test
+    public void testBackwardShiftDeletion() {
+        final CompactKeySet set = new CompactKeySet(CompactKeySet.MIN_BUDGET_BYTES, slotHash());
+        // slots 1023, 0, 1, 2 and 3, only "3/e" is in its ideal slot
+        for (final String key : ImmutableSet.of("1023/a", "1023/b", "0/c", "1/d", "3/e")) {
+            assertTrue(set.add(key(key)));
+        }
+
+        assertTrue(set.remove(key("1023/a")));
+        for (final String key : ImmutableSet.of("1023/b", "0/c", "1/d", "3/e")) {
+            assertTrue(key, set.contains(key(key)));
+        }
+        assertFalse(set.contains(key("1023/a")));
+
+        assertTrue(set.remove(key("0/c")));
+        assertTrue(set.contains(key("1/d")));
+        assertTrue(set.contains(key("3/e")));
+        assertTrue(set.add(key("1023/a")));
+        assertEquals(ImmutableSet.of("1023/a", "1023/b", "1/d", "3/e"), contents(set));
+    }
+
+    @Test
+    public void testClearKeepsTheMemory() {
+        final CompactKeySet set = new CompactKeySet(1024 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(set.add(key(i)));
+        }
+        final long memoryBytes = set.memoryBytes();
+        set.clear();
+        assertEquals(memoryBytes, set.memoryBytes());
+        assertTrue(contents(set).isEmpty());
+        assertFalse(set.contains(key(0)));
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(set.add(key(i)));
+        }
+        assertEquals(memoryBytes, set.memoryBytes());
+        assertEquals(10000, set.size());
+    }
+
+    @Test
+    public void testSameContentAsHashSet() {
+        final CompactKeySet set = new CompactKeySet(16 * 1024 * 1024);
+        final Set<String> expected = new HashSet<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            final int k = random.nextInt(20000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove("key-" + k), set.remove(key(k)));
+            } else {
+                expected.add("key-" + k);
+                assertTrue(set.add(key(k)));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (int k = 0; k < 20000; k++) {
+            assertEquals(expected.contains("key-" + k), set.contains(key(k)));
+        }
+        assertEquals(expected, contents(set));
+    }
+
+    @Test
+    public void testEmptyKey() {
+        final CompactKeySet set = new CompactKeySet(CompactKeySet.MIN_BUDGET_BYTES);
+        assertTrue(set.add(new byte[0]));
+        assertTrue(set.contains(new byte[0]));
+        assertEquals(1, set.size());
+        assertTrue(set.remove(new byte[0]));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testBudget() {
+        final CompactKeySet set = new CompactKeySet(1024 * 1024);
+        int added = 0;
+        while (set.add(key(added))) {
+            added++;
+        }
+        assertTrue(Integer.toString(added), added > 10000);
+        assertTrue(set.memoryBytes() <= 1024 * 1024);
+        assertEquals(added, set.size());
+        assertFalse(set.contains(key(added)));
+
+        // removed keys are reclaimed
+        for (int i = 0; i < added / 2; i++) {
+            assertTrue(set.remove(key(i)));
+        }
+        for (int i = added; i < added + added / 4; i++) {
+            assertTrue(set.add(key(i)));
+        }
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertTrue(contents(set).isEmpty());
+        assertTrue(set.add(key(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBudgetTooSmall() {
+        new CompactKeySet(1024);
+    }
+
+}
@@ -2,18 +2,29 @@ package de.justsoftware.toolbox.kafka.client;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.MockConsumer;
 import org.apache.kafka.clients.consumer.OffsetResetStrategy;
 import org.apache.kafka.clients.producer.Callback;
@@ -22,13 +33,16 @@ import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
 import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultiset;
@@ -46,6 +60,60 @@ public class KafkaCleaningProducerImplTest {
     private static final String TOPIC = "T";
     private static final StringSerializer STRING_SERIALIZER = new StringSerializer();
     private static final DefaultPartitioner DEFAULT_PARTITIONER = new DefaultPartitioner();
+    private static final long MIN_BUDGET = KafkaCleaningProducerImpl.MIN_KEY_SET_BUDGET_BYTES;
+
+    /**
+     * keeps the records like a broker, so partitions can be read multiple times, a poll returns at most
+     * {@code maxPollRecords} records after the position
+     */
+    @ParametersAreNonnullByDefault
+    private static final class RetainingMockConsumer extends MockConsumer<String, String> {
+
+        private final List<ConsumerRecord<String, String>> _records = new ArrayList<>();
+        private final int _maxPollRecords;
+
+        /**
+         * the number of seeks, {@link MockConsumer} seeks too when the position after a seek to the beginning or end is
+         * resolved
+         */
+        private int _seekCount;
+
+        private RetainingMockConsumer(final int maxPollRecords) {
+            super(OffsetResetStrategy.EARLIEST);
+            _maxPollRecords = maxPollRecords;
+        }
+
+        @Override
+        public synchronized void seek(final TopicPartition partition, final long offset) {
+            _seekCount++;
+            super.seek(partition, offset);
+        }
+
+        @Override
+        public synchronized void addRecord(final ConsumerRecord<String, String> record) {
+            _records.add(record);
+        }
+
+        @Override
+        public synchronized ConsumerRecords<String, String> poll(final Duration timeout) {
+            // throws the exception set by setException
+            super.poll(timeout);
+            final Map<TopicPartition, List<ConsumerRecord<String, String>>> result = new HashMap<>();
+            for (final TopicPartition tp : assignment()) {
+                final long position = position(tp);
+                final List<ConsumerRecord<String, String>> records = _records.stream()
+                        .filter(r -> r.partition() == tp.partition() && r.offset() >= position)
+                        .limit(_maxPollRecords)
+                        .collect(Collectors.toList());
+                if (!records.isEmpty()) {
+                    result.put(tp, records);
+                    super.seek(tp, records.get(records.size() - 1).offset() + 1);
+                }
+            }
+            return new ConsumerRecords<>(result);
+        }
+
+    }
 
     @ParametersAreNonnullByDefault
     static class Mocks {
@@ -88,9 +156,20 @@ public class KafkaCleaningProducerImplTest {
 
         private final MockProducer<String, String> _producer;
 
-        private final Map<TopicPartition, MockConsumer<String, String>> _consumers = new HashMap<>();
+        private final Map<TopicPartition, RetainingMockConsumer> _consumers = new ConcurrentHashMap<>();
+
+        private final int _maxPollRecords;
 
         public Mocks(final Multiset<String> topics) {
+            this(topics, Integer.MAX_VALUE);
+        }
+
+        /**
+         * @param maxPollRecords
+         *            limits the records returned by a poll, so partitions are read in multiple polls
+         */
+        public Mocks(final Multiset<String> topics, final int maxPollRecords) {
+            _maxPollRecords = maxPollRecords;
             _cluster = new Cluster("test-cluster", ImmutableList.of(), partitions(topics), ImmutableSet.of(),
                     ImmutableSet.of());
             _producer = new MockProducerExtension();
@@ -108,10 +187,9 @@ public class KafkaCleaningProducerImplTest {
         }
 
         @Nonnull
-        private MockConsumer<String, String> consumerForPartion(final TopicPartition key) {
+        private RetainingMockConsumer consumerForPartion(final TopicPartition key) {
             return _consumers.computeIfAbsent(key, key1 -> {
-                final MockConsumer<String, String> result =
-                        new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+                final RetainingMockConsumer result = new RetainingMockConsumer(_maxPollRecords);
                 result.assign(ImmutableList.of(key1));
                 result.updateBeginningOffsets(ImmutableMap.of(key1, 0L));
                 result.updateEndOffsets(ImmutableMap.of(key1, 0L));
@@ -180,9 +258,179 @@ public class KafkaCleaningProducerImplTest {
         test(ImmutableMultiset.of(TOPIC, TOPIC, TOPIC, TOPIC), queueBefore, fullIndex, expectedDelete);
     }
 
+    @Test
+    @Parameters(method = "testcases")
+    public void testFourPartitionsInParallel(final String queueBefore, final String fullIndex,
+            final String expectedDelete) {
+        test(ImmutableMultiset.of(TOPIC, TOPIC, TOPIC, TOPIC), queueBefore, fullIndex, expectedDelete, 3);
+    }
+
+    @Test
+    @Parameters(method = "testcases")
+    public void testTwoPartitionsCompactKeySet(final String queueBefore, final String fullIndex,
+            final String expectedDelete) {
+        test(ImmutableMultiset.of(TOPIC, TOPIC), queueBefore, fullIndex, expectedDelete, 1,
+                c -> c.setCompactKeySet(STRING_SERIALIZER, new StringDeserializer(), MIN_BUDGET));
+    }
+
+    /**
+     * keys which are serialized to null are limited like the keys of the default key set
+     */
+    @Test
+    @Parameters(method = "testcases")
+    public void testSinglePartitionUnserializableKeys(final String queueBefore, final String fullIndex,
+            final String expectedDelete) {
+        final StringSerializer unserializable = new StringSerializer() {
+
+            @Override
+            public byte[] serialize(final String topic, final String data) {
+                return null;
+            }
+
+        };
+        test(ImmutableMultiset.of(TOPIC), queueBefore, fullIndex, expectedDelete, 1,
+                c -> c.setCompactKeySet(unserializable, new StringDeserializer(), MIN_BUDGET));
+    }
+
+    @Test
+    @Parameters(method = "testcases")
+    public void testTwoPartitionsSinglePass(final String queueBefore, final String fullIndex,
+            final String expectedDelete) {
+        test(ImmutableMultiset.of(TOPIC, TOPIC), queueBefore, fullIndex, expectedDelete, 1,
+                c -> c.setSinglePass(true).setMaxSetSize(100));
+    }
+
+    /**
+     * the index of larger refills doesn't fit, then the partition is cleaned in multiple passes
+     */
+    @Test
+    @Parameters(method = "testcases")
+    public void testSinglePartitionSinglePassSmallIndex(final String queueBefore, final String fullIndex,
+            final String expectedDelete) {
+        test(ImmutableMultiset.of(TOPIC), queueBefore, fullIndex, expectedDelete, 1, c -> c.setSinglePass(true));
+    }
+
+    @Test
+    @Parameters(method = "testcases")
+    public void testFourPartitionsSinglePassCompactKeySet(final String queueBefore, final String fullIndex,
+            final String expectedDelete) {
+        test(ImmutableMultiset.of(TOPIC, TOPIC, TOPIC, TOPIC), queueBefore, fullIndex, expectedDelete, 2,
+                c -> c.setSinglePass(true)
+                        .setCompactKeySet(STRING_SERIALIZER, new StringDeserializer(), MIN_BUDGET));
+    }
+
+    /**
+     * every poll returns a single record, so the partition is read in many polls. All keys fit into the set, a clean run
+     * in between would delete keys again which are deleted later in the partition.
+     */
+    @Test
+    @Parameters(method = "testcases")
+    public void testSinglePartitionSmallBatches(final String queueBefore, final String fullIndex,
+            final String expectedDelete) {
+        final ImmutableMultiset<String> topics = ImmutableMultiset.of(TOPIC);
+        test(new Mocks(topics, 1), topics, queueBefore, fullIndex, expectedDelete, 1, c -> c.setMaxSetSize(100));
+    }
+
+    @Test
+    @Parameters(method = "testcases")
+    public void testSinglePartitionSinglePassSmallBatches(final String queueBefore, final String fullIndex,
+            final String expectedDelete) {
+        final ImmutableMultiset<String> topics = ImmutableMultiset.of(TOPIC);
+        test(new Mocks(topics, 1), topics, queueBefore, fullIndex, expectedDelete, 1,
+                c -> c.setSinglePass(true).setMaxSetSize(100));
+    }
+
+    /**
+     * the consumer only seeks to the refill for the index and to the beginning, the data before the refill is read
+     * sequentially
+     */
+    @Test
+    public void testSinglePassSeeksOnlyToTheRefill() {
+        final ImmutableMultiset<String> topics = ImmutableMultiset.of(TOPIC);
+        final Mocks m = new Mocks(topics, 2);
+        test(m, topics, "ia,ib,ic,id,ie,if", "ia,ib", "dc,dd,de,df", 1, c -> c.setSinglePass(true).setMaxSetSize(100));
+        assertEquals(2, m.consumerForPartion(new TopicPartition(TOPIC, 0))._seekCount);
+    }
+
+    /**
+     * the refill has more records than the hash key set holds, so it isn't indexed before the partition is cleaned in
+     * multiple passes
+     */
+    @Test
+    public void testSinglePassSkipsRefillsLargerThanTheMaxSetSize() {
+        final ImmutableMultiset<String> topics = ImmutableMultiset.of(TOPIC);
+        final List<Long> offsets = new ArrayList<>();
+        test(new Mocks(topics, 2), topics, "ia,ib,ic,id", "ia,ib,ic", "dd", 1,
+                c -> c.setSinglePass(true).setProgressListener(new KafkaCleaningProgressListener() {
+
+                    @Override
+                    public void progress(final TopicPartition topicPartition, final long offset, final long endOffset) {
+                        offsets.add(offset);
+                    }
+
+                }));
+        // the data before the refill is read first
+        assertEquals(ImmutableList.of(2L, 4L, 6L, 7L), offsets);
+    }
+
+    /**
+     * the index of the refill doesn't fit into half of the budget, then the keys to delete get the whole budget and the
+     * data before the refill is cleaned in a single clean run
+     */
+    @Test
+    public void testSinglePassFallbackUsesTheWholeBudget() {
+        final ImmutableMultiset<String> topics = ImmutableMultiset.of(TOPIC);
+        final Mocks m = new Mocks(topics, 10);
+        final String padding = Strings.repeat("x", 1000);
+        final List<String> before = new ArrayList<>();
+        final List<String> refill = new ArrayList<>();
+        final List<String> deletes = new ArrayList<>();
+        for (int i = 0; i < 80; i++) {
+            before.add("ib" + i + padding);
+            refill.add("ir" + i + padding);
+            deletes.add("db" + i + padding);
+        }
+        test(m, topics, String.join(",", before), String.join(",", refill), String.join(",", deletes), 1,
+                c -> c.setSinglePass(true).setCompactKeySet(STRING_SERIALIZER, new StringDeserializer(), MIN_BUDGET));
+        // to the refill for the index and to the beginning, the clean run continues where the reading stopped
+        assertEquals(2, m.consumerForPartion(new TopicPartition(TOPIC, 0))._seekCount);
+    }
+
+    /**
+     * the consumer seeks to the beginning, to the refill for the clean run when the set is full and back to the position
+     * where the reading continues. The last clean run starts at the position where the reading stopped.
+     */
+    @Test
+    public void testMultiplePassesSeekForEveryCleanRun() {
+        final ImmutableMultiset<String> topics = ImmutableMultiset.of(TOPIC);
+        final Mocks m = new Mocks(topics, 2);
+        test(m, topics, "ia,ib,ic,id,ie,if", "ia,ib", "dc,dd,de,df", 1, c -> {
+            // the set is full after the second poll
+        });
+        assertEquals(3, m.consumerForPartion(new TopicPartition(TOPIC, 0))._seekCount);
+    }
+
     private void test(final ImmutableMultiset<String> topics, final String queueBefore, final String fullIndex,
             final String expectedDelete) {
-        final Mocks m = new Mocks(topics);
+        test(topics, queueBefore, fullIndex, expectedDelete, 1);
+    }
+
+    private void test(final ImmutableMultiset<String> topics, final String queueBefore, final String fullIndex,
+            final String expectedDelete, final int parallelism) {
+        test(topics, queueBefore, fullIndex, expectedDelete, parallelism, c -> {
+            // default key set
+        });
+    }
+
+    private void test(final ImmutableMultiset<String> topics, final String queueBefore, final String fullIndex,
+            final String expectedDelete, final int parallelism,
+            final java.util.function.Consumer<KafkaCleaningProducerImpl<String, String>> configuration) {
+        test(new Mocks(topics), topics, queueBefore, fullIndex, expectedDelete, parallelism, configuration);
+    }
+
+    private void test(final Mocks m, final ImmutableMultiset<String> topics, final String queueBefore,
+            final String fullIndex, final String expectedDelete, final int parallelism,
+            final java.util.function.Consumer<KafkaCleaningProducerImpl<String, String>> configuration) {
 
         final ImmutableList<ProducerRecord<String, String>> recordsBefore = m.toRecords(false, queueBefore);
         for (final ProducerRecord<String, String> record : recordsBefore) {
@@ -190,7 +438,8 @@ public class KafkaCleaningProducerImplTest {
         }
 
         final KafkaCleaningProducerImpl<String, String> cleaner = m.cleaner();
-        cleaner.setMaxSetSize(2);
+        cleaner.setMaxSetSize(2).setParallelism(parallelism);
+        configuration.accept(cleaner);
         final ImmutableList<ProducerRecord<String, String>> recordsFullIndex;
         try (final KafkaCleaningProducerState<String> state = cleaner.beginRefill(topics.elementSet())) {
 
@@ -269,4 +518,222 @@ public class KafkaCleaningProducerImplTest {
         assertEquals(remainingList.size(), remainingSet.size());
     }
 
+    @Test
+    public void testProgress() {
+        final Mocks m = new Mocks(ImmutableMultiset.of(TOPIC, TOPIC));
+        m._producer.send(new ProducerRecord<>(TOPIC, 0, "a", ""));
+        m._producer.send(new ProducerRecord<>(TOPIC, 1, "b", ""));
+        m._producer.send(new ProducerRecord<>(TOPIC, 1, "c", ""));
+
+        final Map<TopicPartition, Long> finished = new ConcurrentHashMap<>();
+        final Map<TopicPartition, Long> lastOffsets = new ConcurrentHashMap<>();
+        final KafkaCleaningProducerImpl<String, String> cleaner = m.cleaner().setParallelism(2)
+                .setProgressListener(new KafkaCleaningProgressListener() {
+
+                    @Override
+                    public void progress(final TopicPartition topicPartition, final long offset, final long endOffset) {
+                        lastOffsets.put(topicPartition, offset);
+                    }
+
+                    @Override
+                    public void partitionFinished(final TopicPartition topicPartition, final long deletedCount) {
+                        finished.put(topicPartition, deletedCount);
+                    }
+
+                });
+        try (final KafkaCleaningProducerState<String> state = cleaner.beginRefill(TOPIC)) {
+            state.finishRefill();
+        }
+
+        assertEquals(ImmutableMap.of(new TopicPartition(TOPIC, 0), 1L, new TopicPartition(TOPIC, 1), 2L), finished);
+        assertEquals(ImmutableMap.of(new TopicPartition(TOPIC, 0), 1L, new TopicPartition(TOPIC, 1), 2L), lastOffsets);
+    }
+
+    @Test
+    public void testFailuresOfAllPartitionsAreThrown() {
+        final Mocks m = new Mocks(ImmutableMultiset.of(TOPIC, TOPIC, TOPIC));
+        for (int partition = 0; partition < 3; partition++) {
+            m._producer.send(new ProducerRecord<>(TOPIC, partition, "k" + partition, ""));
+        }
+        final TopicPartition failing0 = new TopicPartition(TOPIC, 0);
+        final TopicPartition failing2 = new TopicPartition(TOPIC, 2);
+        m.consumerForPartion(failing0).setException(new KafkaException("failure 0"));
+        m.consumerForPartion(failing2).setException(new KafkaException("failure 2"));
+
+        final Map<TopicPartition, RuntimeException> failed = new ConcurrentHashMap<>();
+        final KafkaCleaningProducerImpl<String, String> cleaner = m.cleaner().setParallelism(2)
+                .setExecutor(Runnable::run)
+                .setProgressListener(new KafkaCleaningProgressListener() {
+
+                    @Override
+                    public void partitionFailed(final TopicPartition topicPartition, final RuntimeException exception) {
+                        failed.put(topicPartition, exception);
+                    }
+
+                });
+        try (final KafkaCleaningProducerState<String> state = cleaner.beginRefill(TOPIC)) {
+            state.finishRefill();
+            fail("cleaning should fail");
+        } catch (final IllegalStateException e) {
+            assertEquals(ImmutableSet.of(failing0, failing2), failed.keySet());
+            assertEquals(ImmutableSet.of(e.getCause(), e.getSuppressed()[0]), ImmutableSet.copyOf(failed.values()));
+        }
+    }
+
+    @Test
+    public void testHelpersWhichNeverStartAreNotAwaited() {
+        final Mocks m = new Mocks(ImmutableMultiset.of(TOPIC, TOPIC, TOPIC));
+        m._producer.send(new ProducerRecord<>(TOPIC, 0, "a", ""));
+        m._producer.send(new ProducerRecord<>(TOPIC, 2, "b", ""));
+
+        // like a bounded executor whose threads are busy
+        final List<Runnable> queued = new ArrayList<>();
+        final Map<TopicPartition, Long> finished = new ConcurrentHashMap<>();
+        final KafkaCleaningProducerImpl<String, String> cleaner = m.cleaner().setParallelism(3)
+                .setExecutor(queued::add)
+                .setProgressListener(new KafkaCleaningProgressListener() {
+
+                    @Override
+                    public void partitionFinished(final TopicPartition topicPartition, final long deletedCount) {
+                        finished.put(topicPartition, deletedCount);
+                    }
+
+                });
+        try (final KafkaCleaningProducerState<String> state = cleaner.beginRefill(TOPIC)) {
+            state.finishRefill();
+        }
+        assertEquals(3, finished.size());
+        assertEquals(2, queued.size());
+
+        // helpers which start late have nothing to do
+        queued.forEach(Runnable::run);
+        assertEquals(3, finished.size());
+    }
+
+    @Test
+    public void testConsumersAreCreatedWhenThePartitionIsCleaned() {
+        final Mocks m = new Mocks(ImmutableMultiset.of(TOPIC, TOPIC, TOPIC));
+        final List<MockConsumer<String, String>> created = new ArrayList<>();
+        final KafkaCleaningProducerImpl<String, String> cleaner = new KafkaCleaningProducerImpl<>(m._producer, tp -> {
+            assertEquals(0, created.stream().filter(c -> !c.closed()).count());
+            final MockConsumer<String, String> consumer = m.consumerForPartion(tp);
+            created.add(consumer);
+            return consumer;
+        });
+        try (final KafkaCleaningProducerState<String> state = cleaner.beginRefill(TOPIC)) {
+            state.finishRefill();
+        }
+        assertEquals(3, created.size());
+    }
+
+    @Test
+    public void testErrorsAreThrownAfterAllPartitions() {
+        final Mocks m = new Mocks(ImmutableMultiset.of(TOPIC, TOPIC, TOPIC));
+        final TopicPartition failing = new TopicPartition(TOPIC, 1);
+        final Map<TopicPartition, Long> finished = new ConcurrentHashMap<>();
+        final KafkaCleaningProducerImpl<String, String> cleaner = new KafkaCleaningProducerImpl<>(m._producer, tp -> {
+            if (tp.equals(failing)) {
+                throw new AssertionError("failure 1");
+            }
+            return m.consumerForPartion(tp);
+        }).setParallelism(2).setExecutor(Runnable::run).setProgressListener(new KafkaCleaningProgressListener() {
+
+            @Override
+            public void partitionFinished(final TopicPartition topicPartition, final long deletedCount) {
+                finished.put(topicPartition, deletedCount);
+            }
+
+        });
+        try (final KafkaCleaningProducerState<String> state = cleaner.beginRefill(TOPIC)) {
+            state.finishRefill();
+            fail("cleaning should fail");
+        } catch (final AssertionError e) {
+            assertEquals("failure 1", e.getMessage());
+            assertEquals(ImmutableSet.of(new TopicPartition(TOPIC, 0), new TopicPartition(TOPIC, 2)),
+                    finished.keySet());
+        }
+    }
+
+    /**
+     * an interrupted refill still waits for the helper which cleans a partition, because it uses the producer
+     */
+    @Test
+    public void testInterruptedRefillWaitsForRunningHelpers() throws InterruptedException {
+        final Mocks m = new Mocks(ImmutableMultiset.of(TOPIC, TOPIC));
+        final Thread caller = Thread.currentThread();
+        final CountDownLatch helperStarted = new CountDownLatch(1);
+        final CountDownLatch callerStarted = new CountDownLatch(1);
+        final CountDownLatch helperReleased = new CountDownLatch(1);
+        final AtomicBoolean returned = new AtomicBoolean();
+        final AtomicBoolean returnedBeforeHelper = new AtomicBoolean();
+        final KafkaCleaningProducerImpl<String, String> cleaner = new KafkaCleaningProducerImpl<>(m._producer, tp -> {
+            try {
+                if (Thread.currentThread() == caller) {
+                    // the helper cleans the other partition
+                    helperStarted.await(5, TimeUnit.SECONDS);
+                    callerStarted.countDown();
+                } else {
+                    helperStarted.countDown();
+                    helperReleased.await();
+                    throw new IllegalStateException("helper failure");
+                }
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return m.consumerForPartion(tp);
+        }).setParallelism(2).setExecutor(r -> new Thread(r).start());
+
+        final Thread interrupter = new Thread(() -> {
+            try {
+                callerStarted.await();
+                caller.interrupt();
+                Thread.sleep(100);
+                returnedBeforeHelper.set(returned.get());
+                helperReleased.countDown();
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        interrupter.start();
+        try (final KafkaCleaningProducerState<String> state = cleaner.beginRefill(TOPIC)) {
+            state.finishRefill();
+            fail("cleaning should fail");
+        } catch (final IllegalStateException e) {
+            returned.set(true);
+            // clears the interrupt of the refill
+            assertEquals(true, Thread.interrupted());
+            assertEquals("interrupted while waiting for the cleaning of partitions", e.getMessage());
+            assertEquals(1, e.getSuppressed().length);
+            assertEquals("helper failure", e.getSuppressed()[0].getMessage());
+        }
+        interrupter.join();
+        assertEquals(false, returnedBeforeHelper.get());
+    }
+
+    @Test
+    public void testConsumerPropertiesDefaultsAreUsed() {
+        final Properties defaults = new Properties();
+        defaults.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        final TopicPartition tp = new TopicPartition(TOPIC, 0);
+        // fails without the bootstrap servers of the defaults
+        try (final Consumer<String, ?> consumer =
+                KafkaCleaningProducerImpl.createStringConsumer(tp, new Properties(defaults))) {
+            assertEquals(ImmutableSet.of(tp), consumer.assignment());
+        }
+    }
+
+    @Test
+    public void testNullKeysAreIgnored() {
+        final Mocks m = new Mocks(ImmutableMultiset.of(TOPIC));
+        m._producer.send(new ProducerRecord<>(TOPIC, 0, null, ""));
+        m._producer.send(new ProducerRecord<>(TOPIC, 0, "a1", ""));
+
+        try (final KafkaCleaningProducerState<String> state = m.cleaner().beginRefill(TOPIC)) {
+            state.finishRefill(k -> k.startsWith("a"));
+        }
+
+        final List<ProducerRecord<String, String>> history = m._producer.history();
+        assertEquals(ImmutableList.of(new ProducerRecord<>(TOPIC, 0, "a1", null)), history.subList(2, history.size()));
+    }
+
 }
@@ -0,0 +1,50 @@
+package de.justsoftware.toolbox.kafka.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.Test;
+
+/**
+ * tests for {@link RawKeyFilteringDeserializer} and {@link ValuePresenceDeserializer}
+ */
+@ParametersAreNonnullByDefault
+public class RawKeyFilteringDeserializerTest {
+
+    @Test
+    public void testOnlyAcceptedKeysAreDeserialized() {
+        final AtomicInteger deserialized = new AtomicInteger();
+        final StringDeserializer delegate = new StringDeserializer() {
+
+            @Override
+            public String deserialize(final String topic, final byte[] data) {
+                deserialized.incrementAndGet();
+                return super.deserialize(topic, data);
+            }
+
+        };
+        try (final RawKeyFilteringDeserializer<String> deserializer =
+                new RawKeyFilteringDeserializer<>(delegate, key -> key.length > 0 && key[0] == 'a')) {
+            assertEquals("a1", deserializer.deserialize("T", "a1".getBytes(StandardCharsets.UTF_8)));
+            assertNull(deserializer.deserialize("T", "b1".getBytes(StandardCharsets.UTF_8)));
+            assertNull(deserializer.deserialize("T", null));
+            assertEquals(1, deserialized.get());
+        }
+    }
+
+    @Test
+    public void testValuePresence() {
+        try (final ValuePresenceDeserializer deserializer = new ValuePresenceDeserializer()) {
+            assertTrue(deserializer.deserialize("T", new byte[0]).booleanValue());
+            assertNull(deserializer.deserialize("T", null));
+        }
+    }
+
+}
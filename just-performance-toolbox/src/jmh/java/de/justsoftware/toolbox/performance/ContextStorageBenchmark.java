@@ -0,0 +1,139 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.runtime.internal.AroundClosure;
+import org.aspectj.runtime.reflect.Factory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Requests traced by {@link PerformanceLogger#logJoinPoint} on platform threads of a pool or on one virtual thread per
+ * request. Every request is a join point with {@value #CHILDREN} nested join points, like woven code. Every request or
+ * one in 100 requests is sampled.
+ *
+ * Virtual threads need Java 21, so the {@code VIRTUAL} runs are only executed if they are selected, e.g. with
+ * {@code benchmarkParameters = ['_threads': ['PLATFORM', 'VIRTUAL']]} in the {@code jmh} block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@ParametersAreNonnullByDefault
+public class ContextStorageBenchmark {
+
+    private static final int REQUESTS = 1000;
+    private static final int CHILDREN = 3;
+
+    @Param({ "PLATFORM" })
+    public String _threads;
+
+    @Param({ "1", "100" })
+    public int _sampledOneIn;
+
+    private ExecutorService _executor;
+
+    private JoinPoint.StaticPart _request;
+    private JoinPoint.StaticPart _child;
+
+    private final AroundClosure _requestBody = new AroundClosure() {
+
+        @Override
+        public Object run(final Object[] args) throws Throwable {
+            for (int i = 0; i < CHILDREN; i++) {
+                advised(_child, _childBody);
+            }
+            return null;
+        }
+
+    };
+
+    private final AroundClosure _childBody = new AroundClosure() {
+
+        @Override
+        public Object run(final Object[] args) {
+            return null;
+        }
+
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        final Factory factory = new Factory("ContextStorageBenchmark.java", ContextStorageBenchmark.class);
+        _request = factory.makeSJP(JoinPoint.METHOD_EXECUTION,
+                factory.makeMethodSig("1", "request", ContextStorageBenchmark.class.getName(), "", "", "", "void"), 1);
+        _child = factory.makeSJP(JoinPoint.METHOD_EXECUTION,
+                factory.makeMethodSig("1", "child", ContextStorageBenchmark.class.getName(), "", "", "", "void"), 2);
+        if ("VIRTUAL".equals(_threads)) {
+            if (Runtime.version().feature() < 21) {
+                throw new IllegalStateException("virtual threads need Java 21: " + Runtime.version());
+            }
+            _executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } else {
+            _executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+        PerformanceLogger.setRequestSampler(RequestSampler.oneIn(_sampledOneIn));
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        PerformanceLogger.setPerformanceLoggerEnabled(false);
+        PerformanceLogger.setRequestSampler(RequestSampler.all());
+        _executor.shutdown();
+    }
+
+    public void request() {
+        // target of the request join point
+    }
+
+    public void child() {
+        // target of the child join points
+    }
+
+    private Object advised(final JoinPoint.StaticPart staticPart, final AroundClosure body) throws Throwable {
+        final ProceedingJoinPoint joinPoint = (ProceedingJoinPoint) Factory.makeJP(staticPart, this, this);
+        joinPoint.set$AroundClosure(body);
+        return PerformanceLogger.logJoinPoint(joinPoint);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void requests() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            _executor.execute(() -> {
+                try {
+                    advised(_request, _requestBody);
+                } catch (final Throwable e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+}
@@ -0,0 +1,242 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.runtime.internal.AroundClosure;
+import org.aspectj.runtime.reflect.Factory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Overhead of {@link PerformanceLogger} per traced method invocation, run with the gc profiler (see build.gradle) to get
+ * the allocation rate.
+ *
+ * The modes are
+ * <ul>
+ * <li>{@code DISABLED}: the logger is disabled, the id based methods still maintain the stack</li>
+ * <li>{@code BELOW_THRESHOLD}: call trees are counted, but no sink accepts them</li>
+ * <li>{@code LOGGED}: every call tree is formatted as text like by {@link Slf4jPerformanceSink}</li>
+ * </ul>
+ * Call trees are handled synchronously, so the cost of counting and formatting is part of the measured time. The id
+ * based methods measure the invocations even if the logger is disabled, the {@link TimingPrecision} decides how expensive
+ * that is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@ParametersAreNonnullByDefault
+public class PerformanceLoggerBenchmark {
+
+    /**
+     * as deep as call trees are printed
+     */
+    private static final int DEPTH = CallTreeTextFormat.MAX_DEPTH - 1;
+
+    /**
+     * below the default limit of children per node
+     */
+    private static final int FAN_OUT = 500;
+
+    @Param({ "DISABLED", "BELOW_THRESHOLD", "LOGGED" })
+    public String _mode;
+
+    @Param({ "FULL", "WALL" })
+    public TimingPrecision _timingPrecision;
+
+    private int _rootId;
+    private int _childId;
+    private int[] _fanOutIds;
+
+    private JoinPoint.StaticPart _root;
+    private JoinPoint.StaticPart _child;
+
+    private List<PerformanceSink> _previousSinks;
+    private PerformanceSink _sink;
+
+    /**
+     * the length of the last formatted call tree, so the formatting isn't eliminated
+     */
+    private volatile int _formattedLength;
+
+    private final AroundClosure _rootBody = new AroundClosure() {
+
+        @Override
+        public Object run(final Object[] args) throws Throwable {
+            return advised(_child, _childBody);
+        }
+
+    };
+
+    private final AroundClosure _childBody = new AroundClosure() {
+
+        @Override
+        public Object run(final Object[] args) {
+            return null;
+        }
+
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _rootId = PerformanceLogger.registerMethod(PerformanceLoggerBenchmark.class, "root");
+        _childId = PerformanceLogger.registerMethod(PerformanceLoggerBenchmark.class, "child");
+        _fanOutIds = new int[FAN_OUT];
+        for (int i = 0; i < FAN_OUT; i++) {
+            _fanOutIds[i] = PerformanceLogger.registerMethod(PerformanceLoggerBenchmark.class, "child" + i);
+        }
+        final Factory factory = new Factory("PerformanceLoggerBenchmark.java", PerformanceLoggerBenchmark.class);
+        _root = factory.makeSJP(JoinPoint.METHOD_EXECUTION,
+                factory.makeMethodSig("1", "root", PerformanceLoggerBenchmark.class.getName(), "", "", "", "void"), 1);
+        _child = factory.makeSJP(JoinPoint.METHOD_EXECUTION,
+                factory.makeMethodSig("1", "child", PerformanceLoggerBenchmark.class.getName(), "", "", "", "void"), 2);
+
+        _previousSinks = ImmutableList.copyOf(PerformanceLogger.getSinks());
+        _previousSinks.forEach(PerformanceLogger::removeSink);
+        _sink = "LOGGED".equals(_mode)
+            ? new FormattingSink(0)
+            : new FormattingSink(Long.MAX_VALUE);
+        PerformanceLogger.addSink(_sink);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.setTimingPrecision(_timingPrecision);
+        PerformanceLogger.setPerformanceLoggerEnabled(!"DISABLED".equals(_mode));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        PerformanceLogger.setPerformanceLoggerEnabled(false);
+        PerformanceLogger.setAsyncRendering(true);
+        PerformanceLogger.setTimingPrecision(TimingPrecision.FULL);
+        PerformanceLogger.removeSink(_sink);
+        _previousSinks.forEach(PerformanceLogger::addSink);
+    }
+
+    public void root() {
+        // target of the root join point
+    }
+
+    public void child() {
+        // target of the child join point
+    }
+
+    private Object advised(final JoinPoint.StaticPart staticPart, final AroundClosure body) throws Throwable {
+        final ProceedingJoinPoint joinPoint = (ProceedingJoinPoint) Factory.makeJP(staticPart, this, this);
+        joinPoint.set$AroundClosure(body);
+        return PerformanceLogger.logJoinPoint(joinPoint);
+    }
+
+    /**
+     * a request with a single child by the id based methods
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void directStartMethod() {
+        PerformanceLogger.startMethod(_rootId);
+        PerformanceLogger.startMethod(_childId);
+        PerformanceLogger.finishMethod(_childId);
+        PerformanceLogger.finishMethod(_rootId);
+    }
+
+    /**
+     * the same request as {@link #directStartMethod()} by join points, like woven code
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public Object logJoinPoint() throws Throwable {
+        return advised(_root, _rootBody);
+    }
+
+    /**
+     * {@link #directStartMethod()} in several threads, which count the same methods in {@code TOTAL_COUNTS}
+     */
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(2)
+    public void contendedTotalCounts() {
+        directStartMethod();
+    }
+
+    /**
+     * a recursion as deep as call trees are printed, every level is a node
+     */
+    @Benchmark
+    @OperationsPerInvocation(DEPTH)
+    public void deepRecursion() {
+        recurse(DEPTH);
+    }
+
+    private void recurse(final int depth) {
+        PerformanceLogger.startMethod(_rootId);
+        if (depth > 1) {
+            recurse(depth - 1);
+        }
+        PerformanceLogger.finishMethod(_rootId);
+    }
+
+    /**
+     * a request with many different children
+     */
+    @Benchmark
+    @OperationsPerInvocation(FAN_OUT + 1)
+    public void wideFanOut() {
+        PerformanceLogger.startMethod(_rootId);
+        for (final int childId : _fanOutIds) {
+            PerformanceLogger.startMethod(childId);
+            PerformanceLogger.finishMethod(childId);
+        }
+        PerformanceLogger.finishMethod(_rootId);
+    }
+
+    /**
+     * formats the call trees like {@link Slf4jPerformanceSink}, but without writing them
+     */
+    private final class FormattingSink implements PerformanceSink {
+
+        private final long _thresholdNanos;
+
+        FormattingSink(final long thresholdNanos) {
+            _thresholdNanos = thresholdNanos;
+        }
+
+        @Override
+        public long getThresholdNanos() {
+            return _thresholdNanos;
+        }
+
+        @Override
+        public void acceptCallTree(final CallTree callTree) {
+            _formattedLength = CallTreeTextFormat
+                    .formatCallTree(callTree, PerformanceLogger.getThresholdMethodNanos())
+                    .length();
+        }
+
+        @Override
+        public void acceptStats(final List<MethodStats> stats) {
+            _formattedLength = CallTreeTextFormat.formatStats(stats).length();
+        }
+
+    }
+
+}
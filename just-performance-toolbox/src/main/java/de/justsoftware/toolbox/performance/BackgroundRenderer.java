@@ -0,0 +1,164 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands items from request threads over to a single daemon thread which renders them.
+ *
+ * Submitting is lock free, the queue is bounded by a capacity which may be exceeded by the number of concurrently
+ * submitting threads. If the queue is full the {@link CallTreeDropPolicy} decides what happens. The thread is started
+ * with the first submitted item, and again with the next item if it was ended by a {@link VirtualMachineError}.
+ */
+@ParametersAreNonnullByDefault
+final class BackgroundRenderer<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackgroundRenderer.class);
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String _name;
+    private final Consumer<? super T> _renderer;
+
+    private final ConcurrentLinkedQueue<T> _queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _size = new AtomicInteger();
+    private final LongAdder _dropped = new LongAdder();
+    private final LongAdder _rendered = new LongAdder();
+
+    private volatile int _capacity;
+    private volatile CallTreeDropPolicy _dropPolicy;
+
+    private volatile Thread _thread;
+
+    /**
+     * set by the render thread before it parks, submitters only unpark it if necessary
+     */
+    private volatile boolean _sleeping = false;
+
+    BackgroundRenderer(final String name, final Consumer<? super T> renderer, final int capacity,
+            final CallTreeDropPolicy dropPolicy) {
+        _name = name;
+        _renderer = renderer;
+        _capacity = capacity;
+        _dropPolicy = dropPolicy;
+    }
+
+    void submit(final T item) {
+        if (_size.incrementAndGet() > _capacity) {
+            switch (_dropPolicy) {
+                case DROP_NEWEST:
+                    _size.decrementAndGet();
+                    _dropped.increment();
+                    return;
+                case DROP_OLDEST:
+                    if (_queue.poll() != null) {
+                        _size.decrementAndGet();
+                        _dropped.increment();
+                    }
+                    break;
+                case RENDER_ON_CALLER:
+                    _size.decrementAndGet();
+                    render(item);
+                    return;
+                default:
+                    throw new IllegalStateException("unknown drop policy " + _dropPolicy);
+            }
+        }
+        _queue.offer(item);
+        final Thread thread = _thread;
+        if (thread == null) {
+            startThread();
+        } else if (_sleeping) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private synchronized void startThread() {
+        if (_thread != null) {
+            return;
+        }
+        final Thread thread = new Thread(this::run, _name);
+        thread.setDaemon(true);
+        // set before the start, so a thread which ends immediately can reset it
+        _thread = thread;
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final T item = _queue.poll();
+                if (item != null) {
+                    _size.decrementAndGet();
+                    render(item);
+                } else {
+                    _sleeping = true;
+                    if (_queue.isEmpty()) {
+                        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                    }
+                    _sleeping = false;
+                }
+            }
+        } finally {
+            threadEnded();
+        }
+    }
+
+    /**
+     * the next submitted item starts a new thread
+     */
+    private synchronized void threadEnded() {
+        if (_thread == Thread.currentThread()) {
+            _thread = null;
+            _sleeping = false;
+        }
+    }
+
+    private void render(final T item) {
+        //CSOFF: IllegalCatch errors of a renderer (e.g. a StackOverflowError of a deep tree) must not end the thread
+        try {
+            _renderer.accept(item);
+            _rendered.increment();
+        } catch (final Throwable e) {
+            //CSON: .
+            if (e instanceof VirtualMachineError && !(e instanceof StackOverflowError)) {
+                // e.g. an OutOfMemoryError, the thread ends and is started again by the next item
+                throw (VirtualMachineError) e;
+            }
+            LOG.error("unable to render: " + e.getMessage(), e);
+        }
+    }
+
+    void setCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, but was " + capacity);
+        }
+        _capacity = capacity;
+    }
+
+    void setDropPolicy(final CallTreeDropPolicy dropPolicy) {
+        _dropPolicy = dropPolicy;
+    }
+
+    long getDroppedCount() {
+        return _dropped.sum();
+    }
+
+    long getRenderedCount() {
+        return _rendered.sum();
+    }
+
+    int getQueueSize() {
+        return Math.max(0, _size.get());
+    }
+
+}
@@ -0,0 +1,70 @@
+package de.justsoftware.toolbox.performance;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Writes call trees in the compact binary format of {@link BinaryTraceEncoder} to a file, existing files are replaced.
+ * Every call tree is flushed, so the file can be read while it is written.
+ */
+@ParametersAreNonnullByDefault
+public class BinaryFilePerformanceSink implements PerformanceSink, Closeable {
+
+    private final long _thresholdNanos;
+    private final OutputStream _out;
+    private final BinaryTraceEncoder _encoder = new BinaryTraceEncoder();
+
+    /**
+     * @param thresholdNanos
+     *            call trees which took less time aren't written
+     */
+    public BinaryFilePerformanceSink(final Path file, final long thresholdNanos) {
+        _thresholdNanos = thresholdNanos;
+        try {
+            _out = new BufferedOutputStream(Files.newOutputStream(file));
+        } catch (final IOException e) {
+            throw new IllegalStateException("unable to open " + file, e);
+        }
+        final ByteArrayDataOutput header = ByteStreams.newDataOutput();
+        _encoder.writeHeader(header);
+        write(header);
+    }
+
+    @Override
+    public long getThresholdNanos() {
+        return _thresholdNanos;
+    }
+
+    @Override
+    public void acceptCallTree(final CallTree callTree) {
+        final ByteArrayDataOutput record = ByteStreams.newDataOutput();
+        synchronized (this) {
+            _encoder.writeCallTree(record, callTree);
+            write(record);
+        }
+    }
+
+    private synchronized void write(final ByteArrayDataOutput data) {
+        try {
+            _out.write(data.toByteArray());
+            _out.flush();
+        } catch (final IOException e) {
+            throw new IllegalStateException("unable to write call tree", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        _out.close();
+    }
+
+}
@@ -0,0 +1,134 @@
+package de.justsoftware.toolbox.performance;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Reads the call trees of a trace written by {@link BinaryTraceEncoder}.
+ *
+ * Reading stops at the first zero byte (the unused end of a {@link MappedTraceRecorder} file) or at a truncated record,
+ * so traces which are still written or were written by a crashed JVM can be read. Records of a framed trace which were
+ * reserved, but not completely written, are skipped.
+ */
+@ParametersAreNonnullByDefault
+final class BinaryTraceDecoder {
+
+    private final ByteBuffer _buffer;
+    private final Map<Integer, String> _signatures = new HashMap<>();
+    private final boolean _framed;
+    private int _frameEnd;
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the buffer doesn't start with a trace header
+     */
+    BinaryTraceDecoder(final ByteBuffer buffer) {
+        _buffer = buffer;
+        if (buffer.remaining() < 5 || buffer.getInt() != BinaryTraceEncoder.MAGIC) {
+            throw new IllegalArgumentException("not a trace");
+        }
+        final byte version = buffer.get();
+        if (version != BinaryTraceEncoder.VERSION && version != BinaryTraceEncoder.FRAMED_VERSION) {
+            throw new IllegalArgumentException("unsupported trace version " + version);
+        }
+        _framed = version == BinaryTraceEncoder.FRAMED_VERSION;
+        _frameEnd = buffer.position();
+    }
+
+    /**
+     * @return the next call tree, null at the end of the trace
+     */
+    @CheckForNull
+    DecodedCallTree next() {
+        try {
+            while (_buffer.hasRemaining()) {
+                if (_framed && _buffer.position() >= _frameEnd && !nextFrame()) {
+                    return null;
+                }
+                final byte tag = _buffer.get();
+                if (tag == BinaryTraceEncoder.METHOD_RECORD) {
+                    readMethodRecord();
+                } else if (tag == BinaryTraceEncoder.CALL_TREE_RECORD) {
+                    final long epochMillis = readVarLong();
+                    final int sampleWeight = (int) readVarLong();
+                    return readNode(sampleWeight, epochMillis);
+                } else {
+                    return null;
+                }
+            }
+            return null;
+        } catch (final BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return false if there is no further frame, skips frames which were not completely written
+     */
+    private boolean nextFrame() {
+        while (_buffer.remaining() >= Integer.BYTES) {
+            final int length = _buffer.getInt();
+            final long frameLength = Math.abs((long) length);
+            if (length == 0 || frameLength > _buffer.remaining()) {
+                return false;
+            }
+            _frameEnd = _buffer.position() + (int) frameLength;
+            if (length > 0) {
+                return true;
+            }
+            _buffer.position(_frameEnd);
+        }
+        return false;
+    }
+
+    private void readMethodRecord() {
+        final int methodId = (int) readVarLong();
+        final byte[] signature = new byte[(int) readVarLong()];
+        _buffer.get(signature);
+        _signatures.put(Integer.valueOf(methodId), new String(signature, StandardCharsets.UTF_8));
+    }
+
+    @Nonnull
+    private DecodedCallTree readNode(final int sampleWeight, final long epochMillis) {
+        final int methodId = (int) readVarLong();
+        final long count = readVarLong();
+        final long duration = readVarLong();
+        final long cpuDuration = readVarLong();
+        final long userDuration = readVarLong();
+        final long maxDuration = readVarLong();
+        final int childCount = (int) readVarLong();
+        final ImmutableList.Builder<DecodedCallTree> children = ImmutableList.builder();
+        for (int i = 0; i < childCount; i++) {
+            children.add(readNode(sampleWeight, 0));
+        }
+        final String signature = _signatures.get(Integer.valueOf(methodId));
+        return new DecodedCallTree(methodId,
+                signature == null
+                    ? "unknown method " + methodId
+                    : signature,
+                count, duration, cpuDuration, userDuration, maxDuration, sampleWeight, epochMillis,
+                children.build());
+    }
+
+    private long readVarLong() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = _buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalStateException("malformed variable length integer");
+    }
+
+}
@@ -0,0 +1,108 @@
+package de.justsoftware.toolbox.performance;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.io.ByteArrayDataOutput;
+
+/**
+ * Encodes call trees into a compact binary format.
+ *
+ * A trace starts with {@link #MAGIC} and {@link #VERSION} or {@link #FRAMED_VERSION}, followed by records:
+ * <ul>
+ * <li>{@link #METHOD_RECORD}: method id, length of the signature, UTF-8 signature. It defines a method id before it is
+ * used for the first time.</li>
+ * <li>{@link #CALL_TREE_RECORD}: epoch millis when the root ended, sample weight, root node. A node consists of method
+ * id, count, duration, cpu duration, user duration, max duration, number of children and the children.</li>
+ * </ul>
+ * All numbers are unsigned variable length integers (7 bits per byte, least significant group first), so a node of a
+ * fast method usually needs less than 15 bytes.
+ *
+ * In a {@link #FRAMED_VERSION} trace the records of every call tree are preceded by their length as 4 byte int. A
+ * negative length marks records which were reserved, but not completely written, so a reader can skip them.
+ *
+ * Instances are not thread safe, every trace needs its own instance because it tracks the already defined methods.
+ */
+@ParametersAreNonnullByDefault
+final class BinaryTraceEncoder {
+
+    static final int MAGIC = 0x4a505452; // "JPTR"
+    static final byte VERSION = 1;
+    static final byte FRAMED_VERSION = 2;
+
+    static final byte METHOD_RECORD = 1;
+    static final byte CALL_TREE_RECORD = 2;
+
+    private final BitSet _definedMethods = new BitSet();
+
+    void writeHeader(final ByteArrayDataOutput out) {
+        writeHeader(out, VERSION);
+    }
+
+    void writeHeader(final ByteArrayDataOutput out, final byte version) {
+        out.writeInt(MAGIC);
+        out.writeByte(version);
+    }
+
+    /**
+     * forget the defined methods, e.g. because the records are written to a new trace
+     */
+    void reset() {
+        _definedMethods.clear();
+    }
+
+    /**
+     * write the call tree with the end of its root, or the current time if the end is unknown
+     */
+    void writeCallTree(final ByteArrayDataOutput out, final CallTree root) {
+        final long endEpochMillis = root.getEndEpochMillis();
+        final long epochMillis = endEpochMillis > 0
+            ? endEpochMillis
+            : System.currentTimeMillis();
+        writeMethodRecords(out, root);
+        out.writeByte(CALL_TREE_RECORD);
+        writeVarLong(out, epochMillis);
+        writeVarLong(out, root.getSampleWeight());
+        writeNode(out, root);
+    }
+
+    private void writeMethodRecords(final ByteArrayDataOutput out, final CallTree node) {
+        final int methodId = node.getMethodId();
+        if (!_definedMethods.get(methodId)) {
+            _definedMethods.set(methodId);
+            final byte[] signature = node.getMethodSignature().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(METHOD_RECORD);
+            writeVarLong(out, methodId);
+            writeVarLong(out, signature.length);
+            out.write(signature);
+        }
+        for (final CallTree child : node.getChildren()) {
+            writeMethodRecords(out, child);
+        }
+    }
+
+    private static void writeNode(final ByteArrayDataOutput out, final CallTree node) {
+        writeVarLong(out, node.getMethodId());
+        writeVarLong(out, node.getCount());
+        writeVarLong(out, node.getDuration());
+        writeVarLong(out, node.getCpuDuration());
+        writeVarLong(out, node.getUserDuration());
+        writeVarLong(out, node.getMaxDuration());
+        writeVarLong(out, node.getChildren().size());
+        for (final CallTree child : node.getChildren()) {
+            writeNode(out, child);
+        }
+    }
+
+    static void writeVarLong(final ByteArrayDataOutput out, final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.writeByte((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+}
@@ -0,0 +1,79 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Read only view of a node of a finished call tree, see {@link PerformanceSink}.
+ *
+ * A node accumulates all invocations of a method by the same parent, durations are in nano seconds.
+ */
+public interface CallTree {
+
+    /**
+     * @return the id of the method, see {@link PerformanceLogger#registerMethod}
+     */
+    int getMethodId();
+
+    /**
+     * @return human readable signature of the method, e.g. {@code MyClass.myMethod( String )}
+     */
+    @Nonnull
+    String getMethodSignature();
+
+    /**
+     * @return number of invocations
+     */
+    long getCount();
+
+    long getDuration();
+
+    long getCpuDuration();
+
+    long getUserDuration();
+
+    /**
+     * @return the bytes allocated by the invocations, 0 if allocations are not tracked, see
+     *         {@link PerformanceLogger#setAllocationTrackingEnabled}
+     */
+    default long getAllocatedBytes() {
+        return 0;
+    }
+
+    /**
+     * @return the wall time of the slowest invocation
+     */
+    long getMaxDuration();
+
+    /**
+     * @return the wall clock time in milli seconds when the invocation of the root ended, 0 if unknown. only available
+     *         for the root of a tree.
+     */
+    default long getEndEpochMillis() {
+        return 0;
+    }
+
+    /**
+     * @return the number of requests represented by this tree if requests are sampled, see {@link RequestSampler}. only
+     *         meaningful for the root of a tree.
+     */
+    int getSampleWeight();
+
+    @Nonnull
+    Collection<? extends CallTree> getChildren();
+
+    /**
+     * @return the stack traces sampled while the request took longer than the stack sampling threshold (see
+     *         {@link PerformanceLogger#setStackSamplingThresholdNanos}), as collapsed stacks with the number of samples.
+     *         the frames of a collapsed stack are separated by ';' and start with the outermost frame. only available
+     *         for the root of a tree.
+     */
+    @Nonnull
+    default Map<String, Long> getStackSamples() {
+        return Collections.emptyMap();
+    }
+
+}
@@ -0,0 +1,23 @@
+package de.justsoftware.toolbox.performance;
+
+/**
+ * What {@link PerformanceLogger} does with a finished call tree if the queue of the background renderer is full.
+ */
+public enum CallTreeDropPolicy {
+
+    /**
+     * drop the call tree which was just finished
+     */
+    DROP_NEWEST,
+
+    /**
+     * drop the oldest queued call tree to make room for the finished one
+     */
+    DROP_OLDEST,
+
+    /**
+     * render the call tree synchronously on the request thread, nothing is dropped but slow requests get slower
+     */
+    RENDER_ON_CALLER,
+
+}
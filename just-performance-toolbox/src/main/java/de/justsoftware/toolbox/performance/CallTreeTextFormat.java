@@ -0,0 +1,175 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Formats call trees and stats as text, this is the format of the log output of {@link PerformanceLogger}.
+ */
+@ParametersAreNonnullByDefault
+public final class CallTreeTextFormat {
+
+    private static final double NANOS_PER_MILLI_DOUBLE = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final double BYTES_PER_KILOBYTE_DOUBLE = 1024;
+
+    /**
+     * we don't output call trees with a depth more than this.
+     */
+    static final int MAX_DEPTH = 100;
+
+    /**
+     * for faster output, we store the string for the tree in every possible depth.
+     */
+    private static final ImmutableList<String> DEPTH_STRING = IntStream
+            .range(0, MAX_DEPTH)
+            .mapToObj(depth -> {
+                final StringBuilder sb = new StringBuilder();
+                for (int i = 1; i < depth; i++) {
+                    sb.append("| ");
+                }
+                if (depth > 0) {
+                    sb.append("|-");
+                }
+                return sb.toString();
+            })
+            .collect(ImmutableList.toImmutableList());
+
+    /**
+     * number of sampled stacks and frames per stack which are printed below a call tree
+     */
+    static final int MAX_PRINTED_STACKS = 10;
+    static final int MAX_PRINTED_FRAMES = 20;
+
+    private static final Comparator<CallTree> BY_DURATION_DESC =
+            Comparator.comparingLong(CallTree::getDuration).reversed();
+
+    private CallTreeTextFormat() {
+        super();
+    }
+
+    /**
+     * the allocated bytes are only printed if they were tracked for the tree, see
+     * {@link PerformanceLogger#setAllocationTrackingEnabled}
+     *
+     * @param thresholdMethodNanos
+     *            children of nodes which took less time are skipped
+     */
+    @Nonnull
+    public static String formatCallTree(final CallTree callTree, final long thresholdMethodNanos) {
+        final boolean allocations = callTree.getAllocatedBytes() > 0;
+        final String header = allocations
+            ? "   count time[ms]  cpu[ms] user[ms] alloc[kB] method\n"
+            : "   count time[ms]  cpu[ms] user[ms] method\n";
+        final StringBuilder sb = writeCallTree(new StringBuilder(header), callTree, 0, thresholdMethodNanos, allocations);
+        return writeStackSamples(sb, callTree.getStackSamples()).toString();
+    }
+
+    /**
+     * the most frequent sampled stacks with the sampled method first
+     */
+    @Nonnull
+    private static StringBuilder writeStackSamples(final StringBuilder sb, final Map<String, Long> stackSamples) {
+        if (stackSamples.isEmpty()) {
+            return sb;
+        }
+        sb.append("stack samples:\n");
+        stackSamples
+                .entrySet()
+                .stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(MAX_PRINTED_STACKS)
+                .forEachOrdered(sample -> {
+                    final List<String> frames = Lists.reverse(Arrays.asList(sample.getKey().split(";")));
+                    sb.append(String.format("%7dx ", sample.getValue()));
+                    Joiner.on(" <- ").appendTo(sb, frames.subList(0, Math.min(frames.size(), MAX_PRINTED_FRAMES)));
+                    if (frames.size() > MAX_PRINTED_FRAMES) {
+                        sb.append(" <- ...");
+                    }
+                    sb.append('\n');
+                });
+        return sb;
+    }
+
+    @Nonnull
+    private static StringBuilder writeCallTree(final StringBuilder sb, final CallTree node, final int depth,
+            final long thresholdMethodNanos, final boolean allocations) {
+        sb.append(String.format("%7dx %8.2f %8.2f %8.2f",
+                Long.valueOf(node.getCount()),
+                Double.valueOf(node.getDuration() / NANOS_PER_MILLI_DOUBLE),
+                Double.valueOf(node.getCpuDuration() / NANOS_PER_MILLI_DOUBLE),
+                Double.valueOf(node.getUserDuration() / NANOS_PER_MILLI_DOUBLE)));
+        if (allocations) {
+            sb.append(String.format(" %9.1f", Double.valueOf(node.getAllocatedBytes() / BYTES_PER_KILOBYTE_DOUBLE)));
+        }
+        sb.append(' ').append(DEPTH_STRING.get(depth)).append(' ').append(node.getMethodSignature());
+
+        if (node.getDuration() < thresholdMethodNanos) {
+            return sb.append(" - takes fewer time than threshold, skipping children\n");
+        } else if (depth >= MAX_DEPTH - 1) {
+            return sb.append(" - too deep, skipping children\n");
+        }
+        sb.append("\n");
+
+        node
+                .getChildren()
+                .stream()
+                .sorted(BY_DURATION_DESC)
+                .forEachOrdered(child -> writeCallTree(sb, child, depth + 1, thresholdMethodNanos, allocations));
+        return sb;
+    }
+
+    /**
+     * the allocated bytes per call are only printed if they were tracked for any of the methods
+     *
+     * @param stats
+     *            the stats in the order they should be printed
+     */
+    @Nonnull
+    public static String formatStats(final List<MethodStats> stats) {
+        final boolean allocations = stats.stream().anyMatch(methodCall -> methodCall.getAllocatedBytes() > 0);
+        final StringBuilder sb = new StringBuilder("stats:\n   count  time[ms] /call[ms]   cpu[ms]  user[ms]"
+                + "   p50[ms]   p90[ms]   p99[ms]  p999[ms]   max[ms] cpu50[ms] cpu99[ms] usr50[ms] usr99[ms]");
+        sb.append(allocations
+            ? " alloc/call[kB] method\n"
+            : " method\n");
+        for (final MethodStats methodCall : stats) {
+            final double duration = methodCall.getDuration() / NANOS_PER_MILLI_DOUBLE;
+            final long count = methodCall.getCount();
+            sb.append(String.format("%7dx %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f"
+                    + " %9.2f %9.2f %9.2f %9.2f",
+                    Long.valueOf(count),
+                    Double.valueOf(duration),
+                    Double.valueOf(duration / count),
+                    Double.valueOf(methodCall.getCpuDuration() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getUserDuration() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getP50() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getP90() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getP99() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getP999() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getMax() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getCpuP50() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getCpuP99() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getUserP50() / NANOS_PER_MILLI_DOUBLE),
+                    Double.valueOf(methodCall.getUserP99() / NANOS_PER_MILLI_DOUBLE)));
+            if (allocations) {
+                sb.append(String.format(" %14.1f",
+                        Double.valueOf(methodCall.getAllocatedBytes() / BYTES_PER_KILOBYTE_DOUBLE / count)));
+            }
+            sb.append(String.format(" %s%n", methodCall.getMethodSignature()));
+        }
+        return sb.toString();
+    }
+
+}
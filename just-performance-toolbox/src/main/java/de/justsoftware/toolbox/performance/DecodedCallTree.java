@@ -0,0 +1,91 @@
+package de.justsoftware.toolbox.performance;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Immutable {@link CallTree} read by {@link BinaryTraceDecoder}.
+ */
+@ParametersAreNonnullByDefault
+final class DecodedCallTree implements CallTree {
+
+    private final int _methodId;
+    private final String _methodSignature;
+    private final long _count;
+    private final long _duration;
+    private final long _cpuDuration;
+    private final long _userDuration;
+    private final long _maxDuration;
+    private final int _sampleWeight;
+    private final long _endEpochMillis;
+    private final ImmutableList<DecodedCallTree> _children;
+
+    //CSOFF: ParameterNumber value object
+    DecodedCallTree(final int methodId, final String methodSignature, final long count, final long duration,
+            final long cpuDuration, final long userDuration, final long maxDuration, final int sampleWeight,
+            final long endEpochMillis, final ImmutableList<DecodedCallTree> children) {
+        //CSON: .
+        _methodId = methodId;
+        _methodSignature = methodSignature;
+        _count = count;
+        _duration = duration;
+        _cpuDuration = cpuDuration;
+        _userDuration = userDuration;
+        _maxDuration = maxDuration;
+        _sampleWeight = sampleWeight;
+        _endEpochMillis = endEpochMillis;
+        _children = children;
+    }
+
+    @Override
+    public int getMethodId() {
+        return _methodId;
+    }
+
+    @Override
+    public String getMethodSignature() {
+        return _methodSignature;
+    }
+
+    @Override
+    public long getCount() {
+        return _count;
+    }
+
+    @Override
+    public long getDuration() {
+        return _duration;
+    }
+
+    @Override
+    public long getCpuDuration() {
+        return _cpuDuration;
+    }
+
+    @Override
+    public long getUserDuration() {
+        return _userDuration;
+    }
+
+    @Override
+    public long getMaxDuration() {
+        return _maxDuration;
+    }
+
+    @Override
+    public int getSampleWeight() {
+        return _sampleWeight;
+    }
+
+    @Override
+    public long getEndEpochMillis() {
+        return _endEpochMillis;
+    }
+
+    @Override
+    public ImmutableList<DecodedCallTree> getChildren() {
+        return _children;
+    }
+
+}
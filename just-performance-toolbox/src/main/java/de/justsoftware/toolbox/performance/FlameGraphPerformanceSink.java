@@ -0,0 +1,219 @@
+package de.justsoftware.toolbox.performance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Aggregates the call paths of all call trees into a trie and exports it in the collapsed stack format of flame graph
+ * tools ({@code root;child;grandchild value} per line), e.g. for {@code flamegraph.pl} or speedscope.
+ *
+ * Unlike the stats of {@link PerformanceLogger}, which are aggregated per method, the trie keeps the call paths. Its size
+ * is bounded: if there are more than {@code maxNodes} paths, the least recently seen paths are removed until only 3/4 of
+ * the nodes are left. The time of a removed path is reported as time of its parent.
+ */
+@ParametersAreNonnullByDefault
+public class FlameGraphPerformanceSink implements PerformanceSink {
+
+    private final int _maxNodes;
+    private final long _thresholdNanos;
+
+    private final Node _root = new Node(null, -1, "");
+    private int _nodeCount = 0;
+    private long _callTreeCount = 0;
+
+    /**
+     * a call path in the trie, all values are accumulated over all call trees
+     */
+    private static final class Node {
+
+        final Node _parent;
+        final int _methodId;
+        final String _methodSignature;
+        final Map<Integer, Node> _children = new HashMap<>();
+        long _count;
+        long _duration;
+        long _cpuDuration;
+
+        /**
+         * number of the last call tree which contained this path
+         */
+        long _lastSeen;
+        boolean _removed = false;
+
+        Node(final Node parent, final int methodId, final String methodSignature) {
+            _parent = parent;
+            _methodId = methodId;
+            _methodSignature = methodSignature;
+        }
+
+        long get(final FlameGraphWeight weight) {
+            switch (weight) {
+                case CPU:
+                    return _cpuDuration;
+                case COUNT:
+                    return _count;
+                default:
+                    return _duration;
+            }
+        }
+
+        /**
+         * @return the value of this path without the values of the child paths
+         */
+        long getSelf(final FlameGraphWeight weight) {
+            if (weight == FlameGraphWeight.COUNT) {
+                return _count;
+            }
+            long result = get(weight);
+            for (final Node child : _children.values()) {
+                result -= child.get(weight);
+            }
+            return Math.max(result, 0);
+        }
+
+    }
+
+    /**
+     * @param maxNodes
+     *            maximum number of call paths which are kept
+     * @param thresholdNanos
+     *            call trees which took less time aren't aggregated
+     */
+    public FlameGraphPerformanceSink(final int maxNodes, final long thresholdNanos) {
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("maxNodes must be positive: " + maxNodes);
+        }
+        _maxNodes = maxNodes;
+        _thresholdNanos = thresholdNanos;
+    }
+
+    @Override
+    public long getThresholdNanos() {
+        return _thresholdNanos;
+    }
+
+    @Override
+    public synchronized void acceptCallTree(final CallTree callTree) {
+        _callTreeCount++;
+        merge(_root, callTree, callTree.getSampleWeight());
+        if (_nodeCount > _maxNodes) {
+            evict();
+        }
+    }
+
+    private void merge(final Node parent, final CallTree callTree, final int weight) {
+        Node node = parent._children.get(Integer.valueOf(callTree.getMethodId()));
+        if (node == null) {
+            node = new Node(parent, callTree.getMethodId(), callTree.getMethodSignature());
+            parent._children.put(Integer.valueOf(callTree.getMethodId()), node);
+            _nodeCount++;
+        }
+        node._count += callTree.getCount() * weight;
+        node._duration += callTree.getDuration() * weight;
+        node._cpuDuration += callTree.getCpuDuration() * weight;
+        node._lastSeen = _callTreeCount;
+        for (final CallTree child : callTree.getChildren()) {
+            merge(node, child, weight);
+        }
+    }
+
+    /**
+     * remove the least recently seen paths, a path is seen at least as recently as its child paths, so mostly leafs are
+     * removed
+     */
+    private void evict() {
+        final List<Node> nodes = new ArrayList<>(_nodeCount);
+        collect(_root, nodes);
+        nodes.sort(Comparator.<Node> comparingLong(node -> node._lastSeen).thenComparingLong(node -> node._duration));
+        final int target = _maxNodes / 4 * 3;
+        for (final Node node : nodes) {
+            if (_nodeCount <= target) {
+                return;
+            }
+            if (!node._removed) {
+                node._parent._children.remove(Integer.valueOf(node._methodId));
+                _nodeCount -= markRemoved(node);
+            }
+        }
+    }
+
+    private static void collect(final Node parent, final List<Node> result) {
+        for (final Node child : parent._children.values()) {
+            result.add(child);
+            collect(child, result);
+        }
+    }
+
+    private static int markRemoved(final Node node) {
+        node._removed = true;
+        int result = 1;
+        for (final Node child : node._children.values()) {
+            result += markRemoved(child);
+        }
+        return result;
+    }
+
+    /**
+     * @return number of call paths which are currently kept
+     */
+    public synchronized int getNodeCount() {
+        return _nodeCount;
+    }
+
+    /**
+     * remove all call paths
+     */
+    public synchronized void reset() {
+        _root._children.clear();
+        _nodeCount = 0;
+    }
+
+    /**
+     * write the call paths in the collapsed stack format, one line per path with a value greater than 0
+     */
+    public synchronized void writeCollapsedStacks(final Appendable out, final FlameGraphWeight weight) {
+        final StringBuilder path = new StringBuilder();
+        try {
+            for (final Node child : _root._children.values()) {
+                writeCollapsedStacks(out, weight, path, child);
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("unable to write collapsed stacks", e);
+        }
+    }
+
+    private static void writeCollapsedStacks(final Appendable out, final FlameGraphWeight weight,
+            final StringBuilder path, final Node node) throws IOException {
+        final int length = path.length();
+        if (length > 0) {
+            path.append(';');
+        }
+        path.append(node._methodSignature.replace(';', ','));
+        final long self = node.getSelf(weight);
+        if (self > 0) {
+            out.append(path).append(' ').append(Long.toString(self)).append('\n');
+        }
+        for (final Node child : node._children.values()) {
+            writeCollapsedStacks(out, weight, path, child);
+        }
+        path.setLength(length);
+    }
+
+    /**
+     * @return the call paths in the collapsed stack format, see {@link #writeCollapsedStacks}
+     */
+    @Nonnull
+    public String getCollapsedStacks(final FlameGraphWeight weight) {
+        final StringBuilder result = new StringBuilder();
+        writeCollapsedStacks(result, weight);
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,23 @@
+package de.justsoftware.toolbox.performance;
+
+/**
+ * The value of a call path in the collapsed stacks of {@link FlameGraphPerformanceSink}.
+ */
+public enum FlameGraphWeight {
+
+    /**
+     * the wall time in nano seconds
+     */
+    WALL,
+
+    /**
+     * the cpu time in nano seconds, only measured for methods which read the cpu time, see {@link TimingPrecision}
+     */
+    CPU,
+
+    /**
+     * the number of invocations, so a frame is as wide as the invocations of the method and of all methods invoked by it
+     */
+    COUNT;
+
+}
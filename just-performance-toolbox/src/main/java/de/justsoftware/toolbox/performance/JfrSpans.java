@@ -0,0 +1,63 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import de.justsoftware.toolbox.performance.PerformanceLogger.MethodDescription;
+
+import jdk.jfr.EventType;
+
+/**
+ * Creates and commits {@link MethodSpanEvent}s. This class is only loaded if JFR events are enabled in
+ * {@link PerformanceLogger}.
+ */
+@ParametersAreNonnullByDefault
+final class JfrSpans {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(MethodSpanEvent.class);
+
+    private static final AtomicLong SPAN_IDS = new AtomicLong();
+
+    private JfrSpans() {
+        super();
+    }
+
+    /**
+     * @return a started event or null if no recording is interested in method spans
+     */
+    @CheckForNull
+    static MethodSpanEvent begin() {
+        if (!EVENT_TYPE.isEnabled()) {
+            return null;
+        }
+        final MethodSpanEvent event = new MethodSpanEvent();
+        event._spanId = SPAN_IDS.incrementAndGet();
+        event.begin();
+        return event;
+    }
+
+    static void commit(final MethodSpanEvent event, final MethodDescription method, final int depth,
+            @Nullable final MethodSpanEvent parent, @Nullable final MethodDescription parentMethod, final long wallTime,
+            final long cpuTime, final long userTime, final long thresholdNanos) {
+        event.end();
+        if (wallTime < thresholdNanos || !event.shouldCommit()) {
+            return;
+        }
+        event._method = method.getMethodSignature();
+        event._depth = depth;
+        if (parent != null) {
+            event._parentSpanId = parent._spanId;
+        }
+        if (parentMethod != null) {
+            event._parentMethod = parentMethod.getMethodSignature();
+        }
+        event._wallTime = wallTime;
+        event._cpuTime = cpuTime;
+        event._userTime = userTime;
+        event.commit();
+    }
+
+}
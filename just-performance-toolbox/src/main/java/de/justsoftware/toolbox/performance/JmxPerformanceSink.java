@@ -0,0 +1,111 @@
+package de.justsoftware.toolbox.performance;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Exposes the most recent call trees and stats as MBean, the call trees are only formatted when they are read.
+ */
+@ParametersAreNonnullByDefault
+public class JmxPerformanceSink implements PerformanceSink, JmxPerformanceSinkMXBean {
+
+    private static final String DEFAULT_OBJECT_NAME = "de.justsoftware.toolbox.performance:type=PerformanceSink";
+
+    private final ObjectName _objectName;
+    private final RingBufferPerformanceSink _buffer;
+
+    /**
+     * @param capacity
+     *            number of call trees which are kept
+     * @param thresholdNanos
+     *            call trees which took less time aren't kept
+     */
+    public JmxPerformanceSink(final int capacity, final long thresholdNanos) {
+        this(objectName(DEFAULT_OBJECT_NAME), capacity, thresholdNanos);
+    }
+
+    public JmxPerformanceSink(final ObjectName objectName, final int capacity, final long thresholdNanos) {
+        _objectName = objectName;
+        _buffer = new RingBufferPerformanceSink(capacity, thresholdNanos);
+    }
+
+    @Nonnull
+    private static ObjectName objectName(final String name) {
+        try {
+            return new ObjectName(name);
+        } catch (final MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * register this sink at the platform MBean server
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, _objectName);
+        } catch (final JMException e) {
+            throw new IllegalStateException("unable to register " + _objectName, e);
+        }
+    }
+
+    /**
+     * unregister this sink from the platform MBean server
+     */
+    public void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+        } catch (final JMException e) {
+            throw new IllegalStateException("unable to unregister " + _objectName, e);
+        }
+    }
+
+    @Override
+    public long getThresholdNanos() {
+        return _buffer.getThresholdNanos();
+    }
+
+    @Override
+    public void setThresholdNanos(final long thresholdNanos) {
+        _buffer.setThresholdNanos(thresholdNanos);
+    }
+
+    @Override
+    public void acceptCallTree(final CallTree callTree) {
+        _buffer.acceptCallTree(callTree);
+    }
+
+    @Override
+    public void acceptStats(final List<MethodStats> stats) {
+        _buffer.acceptStats(stats);
+    }
+
+    @Override
+    public long getAcceptedCount() {
+        return _buffer.getAcceptedCount();
+    }
+
+    @Override
+    public List<String> getRecentCallTrees() {
+        final long thresholdMethodNanos = PerformanceLogger.getThresholdMethodNanos();
+        return _buffer
+                .getCallTrees()
+                .stream()
+                .map(callTree -> CallTreeTextFormat.formatCallTree(callTree, thresholdMethodNanos))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Override
+    public List<MethodStats> getStats() {
+        return _buffer.getStats();
+    }
+
+}
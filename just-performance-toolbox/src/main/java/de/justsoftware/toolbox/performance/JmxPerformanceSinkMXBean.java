@@ -0,0 +1,29 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link JmxPerformanceSink}.
+ */
+public interface JmxPerformanceSinkMXBean {
+
+    long getThresholdNanos();
+
+    void setThresholdNanos(long thresholdNanos);
+
+    /**
+     * @return number of call trees accepted since creation
+     */
+    long getAcceptedCount();
+
+    /**
+     * @return the most recent call trees in the text format of the log output, the most recent first
+     */
+    List<String> getRecentCallTrees();
+
+    /**
+     * @return the most recently published stats, ordered by their total duration
+     */
+    List<MethodStats> getStats();
+
+}
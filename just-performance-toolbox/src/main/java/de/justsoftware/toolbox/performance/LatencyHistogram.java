@@ -0,0 +1,167 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Fixed memory histogram of nano second durations with logarithmic buckets, similar to a HdrHistogram.
+ *
+ * Every power of two is split into {@value #SUB_BUCKET_COUNT} linear sub buckets, so a recorded value is reported with
+ * a relative error of less than 1/{@value #SUB_BUCKET_COUNT}. Values below {@value #SUB_BUCKET_COUNT}*2 are exact, values
+ * above {@link #MAX_TRACKABLE_VALUE} (about 4.8 hours) are recorded as {@link #MAX_TRACKABLE_VALUE}. A histogram needs
+ * about 5KB.
+ *
+ * Recording doesn't allocate and doesn't lock, queries may run concurrently to recordings and see a state which
+ * contains only some of the concurrently recorded values.
+ */
+@ParametersAreNonnullByDefault
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+    private static final int MAX_EXPONENT = 43;
+    static final long MAX_TRACKABLE_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_VALUE) + 1;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+
+    private static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    }
+
+    /**
+     * @return the highest value which is recorded into the given bucket
+     */
+    private static long highestValue(final int bucketIndex) {
+        if (bucketIndex < 2 * SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+        final int shift = bucketIndex / SUB_BUCKET_COUNT - 1;
+        final long lowest = (long) (SUB_BUCKET_COUNT + (bucketIndex & SUB_BUCKET_MASK)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * record a value count times
+     */
+    void record(final long value, final long count) {
+        if (count <= 0) {
+            return;
+        }
+        final long trackable = Math.min(value, MAX_TRACKABLE_VALUE);
+        _counts.addAndGet(bucketIndex(trackable), count);
+        _max.accumulate(trackable);
+    }
+
+    /**
+     * update the maximum without recording a value, used if only the mean of several values is recorded
+     */
+    void recordMax(final long value) {
+        _max.accumulate(Math.min(value, MAX_TRACKABLE_VALUE));
+    }
+
+    long getCount() {
+        long result = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            result += _counts.get(i);
+        }
+        return result;
+    }
+
+    long getMax() {
+        return _max.get();
+    }
+
+    /**
+     * @param percentile
+     *            between 0 and 100, e.g. 99.9
+     * @return the value which is greater or equal to the given percentage of the recorded values (within the precision of
+     *         this histogram), 0 if nothing was recorded
+     */
+    long getValueAtPercentile(final double percentile) {
+        return snapshot().getValueAtPercentile(percentile);
+    }
+
+    @Nonnull
+    Snapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = _counts.get(i);
+        }
+        return new Snapshot(counts, getMax());
+    }
+
+    /**
+     * immutable copy of the counts of a histogram
+     */
+    static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new long[BUCKET_COUNT], 0);
+
+        private final long[] _counts;
+        private final long _max;
+
+        private Snapshot(final long[] counts, final long max) {
+            _counts = counts;
+            _max = max;
+        }
+
+        /**
+         * @return the values recorded since the given snapshot of the same histogram, the maximum is the highest value
+         *         of the highest bucket which got a value
+         */
+        @Nonnull
+        Snapshot minus(final Snapshot previous) {
+            final long[] counts = new long[BUCKET_COUNT];
+            int highest = -1;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = _counts[i] - previous._counts[i];
+                if (counts[i] > 0) {
+                    highest = i;
+                }
+            }
+            return new Snapshot(counts, highest < 0
+                ? 0
+                : Math.min(highestValue(highest), _max));
+        }
+
+        long getMax() {
+            return _max;
+        }
+
+        /**
+         * see {@link LatencyHistogram#getValueAtPercentile}
+         */
+        long getValueAtPercentile(final double percentile) {
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                total += _counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += _counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), _max);
+                }
+            }
+            return _max;
+        }
+
+    }
+
+}
@@ -0,0 +1,211 @@
+package de.justsoftware.toolbox.performance;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Appends call trees in the binary format of {@link BinaryTraceEncoder} to memory mapped files of a fixed size, read them
+ * with {@link TraceReader}.
+ *
+ * The files are named {@code <prefix>-<start millis>-<segment>.jptr}, a new file is started when the current one is full
+ * and only the most recent files are kept. Every thread encodes with its own method dictionary and reserves the space
+ * for its record with an atomic increment, so writers don't lock each other. Only switching to the next file is
+ * synchronized. The operating system writes the mapped pages to disk, so recorded call trees survive a crash of the JVM.
+ *
+ * Every record is preceded by its length, which is written negated when the space is reserved and written positive
+ * after the record, so {@link TraceReader} skips records which were not completely written when the JVM crashed. Only a
+ * crash between reserving the space and writing the negated length hides the records of other threads behind it.
+ */
+@ParametersAreNonnullByDefault
+public class MappedTraceRecorder implements PerformanceSink, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedTraceRecorder.class);
+
+    private static final int HEADER_SIZE = 5;
+
+    private final Path _directory;
+    private final String _prefix;
+    private final long _startMillis = System.currentTimeMillis();
+    private final int _segmentSize;
+    private final int _maxSegments;
+    private final long _thresholdNanos;
+
+    private volatile Segment _segment;
+    private volatile boolean _closed = false;
+
+    private final LongAdder _droppedCount = new LongAdder();
+
+    private final ThreadLocal<WriterState> _writerState = ThreadLocal.withInitial(WriterState::new);
+
+    /**
+     * a mapped file
+     */
+    private static final class Segment {
+
+        final long _generation;
+        final Path _file;
+        final MappedByteBuffer _buffer;
+        final AtomicLong _reserved = new AtomicLong(HEADER_SIZE);
+
+        Segment(final long generation, final Path file, final MappedByteBuffer buffer) {
+            _generation = generation;
+            _file = file;
+            _buffer = buffer;
+        }
+
+    }
+
+    /**
+     * the method dictionary of a thread, it is only valid for one segment
+     */
+    private static final class WriterState {
+
+        final BinaryTraceEncoder _encoder = new BinaryTraceEncoder();
+        long _generation = -1;
+
+    }
+
+    /**
+     * @param directory
+     *            where the files are created
+     * @param prefix
+     *            file name prefix
+     * @param segmentSize
+     *            size of a file in bytes
+     * @param maxSegments
+     *            number of files which are kept, older files are deleted
+     * @param thresholdNanos
+     *            call trees which took less time aren't recorded
+     */
+    public MappedTraceRecorder(final Path directory, final String prefix, final int segmentSize, final int maxSegments,
+            final long thresholdNanos) {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segment size too small: " + segmentSize);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("at least one segment must be kept: " + maxSegments);
+        }
+        _directory = directory;
+        _prefix = prefix;
+        _segmentSize = segmentSize;
+        _maxSegments = maxSegments;
+        _thresholdNanos = thresholdNanos;
+        _segment = createSegment(0);
+    }
+
+    @Nonnull
+    private Segment createSegment(final long generation) {
+        final Path file = segmentFile(generation);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize);
+            final ByteArrayDataOutput header = ByteStreams.newDataOutput(HEADER_SIZE);
+            new BinaryTraceEncoder().writeHeader(header, BinaryTraceEncoder.FRAMED_VERSION);
+            buffer.put(header.toByteArray());
+            return new Segment(generation, file, buffer);
+        } catch (final IOException e) {
+            throw new IllegalStateException("unable to create " + file, e);
+        }
+    }
+
+    @Nonnull
+    private Path segmentFile(final long generation) {
+        return _directory.resolve(String.format("%s-%d-%06d.jptr", _prefix, Long.valueOf(_startMillis),
+                Long.valueOf(generation)));
+    }
+
+    @Override
+    public long getThresholdNanos() {
+        return _thresholdNanos;
+    }
+
+    @Override
+    public void acceptCallTree(final CallTree callTree) {
+        final WriterState state = _writerState.get();
+        while (!_closed) {
+            final Segment segment = _segment;
+            if (state._generation != segment._generation) {
+                state._encoder.reset();
+                state._generation = segment._generation;
+            }
+            final ByteArrayDataOutput out = ByteStreams.newDataOutput();
+            state._encoder.writeCallTree(out, callTree);
+            final byte[] record = out.toByteArray();
+            final int frameSize = Integer.BYTES + record.length;
+            if (HEADER_SIZE + frameSize > _segmentSize) {
+                _droppedCount.increment();
+                // the methods were marked as defined, but not written
+                state._generation = -1;
+                return;
+            }
+            final long position = segment._reserved.getAndAdd(frameSize);
+            if (position + frameSize <= _segmentSize) {
+                final ByteBuffer target = segment._buffer.duplicate();
+                target.putInt((int) position, -record.length);
+                target.position((int) position + Integer.BYTES);
+                target.put(record);
+                // commit the record
+                target.putInt((int) position, record.length);
+                return;
+            }
+            rotate(segment);
+        }
+    }
+
+    private synchronized void rotate(final Segment full) {
+        if (_segment != full || _closed) {
+            return;
+        }
+        _segment = createSegment(full._generation + 1);
+        final long expired = full._generation + 1 - _maxSegments;
+        if (expired >= 0) {
+            try {
+                Files.deleteIfExists(segmentFile(expired));
+            } catch (final IOException e) {
+                LOG.warn("unable to delete " + segmentFile(expired) + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the file which is currently written
+     */
+    @Nonnull
+    public Path getCurrentFile() {
+        return _segment._file;
+    }
+
+    /**
+     * @return number of call trees which were not recorded because they didn't fit into a file
+     */
+    public long getDroppedCount() {
+        return _droppedCount.sum();
+    }
+
+    /**
+     * stop recording and write the current file to disk
+     */
+    @Override
+    public synchronized void close() {
+        _closed = true;
+        _segment._buffer.force();
+    }
+
+}
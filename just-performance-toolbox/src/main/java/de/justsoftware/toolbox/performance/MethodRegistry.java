@@ -0,0 +1,105 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import de.justsoftware.toolbox.performance.PerformanceLogger.MethodDescription;
+
+/**
+ * Interns {@link MethodDescription}s into small int ids, so hot paths only need to pass around an int instead of building
+ * a new description for every invocation.
+ *
+ * Ids are never reused and the descriptions are never removed, a registered id is valid for the lifetime of the JVM. So
+ * the number of registered methods is limited, further methods share the id {@link #OVERFLOW_ID}.
+ */
+@ParametersAreNonnullByDefault
+final class MethodRegistry {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int DEFAULT_MAX_SIZE = 1 << 16;
+
+    private static final ConcurrentHashMap<MethodDescription, Integer> IDS = new ConcurrentHashMap<>();
+
+    /**
+     * descriptions indexed by id, the array is replaced when it grows, writes are guarded by the class lock
+     */
+    private static volatile MethodDescription[] _descriptions = new MethodDescription[INITIAL_CAPACITY];
+
+    private static int _size = 0;
+
+    private static volatile int _maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * the id of the methods which are registered after the limit was reached
+     */
+    static final int OVERFLOW_ID = register(new MethodDescription(PerformanceLogger.class, "overflow"));
+
+    private MethodRegistry() {
+        super();
+    }
+
+    /**
+     * @return the id of the given method, the method is registered if it is not yet known. {@link #OVERFLOW_ID} if the
+     *         limit of registered methods is reached.
+     */
+    static int register(final MethodDescription method) {
+        final Integer existing = IDS.get(method);
+        if (existing != null) {
+            return existing.intValue();
+        }
+        synchronized (MethodRegistry.class) {
+            final Integer concurrentlyAdded = IDS.get(method);
+            if (concurrentlyAdded != null) {
+                return concurrentlyAdded.intValue();
+            }
+            if (_size >= _maxSize) {
+                return OVERFLOW_ID;
+            }
+            final int id = _size++;
+            MethodDescription[] descriptions = _descriptions;
+            if (id >= descriptions.length) {
+                descriptions = Arrays.copyOf(descriptions, descriptions.length * 2);
+            }
+            descriptions[id] = method;
+            // the volatile write publishes the description before the id is visible in the map
+            _descriptions = descriptions;
+            IDS.put(method, Integer.valueOf(id));
+            return id;
+        }
+    }
+
+    /**
+     * maximum number of registered methods, defaults to {@value #DEFAULT_MAX_SIZE}
+     */
+    static void setMaxSize(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        _maxSize = maxSize;
+    }
+
+    static synchronized int size() {
+        return _size;
+    }
+
+    /**
+     * @return the description of a registered id
+     * @throws IllegalArgumentException
+     *             if the id was not returned by {@link #register}
+     */
+    @Nonnull
+    static MethodDescription get(final int id) {
+        final MethodDescription[] descriptions = _descriptions;
+        final MethodDescription result = id >= 0 && id < descriptions.length
+            ? descriptions[id]
+            : null;
+        if (result == null) {
+            throw new IllegalArgumentException("unknown method id " + id);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,58 @@
+package de.justsoftware.toolbox.performance;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event for a single invocation of a method traced by {@link PerformanceLogger}.
+ */
+@Name("de.justsoftware.toolbox.performance.MethodSpan")
+@Label("Method Span")
+@Description("Invocation of a method traced by the PerformanceLogger")
+@Category({ "Just", "Performance" })
+@StackTrace(false)
+class MethodSpanEvent extends Event {
+
+    @Label("Method")
+    @Name("method")
+    String _method;
+
+    @Label("Depth")
+    @Name("depth")
+    @Description("Depth in the call tree, 0 for top level requests")
+    int _depth;
+
+    @Label("Span Id")
+    @Name("spanId")
+    long _spanId;
+
+    @Label("Parent Span Id")
+    @Name("parentSpanId")
+    @Description("Span id of the invoking method, 0 for top level requests")
+    long _parentSpanId;
+
+    @Label("Parent Method")
+    @Name("parentMethod")
+    String _parentMethod;
+
+    @Label("Wall Time")
+    @Name("wallTime")
+    @Timespan(Timespan.NANOSECONDS)
+    long _wallTime;
+
+    @Label("CPU Time")
+    @Name("cpuTime")
+    @Timespan(Timespan.NANOSECONDS)
+    long _cpuTime;
+
+    @Label("User Time")
+    @Name("userTime")
+    @Timespan(Timespan.NANOSECONDS)
+    long _userTime;
+
+}
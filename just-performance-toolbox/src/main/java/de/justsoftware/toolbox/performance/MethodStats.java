@@ -0,0 +1,211 @@
+package de.justsoftware.toolbox.performance;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Immutable snapshot of the accumulated statistics of a method over all call trees, durations are in nano seconds.
+ *
+ * The percentiles are calculated from histograms and have a relative error of about 6%. A call tree node accumulates
+ * all invocations of a method by the same parent, so the histograms get the mean duration of every node: the
+ * percentiles are percentiles of these per node means, a single slow invocation within a loop only raises the mean of
+ * its node. Only {@link #getMax()} is the exact maximum of single invocations. The cpu and user percentiles are
+ * calculated from the timed invocations only, see {@link #getTimedCount()}.
+ */
+@ParametersAreNonnullByDefault
+public final class MethodStats {
+
+    private final int _methodId;
+    private final String _methodSignature;
+    private final long _count;
+    private final long _timedCount;
+    private final long _bypassedCount;
+    private final long _duration;
+    private final long _cpuDuration;
+    private final long _userDuration;
+    private final long _allocatedBytes;
+    private final long _p50;
+    private final long _p90;
+    private final long _p99;
+    private final long _p999;
+    private final long _max;
+    private final long _cpuP50;
+    private final long _cpuP90;
+    private final long _cpuP99;
+    private final long _cpuP999;
+    private final long _userP50;
+    private final long _userP90;
+    private final long _userP99;
+    private final long _userP999;
+
+    //CSOFF: ParameterNumber value object
+    MethodStats(final int methodId, final String methodSignature, final long count, final long timedCount,
+            final long bypassedCount, final long duration, final long cpuDuration, final long userDuration,
+            final long allocatedBytes, final LatencyHistogram.Snapshot durationHistogram,
+            final LatencyHistogram.Snapshot cpuDurationHistogram,
+            final LatencyHistogram.Snapshot userDurationHistogram) {
+        //CSON: .
+        _methodId = methodId;
+        _methodSignature = methodSignature;
+        _count = count;
+        _timedCount = timedCount;
+        _bypassedCount = bypassedCount;
+        _duration = duration;
+        _cpuDuration = cpuDuration;
+        _userDuration = userDuration;
+        _allocatedBytes = allocatedBytes;
+        _p50 = durationHistogram.getValueAtPercentile(50);
+        _p90 = durationHistogram.getValueAtPercentile(90);
+        _p99 = durationHistogram.getValueAtPercentile(99);
+        _p999 = durationHistogram.getValueAtPercentile(99.9);
+        _max = durationHistogram.getMax();
+        _cpuP50 = cpuDurationHistogram.getValueAtPercentile(50);
+        _cpuP90 = cpuDurationHistogram.getValueAtPercentile(90);
+        _cpuP99 = cpuDurationHistogram.getValueAtPercentile(99);
+        _cpuP999 = cpuDurationHistogram.getValueAtPercentile(99.9);
+        _userP50 = userDurationHistogram.getValueAtPercentile(50);
+        _userP90 = userDurationHistogram.getValueAtPercentile(90);
+        _userP99 = userDurationHistogram.getValueAtPercentile(99);
+        _userP999 = userDurationHistogram.getValueAtPercentile(99.9);
+    }
+
+    public int getMethodId() {
+        return _methodId;
+    }
+
+    @Nonnull
+    public String getMethodSignature() {
+        return _methodSignature;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * @return the number of invocations whose cpu time was measured, the cpu and user durations are the sums of these
+     *         invocations, see {@link TimingPrecision}
+     */
+    public long getTimedCount() {
+        return _timedCount;
+    }
+
+    /**
+     * @return the number of invocations which were bypassed by adaptive join points (see
+     *         {@link PerformanceLogger#setAdaptiveJoinPointsEnabled}), they are not part of the other values
+     */
+    public long getBypassedCount() {
+        return _bypassedCount;
+    }
+
+    public long getDuration() {
+        return _duration;
+    }
+
+    public long getMeanDuration() {
+        return _count == 0
+            ? 0
+            : _duration / _count;
+    }
+
+    public long getCpuDuration() {
+        return _cpuDuration;
+    }
+
+    public long getUserDuration() {
+        return _userDuration;
+    }
+
+    /**
+     * @return the bytes allocated by all invocations, 0 if allocations are not tracked
+     */
+    public long getAllocatedBytes() {
+        return _allocatedBytes;
+    }
+
+    public long getP50() {
+        return _p50;
+    }
+
+    public long getP90() {
+        return _p90;
+    }
+
+    public long getP99() {
+        return _p99;
+    }
+
+    public long getP999() {
+        return _p999;
+    }
+
+    /**
+     * @return the maximum wall time of a single invocation
+     */
+    public long getMax() {
+        return _max;
+    }
+
+    public long getCpuP50() {
+        return _cpuP50;
+    }
+
+    public long getCpuP90() {
+        return _cpuP90;
+    }
+
+    public long getCpuP99() {
+        return _cpuP99;
+    }
+
+    public long getCpuP999() {
+        return _cpuP999;
+    }
+
+    public long getUserP50() {
+        return _userP50;
+    }
+
+    public long getUserP90() {
+        return _userP90;
+    }
+
+    public long getUserP99() {
+        return _userP99;
+    }
+
+    public long getUserP999() {
+        return _userP999;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects
+                .toStringHelper(this)
+                .add("method", _methodSignature)
+                .add("count", _count)
+                .add("timedCount", _timedCount)
+                .add("bypassedCount", _bypassedCount)
+                .add("duration", _duration)
+                .add("cpuDuration", _cpuDuration)
+                .add("userDuration", _userDuration)
+                .add("allocatedBytes", _allocatedBytes)
+                .add("p50", _p50)
+                .add("p90", _p90)
+                .add("p99", _p99)
+                .add("p999", _p999)
+                .add("max", _max)
+                .add("cpuP50", _cpuP50)
+                .add("cpuP90", _cpuP90)
+                .add("cpuP99", _cpuP99)
+                .add("cpuP999", _cpuP999)
+                .add("userP50", _userP50)
+                .add("userP90", _userP90)
+                .add("userP99", _userP99)
+                .add("userP999", _userP999)
+                .toString();
+    }
+
+}
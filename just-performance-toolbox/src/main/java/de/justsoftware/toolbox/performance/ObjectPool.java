@@ -0,0 +1,71 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Small lock free pool of reusable objects.
+ *
+ * A thread probes a few slots starting at a position derived from its id, so threads rarely compete for the same slot.
+ * If no pooled object is found the caller creates a new one, if all probed slots are occupied a released object is left
+ * to the garbage collector. Neither acquiring nor releasing allocates.
+ */
+@ParametersAreNonnullByDefault
+final class ObjectPool<T> {
+
+    private static final int PROBES = 4;
+
+    private final AtomicReferenceArray<T> _slots;
+    private final int _mask;
+
+    /**
+     * @param capacity
+     *            rounded up to a power of two
+     */
+    ObjectPool(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        _slots = new AtomicReferenceArray<>(Math.max(size, 1));
+        _mask = _slots.length() - 1;
+    }
+
+    private static int start() {
+        final long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    }
+
+    /**
+     * @return a pooled object or null if there is none
+     */
+    @CheckForNull
+    T acquire() {
+        final int start = start();
+        for (int i = 0; i < PROBES; i++) {
+            final int index = (start + i) & _mask;
+            final T result = _slots.get(index);
+            if (result != null && _slots.compareAndSet(index, result, null)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the object was pooled
+     */
+    boolean release(final T object) {
+        final int start = start();
+        for (int i = 0; i < PROBES; i++) {
+            final int index = (start + i) & _mask;
+            if (_slots.get(index) == null && _slots.compareAndSet(index, null, object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,107 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Encodes spans as {@code ExportTraceServiceRequest} in the JSON encoding of the OpenTelemetry protocol (OTLP), which
+ * can be imported by tracing tools and collectors without a protobuf dependency.
+ *
+ * As in OTLP/JSON the ids are hex strings and 64 bit numbers are strings.
+ */
+@ParametersAreNonnullByDefault
+final class OtlpJsonEncoder {
+
+    static final String SCOPE_NAME = "de.justsoftware.toolbox.performance";
+
+    /**
+     * SPAN_KIND_INTERNAL, a call tree node is a method invocation within a process
+     */
+    private static final int SPAN_KIND_INTERNAL = 1;
+
+    private OtlpJsonEncoder() {
+        super();
+    }
+
+    /**
+     * @return a single line with all spans
+     */
+    @Nonnull
+    static String encode(final String serviceName, final List<SpanData> spans) {
+        final StringBuilder sb = new StringBuilder(256 + spans.size() * 384);
+        sb.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[{\"key\":\"service.name\",\"value\":{\"stringValue\":");
+        appendString(sb, serviceName);
+        sb.append("}}]},\"scopeSpans\":[{\"scope\":{\"name\":");
+        appendString(sb, SCOPE_NAME);
+        sb.append("},\"spans\":[");
+        for (int i = 0; i < spans.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendSpan(sb, spans.get(i));
+        }
+        return sb.append("]}]}]}").toString();
+    }
+
+    private static void appendSpan(final StringBuilder sb, final SpanData span) {
+        sb.append("{\"traceId\":\"").append(span.getTraceId())
+                .append("\",\"spanId\":\"").append(span.getSpanId()).append('"');
+        final String parentSpanId = span.getParentSpanId();
+        if (parentSpanId != null) {
+            sb.append(",\"parentSpanId\":\"").append(parentSpanId).append('"');
+        }
+        sb.append(",\"name\":");
+        appendString(sb, span.getName());
+        sb.append(",\"kind\":").append(SPAN_KIND_INTERNAL)
+                .append(",\"startTimeUnixNano\":\"").append(span.getStartEpochNanos())
+                .append("\",\"endTimeUnixNano\":\"").append(span.getEndEpochNanos())
+                .append("\",\"attributes\":[");
+        boolean first = true;
+        for (final Map.Entry<String, Long> attribute : span.getAttributes().entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append("{\"key\":");
+            appendString(sb, attribute.getKey());
+            sb.append(",\"value\":{\"intValue\":\"").append(attribute.getValue()).append("\"}}");
+        }
+        sb.append("]}");
+    }
+
+    private static void appendString(final StringBuilder sb, final String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < ' ') {
+                        sb.append(String.format("\\u%04x", Integer.valueOf(c)));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+    }
+
+}
@@ -0,0 +1,53 @@
+package de.justsoftware.toolbox.performance;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Writes every batch as one line with an OTLP/JSON {@code ExportTraceServiceRequest} to a file (like the file exporter
+ * of the OpenTelemetry collector), existing files are replaced. Every batch is flushed, so the file can be read while it
+ * is written.
+ */
+@ParametersAreNonnullByDefault
+public class OtlpJsonFileSpanExporter implements SpanExporter, Closeable {
+
+    private final String _serviceName;
+    private final Writer _out;
+
+    /**
+     * @param serviceName
+     *            the {@code service.name} of the exported resource
+     */
+    public OtlpJsonFileSpanExporter(final Path file, final String serviceName) {
+        _serviceName = serviceName;
+        try {
+            _out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            throw new IllegalStateException("unable to open " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void export(final List<SpanData> spans) {
+        try {
+            _out.write(OtlpJsonEncoder.encode(_serviceName, spans));
+            _out.write('\n');
+            _out.flush();
+        } catch (final IOException e) {
+            throw new IllegalStateException("unable to write spans", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        _out.close();
+    }
+
+}
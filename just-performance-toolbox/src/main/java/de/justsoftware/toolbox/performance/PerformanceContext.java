@@ -0,0 +1,181 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import de.justsoftware.toolbox.performance.PerformanceLogger.CallTreeNode;
+
+/**
+ * The position in the call tree of a thread, it is captured before work is passed to another thread and restored by the
+ * thread which executes the work.
+ *
+ * The methods invoked by a wrapped task are added below a {@code PerformanceLogger.async} node to the method which
+ * captured the context. So the wall time of the tasks is reported separately from the time the capturing thread spent
+ * waiting for them. Tasks which finish after the top level request of the capturing thread, or after the task which
+ * captured their context, are logged as separate call trees. So are tasks which exceed the node budget of the attached
+ * tasks, see {@link PerformanceLogger#setMaxCallTreeNodes}.
+ *
+ * <pre>
+ * CompletableFuture&lt;Result&gt; future = PerformanceContext.supplyAsync(() -&gt; compute(), executor);
+ * executor.submit(PerformanceContext.capture().wrap(callable));
+ * </pre>
+ */
+@ParametersAreNonnullByDefault
+public final class PerformanceContext {
+
+    /**
+     * nothing is traced, wrapped tasks are executed unchanged
+     */
+    static final PerformanceContext NONE = new PerformanceContext(null, null);
+
+    /**
+     * the request isn't sampled, so the tasks are not traced either
+     */
+    static final PerformanceContext UNSAMPLED = new PerformanceContext(null, null);
+
+    private final CallTreeNode _parent;
+    final CallTreeNode _root;
+
+    PerformanceContext(final CallTreeNode parent, final CallTreeNode root) {
+        _parent = parent;
+        _root = root;
+    }
+
+    /**
+     * @return the context of the current thread
+     */
+    @Nonnull
+    public static PerformanceContext capture() {
+        return PerformanceLogger.captureContext();
+    }
+
+    /**
+     * add the tree of a finished task to the tree of this context
+     *
+     * @return false if the tree of this context is already finished or the task exceeds the node budget
+     */
+    boolean attach(final CallTreeNode asyncRoot) {
+        synchronized (_root) {
+            if (_root._finished) {
+                return false;
+            }
+            final int attachedNodeCount = _root._attachedNodeCount + asyncRoot._nodeCount;
+            if (attachedNodeCount > PerformanceLogger.getMaxCallTreeNodes()) {
+                return false;
+            }
+            _root._attachedNodeCount = attachedNodeCount;
+            if (_parent._asyncChildren == null) {
+                _parent._asyncChildren = new ArrayList<>();
+            }
+            _parent._asyncChildren.add(asyncRoot);
+            return true;
+        }
+    }
+
+    /**
+     * @return a runnable which executes the given runnable in this context
+     */
+    @Nonnull
+    public Runnable wrap(final Runnable runnable) {
+        if (this == NONE) {
+            return runnable;
+        }
+        return () -> {
+            final boolean entered = PerformanceLogger.enterContext(this);
+            try {
+                runnable.run();
+            } finally {
+                if (entered) {
+                    PerformanceLogger.exitContext();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a callable which executes the given callable in this context
+     */
+    @Nonnull
+    public <T> Callable<T> wrap(final Callable<T> callable) {
+        if (this == NONE) {
+            return callable;
+        }
+        return () -> {
+            final boolean entered = PerformanceLogger.enterContext(this);
+            try {
+                return callable.call();
+            } finally {
+                if (entered) {
+                    PerformanceLogger.exitContext();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a supplier which executes the given supplier in this context
+     */
+    @Nonnull
+    public <T> Supplier<T> wrap(final Supplier<T> supplier) {
+        if (this == NONE) {
+            return supplier;
+        }
+        return () -> {
+            final boolean entered = PerformanceLogger.enterContext(this);
+            try {
+                return supplier.get();
+            } finally {
+                if (entered) {
+                    PerformanceLogger.exitContext();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return an executor which captures the context of the submitting thread for every task
+     */
+    @Nonnull
+    public static Executor wrap(final Executor executor) {
+        return command -> executor.execute(capture().wrap(command));
+    }
+
+    /**
+     * like {@link CompletableFuture#supplyAsync(Supplier, Executor)}, but the supplier is executed in the current context
+     */
+    @Nonnull
+    public static <T> CompletableFuture<T> supplyAsync(final Supplier<T> supplier, final Executor executor) {
+        return CompletableFuture.supplyAsync(capture().wrap(supplier), executor);
+    }
+
+    /**
+     * like {@link CompletableFuture#supplyAsync(Supplier)}, but the supplier is executed in the current context
+     */
+    @Nonnull
+    public static <T> CompletableFuture<T> supplyAsync(final Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(capture().wrap(supplier));
+    }
+
+    /**
+     * like {@link CompletableFuture#runAsync(Runnable, Executor)}, but the runnable is executed in the current context
+     */
+    @Nonnull
+    public static CompletableFuture<Void> runAsync(final Runnable runnable, final Executor executor) {
+        return CompletableFuture.runAsync(capture().wrap(runnable), executor);
+    }
+
+    /**
+     * like {@link CompletableFuture#runAsync(Runnable)}, but the runnable is executed in the current context
+     */
+    @Nonnull
+    public static CompletableFuture<Void> runAsync(final Runnable runnable) {
+        return CompletableFuture.runAsync(capture().wrap(runnable));
+    }
+
+}
@@ -2,23 +2,25 @@ package de.justsoftware.toolbox.performance;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayDeque;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.IntStream;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.Signature;
 import org.aspectj.lang.reflect.ConstructorSignature;
@@ -28,52 +30,135 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
 
 import de.justsoftware.toolbox.model.AbstractImmutableEqualsObject;
+import de.justsoftware.toolbox.performance.TotalCount.Snapshot;
 
 /**
  * This class provides static methods to log Performance and do the log output itself:
  * <ul>
  * <li>{@link #startMethod} or any other of the start methods to be called before the invocation of a method.</li>
  * <li>{@link PerformanceLoggerTimestamp#finish} to be called after invocation of a method, preferred in a finally block</li>
+ * <li>{@link #registerMethod} once and {@link #startMethod(int)} / {@link #finishMethod(int)} for every invocation, this
+ * pair doesn't allocate anything per call and should be used on hot paths</li>
  * <li>{@link #logJoinPoint} to be used with aspectj</li>
  * </ul>
  */
 public class PerformanceLogger {
 
-    private static final double NANOS_PER_MILLI_DOUBLE = TimeUnit.MILLISECONDS.toNanos(1);
-
     private static final Logger LOG = LoggerFactory.getLogger(PerformanceLogger.class);
 
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean CURRENT_THREAD_CPU_TIME_SUPPORTED = isCurrentThreadCpuTimeSupported();
+
     private static volatile long _thresholdMethodNanos = TimeUnit.MICROSECONDS.toNanos(10);
     private static volatile long _thresholdTotalNanos = TimeUnit.MILLISECONDS.toNanos(100);
     private static volatile long _thresholdWarnNanos = TimeUnit.SECONDS.toNanos(1);
 
     private static boolean _performanceLoggerEnabled = false;
 
-    private static volatile int _logCount = 0;
+    private static volatile boolean _asyncRendering = true;
+
+    private static volatile RequestSampler _sampler = RequestSampler.all();
 
     /**
-     * we don't output call trees with a depth more than this.
+     * whether a sampler other than {@link RequestSampler#all()} was set, only then {@link #UNSAMPLED_DEPTH} is used. it
+     * isn't reset, so requests which started unsampled finish unsampled.
      */
-    private static final int MAX_DEPTH = 100;
+    private static volatile boolean _samplerSet = false;
+
+    private static volatile TimingPrecision _timingPrecision = TimingPrecision.FULL;
+
+    private static volatile boolean _jfrEventsEnabled = false;
+    private static volatile boolean _allocationTrackingEnabled = false;
+
+    private static volatile boolean _adaptiveJoinPointsEnabled = false;
+
+    private static volatile boolean _stackSamplingEnabled = false;
+    private static long _stackSamplingIntervalMillis = 10;
+    private static volatile long _jfrThresholdNanos = TimeUnit.MICROSECONDS.toNanos(10);
 
     /**
-     * the stats are limited
+     * the stats are passed to the sinks with every 10th call tree accepted by a sink
+     */
+    private static final int STATS_INTERVAL = 10;
+    private static final AtomicInteger ACCEPTED_CALL_TREE_COUNT = new AtomicInteger();
+
+    /**
+     * the stats passed to the sinks are limited
      */
     private static final int MAX_STATS_COUNT = 100;
 
-    private static final TotalCount OVERALL_COUNT = new TotalCount(new MethodDescription(PerformanceLogger.class, "total"));
-    private static final ConcurrentHashMap<MethodDescription, TotalCount> TOTAL_COUNTS =
-            new ConcurrentHashMap<>(ImmutableMap.of(OVERALL_COUNT._method, OVERALL_COUNT));
+    private static final Ordering<MethodStats> BY_DURATION_DESC =
+            Ordering.natural().reverse().onResultOf(MethodStats::getDuration);
+
+    private static final int DEFAULT_RENDER_QUEUE_CAPACITY = 1000;
 
     /**
-     * this threadlocal {@link Deque} is used for the Callstack for every thread.
+     * the receivers of the finished call trees and stats, the logging sink is registered by default.
      */
-    private static final ThreadLocal<Deque<CallTreeNode>> STACK = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final CopyOnWriteArrayList<PerformanceSink> SINKS =
+            new CopyOnWriteArrayList<>(ImmutableList.of(new Slf4jPerformanceSink()));
+
+    private static final int DEFAULT_MAX_CALL_TREE_NODES = 10_000;
+    private static final int DEFAULT_MAX_CHILDREN_PER_NODE = 1000;
+    private static final int DEFAULT_MAX_TRACKED_METHODS = 2000;
+
+    private static volatile int _maxCallTreeNodes = DEFAULT_MAX_CALL_TREE_NODES;
+    private static volatile int _maxChildrenPerNode = DEFAULT_MAX_CHILDREN_PER_NODE;
+
+    private static final TotalCounts TOTAL_COUNTS = new TotalCounts(DEFAULT_MAX_TRACKED_METHODS);
+    private static final int OVERALL_METHOD_ID =
+            MethodRegistry.register(new MethodDescription(PerformanceLogger.class, "total"));
+
+    /**
+     * the method of the nodes which contain the invocations of methods that exceeded the limits of a call tree, see
+     * {@link #setMaxCallTreeNodes} and {@link #setMaxChildrenPerNode}
+     */
+    private static final int OTHER_METHOD_ID =
+            MethodRegistry.register(new MethodDescription(PerformanceLogger.class, "other"));
+
+    /**
+     * the method of the nodes which contain the work of tasks that were passed to other threads, see
+     * {@link PerformanceContext}
+     */
+    private static final int ASYNC_METHOD_ID =
+            MethodRegistry.register(new MethodDescription(PerformanceLogger.class, "async"));
+
+    private static final int CALL_STACK_POOL_CAPACITY = 256;
+
+    /**
+     * this threadlocal {@link CallStack} is used for the Callstack for every thread, it is only set while the thread
+     * traces a request.
+     */
+    private static final ThreadLocal<CallStack> STACK = new ThreadLocal<>();
+
+    /**
+     * the depth of the invocations of a top level request which isn't sampled, so unsampled requests neither acquire a
+     * {@link CallStack} nor set {@link #STACK}. it is kept for the lifetime of the thread, but only created if a
+     * sampler was set, see {@link #unsampledDepth()}.
+     */
+    private static final ThreadLocal<UnsampledDepth> UNSAMPLED_DEPTH = ThreadLocal.withInitial(UnsampledDepth::new);
+
+    /**
+     * the stacks of finished requests, so threads which only handle a single request (e.g. virtual threads) don't need
+     * to allocate a new stack.
+     */
+    private static final ObjectPool<CallStack> CALL_STACK_POOL = new ObjectPool<>(CALL_STACK_POOL_CAPACITY);
+
+    /**
+     * method ids of the join points seen by {@link #logJoinPoint}, the static part is a singleton per join point.
+     */
+    private static final ConcurrentHashMap<JoinPoint.StaticPart, Integer> JOIN_POINT_IDS = new ConcurrentHashMap<>();
+
+    /**
+     * counts and logs the finished call trees, so the request thread doesn't have to.
+     */
+    private static final BackgroundRenderer<CallTreeNode> RENDERER = new BackgroundRenderer<>(
+            "PerformanceLogger-renderer", PerformanceLogger::handleFinishedCallTree, DEFAULT_RENDER_QUEUE_CAPACITY,
+            CallTreeDropPolicy.DROP_NEWEST);
 
     @ParametersAreNonnullByDefault
     static final class MethodDescription extends AbstractImmutableEqualsObject {
@@ -81,9 +166,10 @@ public class PerformanceLogger {
         private final String _signatureName;
         private final ImmutableList<Class<?>> _params;
 
-        MethodDescription(final Class<?> clz, final Constructor<?> constructor) {
-            this(clz, constructor.getName(), constructor.getParameterTypes());
-        }
+        /**
+         * lazily created, racy initialization is fine because the signature is always the same
+         */
+        private String _methodSignature;
 
         MethodDescription(final Class<?> clz, final Method method) {
             this(clz, method.getName(), method.getParameterTypes());
@@ -100,71 +186,29 @@ public class PerformanceLogger {
         }
 
         @Nonnull
-        String createMethodSignature() {
-            final StringBuilder sb = new StringBuilder(_signatureName).append("( ");
-            Joiner.on(", ").appendTo(sb, _params.stream().map(Class::getSimpleName).iterator());
-            return sb.append(" )").toString();
+        String getMethodSignature() {
+            String result = _methodSignature;
+            if (result == null) {
+                final StringBuilder sb = new StringBuilder(_signatureName).append("( ");
+                Joiner.on(", ").appendTo(sb, _params.stream().map(Class::getSimpleName).iterator());
+                result = sb.append(" )").toString();
+                _methodSignature = result;
+            }
+            return result;
         }
 
     }
 
     /**
-     * for faster output, we store the string for the tree in every possible depth.
-     */
-    private static final ImmutableList<String> DEPTH_STRING = IntStream
-            .range(0, MAX_DEPTH)
-            .mapToObj(depth -> {
-                final StringBuilder sb = new StringBuilder();
-                for (int i = 1; i < depth; i++) {
-                    sb.append("| ");
-                }
-                if (depth > 0) {
-                    sb.append("|-");
-                }
-                return sb.toString();
-            })
-            .collect(ImmutableList.toImmutableList());
-
-    /**
-     * Timestamp for performance logging, encapsulates current time, cpu time and user time.
+     * Handle returned by the start methods, call {@link #finish} after the invocation of the method.
      */
     @ParametersAreNonnullByDefault
     public static class PerformanceLoggerTimestamp {
 
-        private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
-        private static final boolean CURRENT_THREAD_CPU_TIME_SUPPORTED = isCurrentThreadCpuTimeSupported();
-
-        final long _systemNanoTime;
-        final long _currentThreadCpuTime;
-        final long _currentThreadUserTime;
-        final PerformanceLogger.MethodDescription _method;
-
-        PerformanceLoggerTimestamp(final PerformanceLogger.MethodDescription method) {
-            _method = method;
-            _systemNanoTime = System.nanoTime();
-            if (CURRENT_THREAD_CPU_TIME_SUPPORTED) {
-                _currentThreadCpuTime = THREAD_MX_BEAN.getCurrentThreadCpuTime();
-                _currentThreadUserTime = THREAD_MX_BEAN.getCurrentThreadUserTime();
-            } else {
-                _currentThreadCpuTime = _systemNanoTime;
-                _currentThreadUserTime = _systemNanoTime;
-            }
-        }
+        final int _methodId;
 
-        private static boolean isCurrentThreadCpuTimeSupported() {
-            if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
-                return true;
-            }
-            try {
-                THREAD_MX_BEAN.setThreadCpuTimeEnabled(true);
-            } catch (final RuntimeException e) {
-                LOG.error("unable to setThreadCpuTimeEnabled: " + e.getMessage(), e);
-            }
-            final boolean result = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
-            if (!result) {
-                LOG.error("current thread cpu time is disabled, expect gaps in your performance log!");
-            }
-            return result;
+        PerformanceLoggerTimestamp(final int methodId) {
+            _methodId = methodId;
         }
 
         /**
@@ -172,197 +216,756 @@ public class PerformanceLogger {
          */
         @ParametersAreNonnullByDefault
         public void finish() {
-            final PerformanceLoggerTimestamp end = new PerformanceLoggerTimestamp(_method);
-            final Deque<CallTreeNode> stack = STACK.get();
-            if (stack.isEmpty()) {
-                throw new IllegalStateException("Stack is empty!");
-            }
-            final CallTreeNode stackedMethod = stack.removeLast();
+            finishMethod(_methodId);
+        }
 
-            if (!Objects.equals(stackedMethod._method, _method)) {
-                throw new IllegalStateException("Method on stack is not equals to given!");
-            }
-            stackedMethod.increment(this, end);
-            if (!stack.isEmpty()) {
-                return;
-            }
-            STACK.remove();
-            if (!_performanceLoggerEnabled) {
-                return;
-            }
+    }
 
-            stackedMethod.count();
-            OVERALL_COUNT.increment(stackedMethod);
-            if (stackedMethod._duration > _thresholdWarnNanos) {
-                LOG.warn(stackedMethod.writeCallTree());
-                incrementAndLogTotalCounts();
-            } else if (stackedMethod._duration > _thresholdTotalNanos && LOG.isInfoEnabled()) {
-                LOG.info(stackedMethod.writeCallTree());
-                incrementAndLogTotalCounts();
-            } else if (LOG.isDebugEnabled()) {
-                LOG.debug(stackedMethod.writeCallTree());
-                incrementAndLogTotalCounts();
-            }
-        }
+    /**
+     * The call stack of a thread.
+     */
+    @ParametersAreNonnullByDefault
+    private static final class CallStack {
+
+        final Deque<CallTreeNode> _nodes = new ArrayDeque<>();
+
+        /**
+         * the depth of invocations which aren't traced, because the call tree reached its limits. 0 if the current
+         * invocation is traced.
+         */
+        int _skippedDepth = 0;
+
+        /**
+         * the context the current stack was started in if it traces a task of another thread
+         */
+        PerformanceContext _asyncContext;
+
+    }
+
+    /**
+     * see {@link #UNSAMPLED_DEPTH}
+     */
+    private static final class UnsampledDepth {
+
+        int _depth = 0;
 
     }
 
+    /**
+     * @return the unsampled depth of the current thread, null if all requests are sampled, so threads (e.g. virtual
+     *         threads) don't create the thread local with the default sampler
+     */
+    @CheckForNull
+    private static UnsampledDepth unsampledDepth() {
+        return _samplerSet
+            ? UNSAMPLED_DEPTH.get()
+            : null;
+    }
+
     /**
      * This class represents a node of the call tree and stores the accumulated duration and the invocation amount.
      */
     @ParametersAreNonnullByDefault
-    private static class CallTreeNode {
+    static class CallTreeNode implements CallTree {
 
         long _duration = 0;
         long _cpuDuration = 0;
         long _userDuration = 0;
+        long _maxDuration = 0;
+        long _allocatedBytes = 0;
         int _count = 0;
+        int _timedCount = 0;
         final Map<MethodDescription, CallTreeNode> _children = new HashMap<>();
+        final int _methodId;
         final MethodDescription _method;
 
-        CallTreeNode(final MethodDescription method) {
+        /**
+         * timestamps of the current invocation, a node is on the stack at most once so there is no need for a separate
+         * timestamp object
+         */
+        long _startNanoTime;
+        long _startCpuTime;
+        long _startUserTime;
+        long _startAllocatedBytes;
+
+        /**
+         * the method of the current invocation, differs from {@link #_methodId} for the other node
+         */
+        int _invokedMethodId;
+
+        /**
+         * which timers were read for the current invocation, see {@link TimingPrecision}
+         */
+        boolean _cpuTimed;
+        boolean _userTimed;
+        boolean _allocationTracked;
+
+        /**
+         * the flight recorder event of the current invocation, if JFR events are enabled and recorded
+         */
+        MethodSpanEvent _jfrEvent;
+
+        /**
+         * the number of requests represented by this tree, only used for the root
+         */
+        int _sampleWeight = 1;
+
+        /**
+         * the wall clock time when the root finished, only used for the root
+         */
+        long _endEpochMillis;
+
+        /**
+         * the number of nodes in this tree without other nodes, only used for the root
+         */
+        int _nodeCount = 1;
+
+        /**
+         * the number of nodes of the trees of tasks which were attached to this tree, only used for the root and guarded
+         * by it
+         */
+        int _attachedNodeCount = 0;
+
+        /**
+         * whether a {@link PerformanceContext} was captured in this tree, only used for the root
+         */
+        boolean _contextCaptured = false;
+
+        /**
+         * whether the tree is finished, only used for the root and guarded by it if a context was captured
+         */
+        boolean _finished = false;
+
+        /**
+         * the slot of the root in the {@link StackSamplingWatchdog}, -1 if the root isn't sampled. only used for the
+         * root by the thread which created it.
+         */
+        int _watchdogSlot = -1;
+
+        /**
+         * the thread which created the root, only used for the root if it is sampled
+         */
+        Thread _thread;
+
+        /**
+         * the collapsed stacks sampled by the {@link StackSamplingWatchdog}, only used for the root
+         */
+        volatile Map<String, Long> _stackSamples;
+
+        /**
+         * trees of tasks which were passed to other threads, guarded by the root. they are merged into the children
+         * when the tree is counted.
+         */
+        List<CallTreeNode> _asyncChildren;
+
+        CallTreeNode(final int methodId, final MethodDescription method) {
+            _methodId = methodId;
             _method = method;
         }
 
-        void increment(final PerformanceLoggerTimestamp start, final PerformanceLoggerTimestamp end) {
+        void start(final boolean cpuTimed, final boolean userTimed, final boolean allocationTracked) {
+            _cpuTimed = cpuTimed;
+            _userTimed = userTimed;
+            _allocationTracked = allocationTracked;
+            if (allocationTracked) {
+                _startAllocatedBytes = ThreadAllocations.currentThreadAllocatedBytes();
+            }
+            final long nanoTime = System.nanoTime();
+            _startNanoTime = nanoTime;
+            if (cpuTimed) {
+                _startCpuTime = currentThreadCpuTime(nanoTime);
+            }
+            if (userTimed) {
+                _startUserTime = currentThreadUserTime(nanoTime);
+            }
+        }
+
+        void increment(final long endNanoTime) {
+            final long duration = endNanoTime - _startNanoTime;
             _count++;
-            _duration += end._systemNanoTime - start._systemNanoTime;
-            _cpuDuration += end._currentThreadCpuTime - start._currentThreadCpuTime;
-            _userDuration += end._currentThreadUserTime - start._currentThreadUserTime;
+            _duration += duration;
+            _maxDuration = Math.max(_maxDuration, duration);
+            if (_cpuTimed) {
+                _timedCount++;
+                _cpuDuration += currentThreadCpuTime(endNanoTime) - _startCpuTime;
+            }
+            if (_userTimed) {
+                _userDuration += currentThreadUserTime(endNanoTime) - _startUserTime;
+            }
+            if (_allocationTracked) {
+                _allocatedBytes += ThreadAllocations.currentThreadAllocatedBytes() - _startAllocatedBytes;
+            }
+        }
+
+        @Override
+        public int getMethodId() {
+            return _methodId;
         }
 
-        long getDuration() {
+        @Override
+        public String getMethodSignature() {
+            return _method.getMethodSignature();
+        }
+
+        @Override
+        public long getCount() {
+            return _count;
+        }
+
+        @Override
+        public long getDuration() {
             return _duration;
         }
 
-        void count() {
-            final MethodDescription method = _method;
-            final TotalCount fromMap = TOTAL_COUNTS.get(method);
-            final TotalCount totalCount;
-            if (fromMap == null) {
-                final TotalCount newTotalCount = new TotalCount(method);
-                final TotalCount existing = TOTAL_COUNTS.putIfAbsent(method, newTotalCount);
-                totalCount = existing != null
-                    ? existing
-                    : newTotalCount;
-            } else {
-                totalCount = fromMap;
-            }
-            totalCount.increment(this);
-            _children.values().forEach(CallTreeNode::count);
+        @Override
+        public long getCpuDuration() {
+            return _cpuDuration;
         }
 
-        @Nonnull
-        @ParametersAreNonnullByDefault
-        private StringBuilder writeCallTree(final StringBuilder sb, final int depth) {
-            sb.append(String.format("%7dx %8.2f %8.2f %8.2f %s %s",
-                    Long.valueOf(_count),
-                    Double.valueOf(_duration / NANOS_PER_MILLI_DOUBLE),
-                    Double.valueOf(_cpuDuration / NANOS_PER_MILLI_DOUBLE),
-                    Double.valueOf(_userDuration / NANOS_PER_MILLI_DOUBLE),
-                    DEPTH_STRING.get(depth),
-                    _method.createMethodSignature()));
-
-            if (_duration < _thresholdMethodNanos) {
-                return sb.append(" - takes fewer time than threshold, skipping children\n");
-            } else if (depth >= MAX_DEPTH - 1) {
-                return sb.append(" - too deep, skipping children\n");
-            }
-            sb.append("\n");
+        @Override
+        public long getUserDuration() {
+            return _userDuration;
+        }
 
-            _children
-                    .values()
-                    .stream()
-                    .sorted(Comparator.comparing(CallTreeNode::getDuration).reversed())
-                    .forEachOrdered(child -> child.writeCallTree(sb, depth + 1));
-            return sb;
+        @Override
+        public long getMaxDuration() {
+            return _maxDuration;
         }
 
-        @Nonnull
-        String writeCallTree() {
-            return writeCallTree(new StringBuilder("   count time[ms]  cpu[ms] user[ms] method\n"), 0).toString();
+        @Override
+        public long getAllocatedBytes() {
+            return _allocatedBytes;
         }
 
-    }
+        @Override
+        public long getEndEpochMillis() {
+            return _endEpochMillis;
+        }
 
-    @ParametersAreNonnullByDefault
-    private static final class TotalCount {
+        @Override
+        public int getSampleWeight() {
+            return _sampleWeight;
+        }
 
-        final MethodDescription _method;
+        @Override
+        public Collection<CallTreeNode> getChildren() {
+            return Collections.unmodifiableCollection(_children.values());
+        }
 
-        final AtomicLong _duration = new AtomicLong();
-        final AtomicLong _cpuDuration = new AtomicLong();
-        final AtomicLong _userDuration = new AtomicLong();
-        final AtomicInteger _count = new AtomicInteger();
+        @Override
+        public Map<String, Long> getStackSamples() {
+            final Map<String, Long> stackSamples = _stackSamples;
+            return stackSamples == null
+                ? Collections.emptyMap()
+                : Collections.unmodifiableMap(stackSamples);
+        }
 
-        TotalCount(final MethodDescription method) {
-            _method = method;
+        /**
+         * merge the trees of other threads into the children, this is done by the thread which counts the finished tree
+         */
+        void mergeAsyncChildren() {
+            final List<CallTreeNode> asyncChildren = _asyncChildren;
+            if (asyncChildren != null) {
+                _asyncChildren = null;
+                for (final CallTreeNode asyncChild : asyncChildren) {
+                    final CallTreeNode existing = _children.get(asyncChild._method);
+                    if (existing == null) {
+                        _children.put(asyncChild._method, asyncChild);
+                    } else {
+                        existing.add(asyncChild);
+                    }
+                }
+            }
+            for (final CallTreeNode child : _children.values()) {
+                child.mergeAsyncChildren();
+            }
         }
 
-        void increment(final CallTreeNode callTreeNode) {
-            _count.addAndGet(callTreeNode._count);
-            _duration.addAndGet(callTreeNode._duration);
-            _cpuDuration.addAndGet(callTreeNode._cpuDuration);
-            _userDuration.addAndGet(callTreeNode._userDuration);
+        private void add(final CallTreeNode other) {
+            _count += other._count;
+            _timedCount += other._timedCount;
+            _duration += other._duration;
+            _cpuDuration += other._cpuDuration;
+            _userDuration += other._userDuration;
+            _allocatedBytes += other._allocatedBytes;
+            _maxDuration = Math.max(_maxDuration, other._maxDuration);
+            if (other._asyncChildren != null) {
+                if (_asyncChildren == null) {
+                    _asyncChildren = new ArrayList<>();
+                }
+                _asyncChildren.addAll(other._asyncChildren);
+            }
+            for (final CallTreeNode otherChild : other._children.values()) {
+                final CallTreeNode existing = _children.get(otherChild._method);
+                if (existing == null) {
+                    _children.put(otherChild._method, otherChild);
+                } else {
+                    existing.add(otherChild);
+                }
+            }
         }
 
-        long getDuration() {
-            return _duration.get();
+        void count(final int weight, final long epochMillis) {
+            final TotalCount totalCount = TOTAL_COUNTS.get(_methodId);
+            totalCount.increment(_count, _timedCount, _duration, _cpuDuration, _userDuration, _allocatedBytes,
+                    _maxDuration, weight);
+            totalCount._lastUsedMillis = epochMillis;
+            if (_count > 0) {
+                totalCount._slow = _duration / _count >= _thresholdMethodNanos;
+            }
+            if (_adaptiveJoinPointsEnabled) {
+                totalCount.countAdaptive(_count, _duration, _thresholdMethodNanos);
+            }
+            for (final CallTreeNode child : _children.values()) {
+                child.count(weight, epochMillis);
+            }
+        }
+
+        void countOverall(final long epochMillis) {
+            final TotalCount overallCount = TOTAL_COUNTS.get(OVERALL_METHOD_ID);
+            overallCount.increment(_count, _timedCount, _duration, _cpuDuration, _userDuration, _allocatedBytes,
+                    _maxDuration, _sampleWeight);
+            overallCount._lastUsedMillis = epochMillis;
         }
 
     }
 
+    /**
+     * @return a stack from the pool for a sampled top level request of the current thread
+     */
     @Nonnull
+    private static CallStack acquireStack() {
+        CallStack stack = CALL_STACK_POOL.acquire();
+        if (stack == null) {
+            stack = new CallStack();
+        }
+        STACK.set(stack);
+        return stack;
+    }
+
+    /**
+     * the current thread finished its request, the stack is empty
+     */
     @ParametersAreNonnullByDefault
-    private static CallTreeNode createOrGetCurrent(final Deque<CallTreeNode> stack, final MethodDescription method) {
+    private static void releaseStack(final CallStack stack) {
+        STACK.remove();
+        stack._skippedDepth = 0;
+        stack._asyncContext = null;
+        CALL_STACK_POOL.release(stack);
+    }
+
+    /**
+     * @return the node of the method, the other node of the parent if the tree reached its limits or null if the
+     *         invocation must not be traced
+     */
+    @CheckForNull
+    @ParametersAreNonnullByDefault
+    private static CallTreeNode createOrGetCurrent(final Deque<CallTreeNode> stack, final int methodId) {
         if (stack.isEmpty()) {
-            return new CallTreeNode(method);
+            return new CallTreeNode(methodId, MethodRegistry.get(methodId));
         }
 
         final CallTreeNode parent = stack.getLast();
+        final MethodDescription method = MethodRegistry.get(methodId);
         final CallTreeNode timer = parent._children.get(method);
         if (timer != null) {
             return timer;
         }
-        final CallTreeNode newTimer = new CallTreeNode(method);
+        final CallTreeNode root = stack.getFirst();
+        if (root._nodeCount >= _maxCallTreeNodes || parent._children.size() >= _maxChildrenPerNode) {
+            return getOrCreateOther(parent);
+        }
+        root._nodeCount++;
+        final CallTreeNode newTimer = new CallTreeNode(methodId, method);
         parent._children.put(method, newTimer);
         return newTimer;
     }
 
-    private static void incrementAndLogTotalCounts() {
-        if (++_logCount <= 10) { // log only every 10th
+    /**
+     * every node except other nodes may have one other node, so a tree has at most twice as many nodes as its limit
+     */
+    @CheckForNull
+    @ParametersAreNonnullByDefault
+    private static CallTreeNode getOrCreateOther(final CallTreeNode parent) {
+        if (parent._methodId == OTHER_METHOD_ID) {
+            return null;
+        }
+        final MethodDescription other = MethodRegistry.get(OTHER_METHOD_ID);
+        final CallTreeNode existing = parent._children.get(other);
+        if (existing != null) {
+            return existing;
+        }
+        final CallTreeNode result = new CallTreeNode(OTHER_METHOD_ID, other);
+        parent._children.put(other, result);
+        return result;
+    }
+
+    private static void publishStats() {
+        if (ACCEPTED_CALL_TREE_COUNT.incrementAndGet() % STATS_INTERVAL != 0) {
             return;
         }
-        _logCount = 0;
+        final ImmutableList<MethodStats> stats = getStats();
+        final ImmutableList<MethodStats> limited = stats.subList(0, Math.min(stats.size(), MAX_STATS_COUNT));
+        for (final PerformanceSink sink : SINKS) {
+            try {
+                sink.acceptStats(limited);
+            } catch (final RuntimeException e) {
+                LOG.error("sink " + sink + " failed to accept stats: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static boolean isCurrentThreadCpuTimeSupported() {
+        if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+            return true;
+        }
+        try {
+            THREAD_MX_BEAN.setThreadCpuTimeEnabled(true);
+        } catch (final RuntimeException e) {
+            LOG.error("unable to setThreadCpuTimeEnabled: " + e.getMessage(), e);
+        }
+        final boolean result = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+        if (!result) {
+            LOG.error("current thread cpu time is disabled, expect gaps in your performance log!");
+        }
+        return result;
+    }
 
-        final StringBuilder sb = new StringBuilder("stats:\n   count  time[ms] /call[ms]   cpu[ms]  user[ms] method\n");
+    private static long currentThreadCpuTime(final long nanoTime) {
+        return CURRENT_THREAD_CPU_TIME_SUPPORTED
+            ? THREAD_MX_BEAN.getCurrentThreadCpuTime()
+            : nanoTime;
+    }
+
+    private static long currentThreadUserTime(final long nanoTime) {
+        return CURRENT_THREAD_CPU_TIME_SUPPORTED
+            ? THREAD_MX_BEAN.getCurrentThreadUserTime()
+            : nanoTime;
+    }
 
-        final ImmutableList<TotalCount> orderedByDuration =
-                Ordering.natural().reverse().onResultOf(TotalCount::getDuration)
-                        .immutableSortedCopy(TOTAL_COUNTS.values());
-        final Iterable<TotalCount> limited = Iterables.limit(orderedByDuration, MAX_STATS_COUNT);
-        for (final TotalCount methodCall : limited) {
-            final double duration = methodCall._duration.get() / NANOS_PER_MILLI_DOUBLE;
-            final int count = methodCall._count.get();
-            sb.append(String.format("%7dx %9.2f %9.2f %9.2f %9.2f %s%n",
-                    Long.valueOf(count),
-                    Double.valueOf(duration),
-                    Double.valueOf(duration / count),
-                    Double.valueOf(methodCall._cpuDuration.get() / NANOS_PER_MILLI_DOUBLE),
-                    Double.valueOf(methodCall._userDuration.get() / NANOS_PER_MILLI_DOUBLE),
-                    methodCall._method.createMethodSignature()));
+    @Nonnull
+    @ParametersAreNonnullByDefault
+    private static PerformanceLoggerTimestamp startMethod(final MethodDescription method) {
+        final int methodId = MethodRegistry.register(method);
+        startMethod(methodId);
+        return new PerformanceLoggerTimestamp(methodId);
+    }
 
+    @Nonnull
+    @ParametersAreNonnullByDefault
+    private static MethodDescription methodDescription(final Signature signature) {
+        // the names and parameter types are stored in the signature, so no reflection lookup is needed
+        if (signature instanceof MethodSignature) {
+            return new MethodDescription(signature.getDeclaringType(), signature.getName(),
+                    ((MethodSignature) signature).getParameterTypes());
+        } else if (signature instanceof ConstructorSignature) {
+            return constructorDescription(signature.getDeclaringType(),
+                    ((ConstructorSignature) signature).getParameterTypes());
+        } else {
+            return new MethodDescription(signature.getDeclaringType(), signature.getName());
         }
-        LOG.warn(sb.toString());
+    }
+
+    @Nonnull
+    @ParametersAreNonnullByDefault
+    private static MethodDescription constructorDescription(final Class<?> clz, final Class<?>... params) {
+        // same name as Constructor.getName(), but without looking up the (maybe not public) constructor
+        return new MethodDescription(clz, clz.getName(), params);
+    }
 
+    // --- registered invocations
+
+    /**
+     * register a method once, e.g. in a static field, and use the returned id with {@link #startMethod(int)} and
+     * {@link #finishMethod(int)}. the method(name) is supplied by a reflection object.
+     *
+     * @return id of the method, registering the same method again returns the same id
+     */
+    @ParametersAreNonnullByDefault
+    public static int registerMethod(final Class<?> clz, final Method method) {
+        return MethodRegistry.register(new MethodDescription(clz, method));
     }
 
+    /**
+     * register a method once, e.g. in a static field, and use the returned id with {@link #startMethod(int)} and
+     * {@link #finishMethod(int)}. the method(name) is supplied as string.
+     *
+     * @return id of the method, registering the same method again returns the same id
+     */
+    @ParametersAreNonnullByDefault
+    public static int registerMethod(final Class<?> clz, final String method, final Class<?>... params) {
+        return MethodRegistry.register(new MethodDescription(clz, method, params));
+    }
+
+    /**
+     * register a constructor once, e.g. in a static field, and use the returned id with {@link #startMethod(int)} and
+     * {@link #finishMethod(int)}. the method(name) is derived from the class name.
+     *
+     * @return id of the constructor, registering the same constructor again returns the same id
+     */
+    @ParametersAreNonnullByDefault
+    public static int registerConstructor(final Class<?> clz, final Class<?>... params) {
+        return MethodRegistry.register(constructorDescription(clz, params));
+    }
+
+    /**
+     * call this method before invocation of a registered method, it doesn't allocate anything if the method was already
+     * invoked in the current call tree.
+     *
+     * @param methodId
+     *            id returned by one of the register methods
+     */
+    public static void startMethod(final int methodId) {
+        CallStack stack = STACK.get();
+        final boolean root = stack == null;
+        final int sampleWeight;
+        if (root) {
+            final UnsampledDepth unsampled = unsampledDepth();
+            if (unsampled != null && unsampled._depth > 0) {
+                unsampled._depth++;
+                return;
+            }
+            sampleWeight = _sampler.sample();
+            if (sampleWeight <= 0) {
+                // the sampler was set, even if it was set after reading the unsampled depth
+                UNSAMPLED_DEPTH.get()._depth = 1;
+                return;
+            }
+            stack = acquireStack();
+        } else {
+            if (stack._skippedDepth > 0) {
+                stack._skippedDepth++;
+                return;
+            }
+            sampleWeight = 1;
+        }
+        final Deque<CallTreeNode> nodes = stack._nodes;
+        final CallTreeNode node = createOrGetCurrent(nodes, methodId);
+        if (node == null) {
+            stack._skippedDepth = 1;
+            return;
+        }
+        if (root) {
+            node._sampleWeight = sampleWeight;
+        }
+        node._invokedMethodId = methodId;
+        nodes.addLast(node);
+        startNode(node, root);
+        if (root && _stackSamplingEnabled) {
+            node._watchdogSlot = StackSamplingWatchdog.register(node);
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    private static void startNode(final CallTreeNode node, final boolean root) {
+        if (_jfrEventsEnabled) {
+            node._jfrEvent = JfrSpans.begin();
+        }
+        final boolean allocationTracked = _allocationTrackingEnabled;
+        switch (_timingPrecision) {
+            case WALL:
+                node.start(false, false, allocationTracked);
+                break;
+            case WALL_AND_CPU:
+                node.start(true, false, allocationTracked);
+                break;
+            case ROOTS_AND_SLOW_METHODS:
+                // the count is only created when a call tree is counted, a method without stats isn't slow
+                final TotalCount totalCount = TOTAL_COUNTS.peek(node._methodId);
+                final boolean timed = root || totalCount != null && totalCount._slow;
+                node.start(timed, timed, allocationTracked);
+                break;
+            default:
+                node.start(true, true, allocationTracked);
+                break;
+        }
+    }
+
+    /**
+     * call this method after invocation of a registered method, preferred in a finally block.
+     *
+     * @param methodId
+     *            the id which was passed to {@link #startMethod(int)}
+     */
+    public static void finishMethod(final int methodId) {
+        final CallStack stack = STACK.get();
+        if (stack == null) {
+            final UnsampledDepth unsampled = unsampledDepth();
+            if (unsampled == null || unsampled._depth == 0) {
+                throw new IllegalStateException("Stack is empty!");
+            }
+            unsampled._depth--;
+            return;
+        }
+        if (stack._skippedDepth > 0) {
+            stack._skippedDepth--;
+            return;
+        }
+        final long nanoTime = System.nanoTime();
+        final Deque<CallTreeNode> nodes = stack._nodes;
+        final CallTreeNode stackedMethod = nodes.removeLast();
+
+        if (stackedMethod._invokedMethodId != methodId) {
+            if (nodes.isEmpty()) {
+                // a thread with a stack traces a request, so the next invocation starts a new request
+                releaseStack(stack);
+            }
+            throw new IllegalStateException("Method on stack is not equals to given!");
+        }
+        final MethodSpanEvent jfrEvent = stackedMethod._jfrEvent;
+        if (jfrEvent == null) {
+            stackedMethod.increment(nanoTime);
+        } else {
+            stackedMethod._jfrEvent = null;
+            incrementAndCommit(stackedMethod, jfrEvent, nodes, nanoTime);
+        }
+        if (!nodes.isEmpty()) {
+            return;
+        }
+        if (stackedMethod._watchdogSlot >= 0) {
+            StackSamplingWatchdog.unregister(stackedMethod._watchdogSlot);
+        }
+        if (stackedMethod._contextCaptured) {
+            // tasks finishing from now on can't be attached anymore. this is done before a tree is attached to the tree
+            // of another thread, so its nested tasks can't modify it while the other thread merges it.
+            synchronized (stackedMethod) {
+                stackedMethod._finished = true;
+            }
+        }
+        final PerformanceContext asyncContext = stack._asyncContext;
+        releaseStack(stack);
+        if (asyncContext != null && asyncContext.attach(stackedMethod)) {
+            return;
+        }
+        if (!_performanceLoggerEnabled) {
+            return;
+        }
+        // the sinks may get the tree later, e.g. with asynchronous rendering
+        stackedMethod._endEpochMillis = System.currentTimeMillis();
+
+        if (_asyncRendering) {
+            RENDERER.submit(stackedMethod);
+        } else {
+            handleFinishedCallTree(stackedMethod);
+        }
+    }
+
+    // --- asynchronous invocations
+
+    /**
+     * @return the context of the current thread, {@link PerformanceContext#NONE} if nothing is traced
+     */
     @Nonnull
+    static PerformanceContext captureContext() {
+        if (!_performanceLoggerEnabled) {
+            return PerformanceContext.NONE;
+        }
+        final CallStack stack = STACK.get();
+        if (stack == null) {
+            final UnsampledDepth unsampled = unsampledDepth();
+            return unsampled != null && unsampled._depth > 0
+                ? PerformanceContext.UNSAMPLED
+                : PerformanceContext.NONE;
+        }
+        if (stack._skippedDepth > 0) {
+            return PerformanceContext.UNSAMPLED;
+        }
+        final CallTreeNode parent = stack._nodes.peekLast();
+        if (parent == null) {
+            return PerformanceContext.NONE;
+        }
+        final CallTreeNode root = stack._nodes.peekFirst();
+        root._contextCaptured = true;
+        return new PerformanceContext(parent, root);
+    }
+
+    /**
+     * start tracing a task in the given context, the work of the task is added as {@code PerformanceLogger.async} node to
+     * the tree of the context.
+     *
+     * @return whether {@link #exitContext} must be called after the task
+     */
     @ParametersAreNonnullByDefault
-    private static PerformanceLoggerTimestamp startMethod(final MethodDescription method) {
-        final Deque<CallTreeNode> stack = STACK.get();
-        stack.addLast(createOrGetCurrent(stack, method));
-        return new PerformanceLoggerTimestamp(method);
+    static boolean enterContext(final PerformanceContext context) {
+        if (context == PerformanceContext.NONE) {
+            return false;
+        }
+        final UnsampledDepth unsampled = unsampledDepth();
+        if (STACK.get() != null || unsampled != null && unsampled._depth > 0) {
+            // the task is executed by a thread which is already traced, e.g. by the thread which waits for it
+            return false;
+        }
+        if (context == PerformanceContext.UNSAMPLED) {
+            // the context was captured in an unsampled request, so a sampler was set
+            UNSAMPLED_DEPTH.get()._depth = 1;
+            return true;
+        }
+        final CallStack stack = acquireStack();
+        final CallTreeNode node = new CallTreeNode(ASYNC_METHOD_ID, MethodRegistry.get(ASYNC_METHOD_ID));
+        node._sampleWeight = context._root._sampleWeight;
+        node._invokedMethodId = ASYNC_METHOD_ID;
+        stack._asyncContext = context;
+        stack._nodes.addLast(node);
+        startNode(node, true);
+        return true;
+    }
+
+    /**
+     * finish tracing a task which was started with {@link #enterContext}
+     */
+    static void exitContext() {
+        finishMethod(ASYNC_METHOD_ID);
+    }
+
+    @ParametersAreNonnullByDefault
+    private static void incrementAndCommit(final CallTreeNode node, final MethodSpanEvent jfrEvent,
+            final Deque<CallTreeNode> parents, final long nanoTime) {
+        final long duration = node._duration;
+        final long cpuDuration = node._cpuDuration;
+        final long userDuration = node._userDuration;
+        node.increment(nanoTime);
+        final CallTreeNode parent = parents.peekLast();
+        JfrSpans.commit(jfrEvent, node._method, parents.size(),
+                parent == null
+                    ? null
+                    : parent._jfrEvent,
+                parent == null
+                    ? null
+                    : parent._method,
+                node._duration - duration, node._cpuDuration - cpuDuration, node._userDuration - userDuration,
+                _jfrThresholdNanos);
+    }
+
+    /**
+     * count a finished call tree and pass it to the sinks, the tree isn't modified anymore by the thread which created
+     * it.
+     */
+    @ParametersAreNonnullByDefault
+    private static void handleFinishedCallTree(final CallTreeNode root) {
+        if (root._contextCaptured) {
+            synchronized (root) {
+                root.mergeAsyncChildren();
+            }
+        }
+        final long epochMillis = System.currentTimeMillis();
+        root.count(root._sampleWeight, epochMillis);
+        root.countOverall(epochMillis);
+        boolean accepted = false;
+        for (final PerformanceSink sink : SINKS) {
+            // the threshold is inclusive, see PerformanceSink#getThresholdNanos
+            if (root._duration < sink.getThresholdNanos()) {
+                continue;
+            }
+            try {
+                sink.acceptCallTree(root);
+                accepted = true;
+            } catch (final RuntimeException e) {
+                LOG.error("sink " + sink + " failed to accept call tree: " + e.getMessage(), e);
+            }
+        }
+        if (accepted) {
+            publishStats();
+        }
     }
 
     // --- custom invocations
@@ -398,13 +1001,7 @@ public class PerformanceLogger {
     @Nonnull
     @ParametersAreNonnullByDefault
     public static PerformanceLoggerTimestamp startMethod(final Signature signature) {
-        if (signature instanceof MethodSignature) {
-            return startMethod(signature.getDeclaringType(), ((MethodSignature) signature).getMethod());
-        } else if (signature instanceof ConstructorSignature) {
-            return startConstructor(signature.getDeclaringType(), ((ConstructorSignature) signature).getParameterTypes());
-        } else {
-            return startMethod(signature.getDeclaringType(), signature.getName());
-        }
+        return startMethod(methodDescription(signature));
     }
 
     /**
@@ -415,15 +1012,70 @@ public class PerformanceLogger {
     @Nonnull
     @ParametersAreNonnullByDefault
     public static PerformanceLoggerTimestamp startConstructor(final Class<?> clz, final Class<?>... params) {
-        try {
-            return startMethod(new MethodDescription(clz, clz.getConstructor(params)));
-        } catch (final SecurityException | NoSuchMethodException e) {
-            throw new IllegalStateException(e);
-        }
+        return startMethod(constructorDescription(clz, params));
+    }
+
+    // --- stats
+
+    /**
+     * the stats are read without blocking the threads which update them, so a snapshot may contain only a part of the
+     * call trees which are counted concurrently.
+     *
+     * @return the accumulated stats of all methods which were invoked, ordered by their total duration
+     */
+    @Nonnull
+    public static ImmutableList<MethodStats> getStats() {
+        return toSortedMethodStats(totalCountSnapshots());
+    }
+
+    /**
+     * @return the current values of all methods which were invoked
+     */
+    @Nonnull
+    static ImmutableList<Snapshot> totalCountSnapshots() {
+        return TOTAL_COUNTS
+                .values()
+                .stream()
+                .map(TotalCount::snapshot)
+                .filter(snapshot -> snapshot.getCount() > 0)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * @return the stats of the given snapshots, ordered by their total duration
+     */
+    @Nonnull
+    @ParametersAreNonnullByDefault
+    static ImmutableList<MethodStats> toSortedMethodStats(final Iterable<Snapshot> snapshots) {
+        return BY_DURATION_DESC.immutableSortedCopy(Iterables.transform(snapshots, Snapshot::toMethodStats));
     }
 
     // --- configuration methods
 
+    /**
+     * register an additional receiver of finished call trees and stats
+     */
+    @ParametersAreNonnullByDefault
+    public static void addSink(final PerformanceSink sink) {
+        SINKS.addIfAbsent(sink);
+    }
+
+    /**
+     * unregister a receiver, e.g. the default {@link Slf4jPerformanceSink} which can be found with {@link #getSinks()}
+     */
+    @ParametersAreNonnullByDefault
+    public static void removeSink(final PerformanceSink sink) {
+        SINKS.remove(sink);
+    }
+
+    /**
+     * @return the registered receivers of finished call trees and stats
+     */
+    @Nonnull
+    public static ImmutableList<PerformanceSink> getSinks() {
+        return ImmutableList.copyOf(SINKS);
+    }
+
     /**
      * enable or disable the performance logger.
      */
@@ -431,6 +1083,165 @@ public class PerformanceLogger {
         _performanceLoggerEnabled = enabled;
     }
 
+    /**
+     * count and log finished call trees on a background thread (default) or synchronously on the request thread.
+     */
+    public static void setAsyncRendering(final boolean asyncRendering) {
+        _asyncRendering = asyncRendering;
+    }
+
+    /**
+     * maximum number of finished call trees waiting for the background thread, defaults to 1000
+     */
+    public static void setRenderQueueCapacity(final int capacity) {
+        RENDERER.setCapacity(capacity);
+    }
+
+    /**
+     * what to do if the queue of the background thread is full, defaults to {@link CallTreeDropPolicy#DROP_NEWEST}
+     */
+    @ParametersAreNonnullByDefault
+    public static void setRenderDropPolicy(final CallTreeDropPolicy dropPolicy) {
+        RENDERER.setDropPolicy(dropPolicy);
+    }
+
+    /**
+     * @return number of finished call trees which were dropped because the queue of the background thread was full
+     */
+    public static long getDroppedCallTreeCount() {
+        return RENDERER.getDroppedCount();
+    }
+
+    /**
+     * @return number of finished call trees which were counted and logged by the background thread or the request thread
+     */
+    public static long getRenderedCallTreeCount() {
+        return RENDERER.getRenderedCount();
+    }
+
+    /**
+     * @return number of finished call trees waiting for the background thread
+     */
+    public static int getRenderQueueSize() {
+        return RENDERER.getQueueSize();
+    }
+
+    /**
+     * decide which top level requests are traced, defaults to {@link RequestSampler#all()}. the stats of not traced
+     * requests are extrapolated from the traced ones.
+     */
+    @ParametersAreNonnullByDefault
+    public static void setRequestSampler(final RequestSampler sampler) {
+        if (sampler != RequestSampler.all()) {
+            // set before the sampler, so a thread which sees the sampler uses the unsampled depth
+            _samplerSet = true;
+        }
+        _sampler = sampler;
+    }
+
+    /**
+     * which timers are read for every traced method invocation, defaults to {@link TimingPrecision#FULL}
+     */
+    @ParametersAreNonnullByDefault
+    public static void setTimingPrecision(final TimingPrecision timingPrecision) {
+        _timingPrecision = timingPrecision;
+    }
+
+    /**
+     * emit a Java Flight Recorder event ({@code de.justsoftware.toolbox.performance.MethodSpan}) for every traced method
+     * invocation, disabled by default. events are only created while a recording with this event type is running.
+     */
+    public static void setJfrEventsEnabled(final boolean jfrEventsEnabled) {
+        _jfrEventsEnabled = jfrEventsEnabled;
+    }
+
+    /**
+     * method invocations below this limit aren't committed as JFR event, defaults to 10 microseconds
+     */
+    public static void setJfrThresholdNanos(final long jfrThresholdNanos) {
+        _jfrThresholdNanos = jfrThresholdNanos;
+    }
+
+    /**
+     * record the bytes allocated by every traced method invocation, disabled by default. this needs a
+     * {@link com.sun.management.ThreadMXBean} and costs about as much as reading the cpu time.
+     *
+     * @return whether allocations are tracked, false if the jvm doesn't support it
+     */
+    public static boolean setAllocationTrackingEnabled(final boolean allocationTrackingEnabled) {
+        _allocationTrackingEnabled = allocationTrackingEnabled && ThreadAllocations.SUPPORTED;
+        return _allocationTrackingEnabled;
+    }
+
+    /**
+     * let {@link #logJoinPoint} bypass methods which are much faster than the method threshold, disabled by default.
+     * after 1000 invocations with a mean duration below 1/10 of the method threshold, a method is only counted in
+     * {@link MethodStats#getBypassedCount()} instead of being added to the call tree. every 65536th bypassed invocation
+     * the method is measured again for the next 1000 invocations. this reduces the overhead of aspects which advise every
+     * method, e.g. simple getters.
+     */
+    public static void setAdaptiveJoinPointsEnabled(final boolean adaptiveJoinPointsEnabled) {
+        _adaptiveJoinPointsEnabled = adaptiveJoinPointsEnabled;
+    }
+
+    /**
+     * sample the stack traces of top level requests which are still running after the given time, 0 disables sampling
+     * (the default). a watchdog thread scans the running requests in the sampling interval, the samples are attached to
+     * the finished call tree, see {@link CallTree#getStackSamples()}. tasks of other threads aren't sampled.
+     */
+    public static synchronized void setStackSamplingThresholdNanos(final long thresholdNanos) {
+        if (thresholdNanos < 0) {
+            throw new IllegalArgumentException("thresholdNanos must not be negative: " + thresholdNanos);
+        }
+        if (thresholdNanos > 0) {
+            StackSamplingWatchdog.start(thresholdNanos, _stackSamplingIntervalMillis);
+            _stackSamplingEnabled = true;
+        } else if (_stackSamplingEnabled) {
+            _stackSamplingEnabled = false;
+            StackSamplingWatchdog.stop();
+        }
+    }
+
+    /**
+     * how often the stack traces of slow requests are sampled, defaults to 10 milliseconds. takes effect with the next
+     * call of {@link #setStackSamplingThresholdNanos}.
+     */
+    public static synchronized void setStackSamplingIntervalMillis(final long intervalMillis) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("intervalMillis must be positive: " + intervalMillis);
+        }
+        _stackSamplingIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * maximum number of nodes of a call tree, defaults to 10000. further methods are counted in a
+     * {@code PerformanceLogger.other} node of their parent. the trees of tasks which are attached to a call tree (see
+     * {@link PerformanceContext}) share another budget of this size, a task exceeding it is logged as separate call tree.
+     */
+    public static void setMaxCallTreeNodes(final int maxCallTreeNodes) {
+        _maxCallTreeNodes = maxCallTreeNodes;
+    }
+
+    static int getMaxCallTreeNodes() {
+        return _maxCallTreeNodes;
+    }
+
+    /**
+     * maximum number of children of a call tree node, defaults to 1000. further methods are counted in a
+     * {@code PerformanceLogger.other} node.
+     */
+    public static void setMaxChildrenPerNode(final int maxChildrenPerNode) {
+        _maxChildrenPerNode = maxChildrenPerNode;
+    }
+
+    /**
+     * maximum number of methods with stats, defaults to 2000. the stats of a method need about 16KB, if there are more
+     * methods the stats of the least recently invoked methods are removed.
+     */
+    public static void setMaxTrackedMethods(final int maxTrackedMethods) {
+        TOTAL_COUNTS.setMaxSize(maxTrackedMethods);
+    }
+
     /**
      * single method invocations below this limit aren't logged to reduce the size of the call trees
      */
@@ -438,6 +1249,10 @@ public class PerformanceLogger {
         _thresholdMethodNanos = thresholdMethodNanos;
     }
 
+    static long getThresholdMethodNanos() {
+        return _thresholdMethodNanos;
+    }
+
     /**
      * requests below this limit are logged to debug, defaults to 100ms
      */
@@ -445,6 +1260,10 @@ public class PerformanceLogger {
         _thresholdTotalNanos = thresholdTotalNanos;
     }
 
+    static long getThresholdTotalNanos() {
+        return _thresholdTotalNanos;
+    }
+
     /**
      * requests above this limit are logged on warn level, others use info, defaults to 1s
      */
@@ -452,6 +1271,10 @@ public class PerformanceLogger {
         _thresholdWarnNanos = thresholdWarnNanos;
     }
 
+    static long getThresholdWarnNanos() {
+        return _thresholdWarnNanos;
+    }
+
     // --- aop methods
 
     /**
@@ -464,12 +1287,31 @@ public class PerformanceLogger {
         if (!_performanceLoggerEnabled) {
             return joinPoint.proceed();
         }
-        final PerformanceLoggerTimestamp start = startMethod(joinPoint.getSignature());
+        final int methodId = joinPointId(joinPoint.getStaticPart());
+        if (_adaptiveJoinPointsEnabled) {
+            // a method without stats isn't bypassed
+            final TotalCount totalCount = TOTAL_COUNTS.peek(methodId);
+            if (totalCount != null && totalCount.bypass()) {
+                return joinPoint.proceed();
+            }
+        }
+        startMethod(methodId);
         try {
             return joinPoint.proceed();
         } finally {
-            start.finish();
+            finishMethod(methodId);
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    private static int joinPointId(final JoinPoint.StaticPart staticPart) {
+        final Integer cached = JOIN_POINT_IDS.get(staticPart);
+        if (cached != null) {
+            return cached.intValue();
         }
+        final int methodId = MethodRegistry.register(methodDescription(staticPart.getSignature()));
+        JOIN_POINT_IDS.putIfAbsent(staticPart, Integer.valueOf(methodId));
+        return methodId;
     }
 
 }
@@ -0,0 +1,33 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.List;
+
+/**
+ * Receives the finished call trees and the accumulated stats of {@link PerformanceLogger}, see
+ * {@link PerformanceLogger#addSink}.
+ *
+ * Sinks are called by the background thread of the {@link PerformanceLogger} (or by the request thread if rendering is
+ * synchronous), so implementations must be thread safe. The passed call trees aren't modified anymore, but they must not
+ * be modified by sinks either.
+ */
+public interface PerformanceSink {
+
+    /**
+     * @return call trees which took less time aren't passed to {@link #acceptCallTree}, a call tree which took exactly
+     *         this long is passed
+     */
+    long getThresholdNanos();
+
+    /**
+     * called for every finished call tree which took at least {@link #getThresholdNanos()}
+     */
+    void acceptCallTree(CallTree callTree);
+
+    /**
+     * called regularly with the stats of the most expensive methods, ordered by their total duration
+     */
+    default void acceptStats(final List<MethodStats> stats) {
+        // ignore stats by default
+    }
+
+}
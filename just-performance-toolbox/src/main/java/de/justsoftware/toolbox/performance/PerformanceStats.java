@@ -0,0 +1,87 @@
+package de.justsoftware.toolbox.performance;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the stats of {@link PerformanceLogger} as MBean, reading them doesn't block the traced threads.
+ */
+@ParametersAreNonnullByDefault
+public class PerformanceStats implements PerformanceStatsMXBean {
+
+    private static final String DEFAULT_OBJECT_NAME = "de.justsoftware.toolbox.performance:type=PerformanceStats";
+
+    private final ObjectName _objectName;
+    private final StatsDelta _delta = new StatsDelta();
+
+    public PerformanceStats() {
+        this(objectName(DEFAULT_OBJECT_NAME));
+    }
+
+    public PerformanceStats(final ObjectName objectName) {
+        _objectName = objectName;
+    }
+
+    @Nonnull
+    private static ObjectName objectName(final String name) {
+        try {
+            return new ObjectName(name);
+        } catch (final MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * register this bean at the platform MBean server
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, _objectName);
+        } catch (final JMException e) {
+            throw new IllegalStateException("unable to register " + _objectName, e);
+        }
+    }
+
+    /**
+     * unregister this bean from the platform MBean server
+     */
+    public void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+        } catch (final JMException e) {
+            throw new IllegalStateException("unable to unregister " + _objectName, e);
+        }
+    }
+
+    @Override
+    public List<MethodStats> getStats() {
+        return PerformanceLogger.getStats();
+    }
+
+    @Override
+    public List<MethodStats> statsSinceLastSnapshot() {
+        return _delta.next();
+    }
+
+    @Override
+    public long getDroppedCallTreeCount() {
+        return PerformanceLogger.getDroppedCallTreeCount();
+    }
+
+    @Override
+    public long getRenderedCallTreeCount() {
+        return PerformanceLogger.getRenderedCallTreeCount();
+    }
+
+    @Override
+    public int getRenderQueueSize() {
+        return PerformanceLogger.getRenderQueueSize();
+    }
+
+}
@@ -0,0 +1,26 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link PerformanceStats}.
+ */
+public interface PerformanceStatsMXBean {
+
+    /**
+     * @return the accumulated stats of all methods, ordered by their total duration
+     */
+    List<MethodStats> getStats();
+
+    /**
+     * @return the stats since the previous invocation of this operation, see {@link StatsDelta}
+     */
+    List<MethodStats> statsSinceLastSnapshot();
+
+    long getDroppedCallTreeCount();
+
+    long getRenderedCallTreeCount();
+
+    int getRenderQueueSize();
+
+}
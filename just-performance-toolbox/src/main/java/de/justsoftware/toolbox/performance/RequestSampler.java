@@ -0,0 +1,55 @@
+package de.justsoftware.toolbox.performance;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decides which top level requests are traced by {@link PerformanceLogger}.
+ *
+ * Methods which are invoked by a request which is not sampled skip the call stack entirely. The stats of the sampled
+ * requests are extrapolated with the weight returned by {@link #sample()}.
+ */
+@FunctionalInterface
+public interface RequestSampler {
+
+    /**
+     * called once for every top level request, implementations must be thread safe and should be cheap
+     *
+     * @return 0 if the request shouldn't be traced, otherwise the number of requests which are represented by the traced
+     *         one
+     */
+    int sample();
+
+    /**
+     * @return a sampler which traces all requests, this is the default
+     */
+    @Nonnull
+    static RequestSampler all() {
+        return RequestSamplers.ALL;
+    }
+
+    /**
+     * @return a sampler which traces randomly one of n requests
+     */
+    @Nonnull
+    static RequestSampler oneIn(final int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive, but was " + n);
+        }
+        return n == 1
+            ? all()
+            : new RequestSamplers.OneInN(n);
+    }
+
+    /**
+     * @return a sampler which traces at most the given number of requests per second, the weight of a traced request is
+     *         derived from the ratio of seen and traced requests of the previous second
+     */
+    @Nonnull
+    static RequestSampler perSecond(final int maxRequestsPerSecond) {
+        if (maxRequestsPerSecond < 1) {
+            throw new IllegalArgumentException("maxRequestsPerSecond must be positive, but was " + maxRequestsPerSecond);
+        }
+        return new RequestSamplers.RateLimited(maxRequestsPerSecond);
+    }
+
+}
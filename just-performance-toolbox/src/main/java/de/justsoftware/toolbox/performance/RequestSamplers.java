@@ -0,0 +1,90 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Implementations of {@link RequestSampler}.
+ */
+@ParametersAreNonnullByDefault
+final class RequestSamplers {
+
+    static final RequestSampler ALL = () -> 1;
+
+    private RequestSamplers() {
+        super();
+    }
+
+    /**
+     * samples randomly, so request threads don't share any state
+     */
+    @ParametersAreNonnullByDefault
+    static final class OneInN implements RequestSampler {
+
+        private final int _n;
+
+        OneInN(final int n) {
+            _n = n;
+        }
+
+        @Override
+        public int sample() {
+            return ThreadLocalRandom.current().nextInt(_n) == 0
+                ? _n
+                : 0;
+        }
+
+    }
+
+    /**
+     * samples the first requests of every second, when the limit is reached only a volatile read is needed.
+     */
+    @ParametersAreNonnullByDefault
+    static final class RateLimited implements RequestSampler {
+
+        private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        private final int _maxPerSecond;
+
+        private final AtomicLong _second = new AtomicLong(currentSecond());
+        private final LongAdder _seen = new LongAdder();
+        private final AtomicLong _sampled = new AtomicLong();
+
+        /**
+         * seen / sampled of the previous second
+         */
+        private volatile int _weight = 1;
+
+        RateLimited(final int maxPerSecond) {
+            _maxPerSecond = maxPerSecond;
+        }
+
+        private static long currentSecond() {
+            return System.nanoTime() / NANOS_PER_SECOND;
+        }
+
+        @Override
+        public int sample() {
+            final long second = currentSecond();
+            final long lastSecond = _second.get();
+            if (second != lastSecond && _second.compareAndSet(lastSecond, second)) {
+                final long seen = _seen.sumThenReset();
+                final long sampled = _sampled.getAndSet(0);
+                _weight = sampled == 0
+                    ? 1
+                    : (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round((double) seen / sampled)));
+            }
+            _seen.increment();
+            if (_sampled.get() >= _maxPerSecond || _sampled.incrementAndGet() > _maxPerSecond) {
+                return 0;
+            }
+            return _weight;
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Keeps the most recent call trees and stats in memory, e.g. to show them on a status page.
+ */
+@ParametersAreNonnullByDefault
+public class RingBufferPerformanceSink implements PerformanceSink {
+
+    private volatile long _thresholdNanos;
+    private final AtomicReferenceArray<CallTree> _callTrees;
+    private final AtomicLong _acceptedCount = new AtomicLong();
+    private volatile ImmutableList<MethodStats> _stats = ImmutableList.of();
+
+    /**
+     * @param capacity
+     *            number of call trees which are kept
+     * @param thresholdNanos
+     *            call trees which took less time aren't kept
+     */
+    public RingBufferPerformanceSink(final int capacity, final long thresholdNanos) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        _callTrees = new AtomicReferenceArray<>(capacity);
+        _thresholdNanos = thresholdNanos;
+    }
+
+    @Override
+    public long getThresholdNanos() {
+        return _thresholdNanos;
+    }
+
+    public void setThresholdNanos(final long thresholdNanos) {
+        _thresholdNanos = thresholdNanos;
+    }
+
+    @Override
+    public void acceptCallTree(final CallTree callTree) {
+        final long index = _acceptedCount.getAndIncrement();
+        _callTrees.set((int) (index % _callTrees.length()), callTree);
+    }
+
+    @Override
+    public void acceptStats(final List<MethodStats> stats) {
+        _stats = ImmutableList.copyOf(stats);
+    }
+
+    /**
+     * @return number of call trees accepted since creation, including the ones which were overwritten
+     */
+    public long getAcceptedCount() {
+        return _acceptedCount.get();
+    }
+
+    /**
+     * @return the kept call trees, the most recent first
+     */
+    @Nonnull
+    public ImmutableList<CallTree> getCallTrees() {
+        final int capacity = _callTrees.length();
+        final long accepted = _acceptedCount.get();
+        final ImmutableList.Builder<CallTree> result = ImmutableList.builder();
+        for (long i = accepted - 1; i >= Math.max(0, accepted - capacity); i--) {
+            final CallTree callTree = _callTrees.get((int) (i % capacity));
+            if (callTree != null) {
+                result.add(callTree);
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * @return the most recently accepted stats
+     */
+    @Nonnull
+    public ImmutableList<MethodStats> getStats() {
+        return _stats;
+    }
+
+}
@@ -0,0 +1,69 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs call trees as text, this sink is registered by default.
+ *
+ * Call trees above the warn threshold are logged on warn level, above the total threshold on info level and others on
+ * debug level (see {@link PerformanceLogger#setThresholdWarnNanos} and {@link PerformanceLogger#setThresholdTotalNanos}).
+ * A call tree which took exactly a threshold is logged on the lower level, so at info level a call tree which took
+ * exactly the total threshold is passed to this sink, but not logged. The stats are logged on warn level. Nothing is
+ * formatted if the log level is disabled.
+ */
+@ParametersAreNonnullByDefault
+public class Slf4jPerformanceSink implements PerformanceSink {
+
+    private final Logger _log;
+
+    /**
+     * log to the logger of {@link PerformanceLogger}
+     */
+    public Slf4jPerformanceSink() {
+        this(LoggerFactory.getLogger(PerformanceLogger.class));
+    }
+
+    public Slf4jPerformanceSink(final Logger log) {
+        _log = log;
+    }
+
+    @Override
+    public long getThresholdNanos() {
+        if (_log.isDebugEnabled()) {
+            return 0;
+        } else if (_log.isInfoEnabled()) {
+            return Math.min(PerformanceLogger.getThresholdTotalNanos(), PerformanceLogger.getThresholdWarnNanos());
+        } else {
+            return PerformanceLogger.getThresholdWarnNanos();
+        }
+    }
+
+    @Override
+    public void acceptCallTree(final CallTree callTree) {
+        final long duration = callTree.getDuration();
+        if (duration > PerformanceLogger.getThresholdWarnNanos()) {
+            _log.warn(format(callTree));
+        } else if (duration > PerformanceLogger.getThresholdTotalNanos() && _log.isInfoEnabled()) {
+            _log.info(format(callTree));
+        } else if (_log.isDebugEnabled()) {
+            _log.debug(format(callTree));
+        }
+    }
+
+    private static String format(final CallTree callTree) {
+        return CallTreeTextFormat.formatCallTree(callTree, PerformanceLogger.getThresholdMethodNanos());
+    }
+
+    @Override
+    public void acceptStats(final List<MethodStats> stats) {
+        if (_log.isWarnEnabled()) {
+            _log.warn(CallTreeTextFormat.formatStats(stats));
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package de.justsoftware.toolbox.performance;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A call tree node exported as span by {@link SpanExportPerformanceSink}, shaped like an OpenTelemetry span. Ids are
+ * lower case hex strings, times are nano seconds since the epoch.
+ */
+@ParametersAreNonnullByDefault
+public final class SpanData {
+
+    private final String _traceId;
+    private final String _spanId;
+    private final String _parentSpanId;
+    private final String _name;
+    private final long _startEpochNanos;
+    private final long _endEpochNanos;
+    private final ImmutableMap<String, Long> _attributes;
+
+    SpanData(final String traceId, final String spanId, @CheckForNull final String parentSpanId, final String name,
+            final long startEpochNanos, final long endEpochNanos, final ImmutableMap<String, Long> attributes) {
+        _traceId = traceId;
+        _spanId = spanId;
+        _parentSpanId = parentSpanId;
+        _name = name;
+        _startEpochNanos = startEpochNanos;
+        _endEpochNanos = endEpochNanos;
+        _attributes = attributes;
+    }
+
+    /**
+     * @return 32 hex digits, the same for all spans of a call tree
+     */
+    @Nonnull
+    public String getTraceId() {
+        return _traceId;
+    }
+
+    /**
+     * @return 16 hex digits
+     */
+    @Nonnull
+    public String getSpanId() {
+        return _spanId;
+    }
+
+    /**
+     * @return the span id of the parent node, null for the root of a call tree
+     */
+    @CheckForNull
+    public String getParentSpanId() {
+        return _parentSpanId;
+    }
+
+    /**
+     * @return the method signature, see {@link CallTree#getMethodSignature()}
+     */
+    @Nonnull
+    public String getName() {
+        return _name;
+    }
+
+    public long getStartEpochNanos() {
+        return _startEpochNanos;
+    }
+
+    public long getEndEpochNanos() {
+        return _endEpochNanos;
+    }
+
+    /**
+     * @return the numbers of the call tree node, e.g. {@code performance.count}
+     */
+    @Nonnull
+    public ImmutableMap<String, Long> getAttributes() {
+        return _attributes;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects
+                .toStringHelper(this)
+                .add("traceId", _traceId)
+                .add("spanId", _spanId)
+                .add("parentSpanId", _parentSpanId)
+                .add("name", _name)
+                .add("startEpochNanos", _startEpochNanos)
+                .add("endEpochNanos", _endEpochNanos)
+                .add("attributes", _attributes)
+                .toString();
+    }
+
+}
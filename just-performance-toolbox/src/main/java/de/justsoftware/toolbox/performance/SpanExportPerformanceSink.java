@@ -0,0 +1,289 @@
+package de.justsoftware.toolbox.performance;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Exports call trees as OpenTelemetry shaped spans (see {@link SpanData}) to a {@link SpanExporter}, like the batch
+ * span processor of OpenTelemetry.
+ *
+ * Accepted call trees are put into a bounded queue, call trees are dropped if it is full. A daemon thread converts them
+ * to spans and passes them in batches of at most {@code maxBatchSize} spans to the exporter, when a batch is full or when
+ * the export delay passed.
+ *
+ * Every node of a call tree becomes a span with the span of its parent node as parent. A node accumulates all
+ * invocations of a method by the same parent, so its span starts when its preceding siblings (ordered by duration)
+ * ended and lasts as long as all invocations together, but not longer than its parent. The root span ends when the
+ * root invocation ended (see {@link CallTree#getEndEpochMillis}), or when the call tree was accepted if that is unknown.
+ */
+@ParametersAreNonnullByDefault
+public class SpanExportPerformanceSink implements PerformanceSink, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpanExportPerformanceSink.class);
+
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 2048;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 512;
+    public static final long DEFAULT_EXPORT_DELAY_MILLIS = 5000;
+
+    private static final long STOPPED_CHECK_MILLIS = 100;
+
+    private static final Comparator<CallTree> BY_DURATION_DESC =
+            Comparator.comparingLong(CallTree::getDuration).reversed();
+
+    private final SpanExporter _exporter;
+    private final long _thresholdNanos;
+    private final int _maxBatchSize;
+    private final long _exportDelayNanos;
+
+    private final BlockingQueue<Item> _queue;
+    private final LongAdder _droppedCount = new LongAdder();
+    private final LongAdder _exportedCount = new LongAdder();
+    private final Thread _thread;
+
+    private volatile boolean _closed = false;
+    private volatile boolean _stopped = false;
+
+    /**
+     * export with the default limits, see {@link #SpanExportPerformanceSink(SpanExporter, long, int, int, long)}
+     */
+    public SpanExportPerformanceSink(final SpanExporter exporter, final long thresholdNanos) {
+        this(exporter, thresholdNanos, DEFAULT_MAX_QUEUE_SIZE, DEFAULT_MAX_BATCH_SIZE, DEFAULT_EXPORT_DELAY_MILLIS);
+    }
+
+    /**
+     * @param exporter
+     *            is closed together with this sink if it is {@link Closeable}
+     * @param thresholdNanos
+     *            call trees which took less time aren't exported
+     * @param maxQueueSize
+     *            number of call trees which may wait for the export thread
+     * @param maxBatchSize
+     *            maximum number of spans passed to the exporter at once
+     * @param exportDelayMillis
+     *            spans are exported at most this long after their call tree was accepted
+     */
+    public SpanExportPerformanceSink(final SpanExporter exporter, final long thresholdNanos, final int maxQueueSize,
+            final int maxBatchSize, final long exportDelayMillis) {
+        if (maxQueueSize < 1) {
+            throw new IllegalArgumentException("maxQueueSize must be positive: " + maxQueueSize);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        if (exportDelayMillis < 1) {
+            throw new IllegalArgumentException("exportDelayMillis must be positive: " + exportDelayMillis);
+        }
+        _exporter = exporter;
+        _thresholdNanos = thresholdNanos;
+        _maxBatchSize = maxBatchSize;
+        _exportDelayNanos = TimeUnit.MILLISECONDS.toNanos(exportDelayMillis);
+        // one more slot, so flush and close markers always fit
+        _queue = new ArrayBlockingQueue<>(maxQueueSize + 1);
+        _thread = new Thread(this::run, "SpanExportPerformanceSink");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    @Override
+    public long getThresholdNanos() {
+        return _thresholdNanos;
+    }
+
+    @Override
+    public void acceptCallTree(final CallTree callTree) {
+        final long endEpochMillis = callTree.getEndEpochMillis();
+        final long endEpochNanos = TimeUnit.MILLISECONDS.toNanos(endEpochMillis > 0
+            ? endEpochMillis
+            : System.currentTimeMillis());
+        if (_closed || _queue.remainingCapacity() <= 1 || !_queue.offer(new Item(callTree, endEpochNanos, null))) {
+            _droppedCount.increment();
+        }
+    }
+
+    /**
+     * @return the number of call trees which were dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return _droppedCount.sum();
+    }
+
+    /**
+     * @return the number of spans which were passed to the exporter
+     */
+    public long getExportedSpanCount() {
+        return _exportedCount.sum();
+    }
+
+    /**
+     * export all call trees accepted so far and wait until the exporter got them, returns immediately if the export
+     * thread has stopped
+     */
+    public void flush() {
+        final Item marker = new Item(null, 0, new CountDownLatch(1));
+        try {
+            // waits in steps, so a caller never hangs on an export thread which stopped in the meantime
+            while (!_queue.offer(marker, STOPPED_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!_thread.isAlive()) {
+                    return;
+                }
+            }
+            while (!marker._flushed.await(STOPPED_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!_thread.isAlive()) {
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the export", e);
+        }
+    }
+
+    /**
+     * export the pending call trees and stop the export thread, further call trees are dropped
+     */
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        flush();
+        // the flag stops the thread, even if the exporter swallowed the interrupt
+        _stopped = true;
+        _thread.interrupt();
+        try {
+            _thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the export thread", e);
+        }
+        if (_exporter instanceof Closeable) {
+            ((Closeable) _exporter).close();
+        }
+    }
+
+    private void run() {
+        final List<SpanData> batch = new ArrayList<>();
+        long nextExport = System.nanoTime() + _exportDelayNanos;
+        while (!_stopped) {
+            final Item item;
+            try {
+                item = _queue.poll(Math.max(0, nextExport - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (final InterruptedException e) {
+                break;
+            }
+            if (item == null || item._callTree == null) {
+                export(batch, 1);
+                nextExport = System.nanoTime() + _exportDelayNanos;
+                if (item != null) {
+                    item._flushed.countDown();
+                }
+            } else {
+                addSpans(batch, item._callTree, newTraceId(), null, item._endEpochNanos - item._callTree.getDuration(),
+                        item._endEpochNanos, true);
+                if (System.nanoTime() - nextExport >= 0) {
+                    export(batch, 1);
+                    nextExport = System.nanoTime() + _exportDelayNanos;
+                } else {
+                    export(batch, _maxBatchSize);
+                }
+            }
+        }
+        export(batch, 1);
+    }
+
+    /**
+     * export full batches, the rest stays in the given list
+     *
+     * @param minSize
+     *            1 to export all spans
+     */
+    private void export(final List<SpanData> batch, final int minSize) {
+        while (!batch.isEmpty() && batch.size() >= minSize) {
+            final List<SpanData> exported = batch.subList(0, Math.min(batch.size(), _maxBatchSize));
+            //CSOFF: IllegalCatch the export thread must survive errors of the exporter
+            try {
+                _exporter.export(ImmutableList.copyOf(exported));
+                _exportedCount.add(exported.size());
+            } catch (final Throwable e) {
+                //CSON: .
+                LOG.error("unable to export " + exported.size() + " spans: " + e.getMessage(), e);
+            }
+            exported.clear();
+        }
+    }
+
+    private static void addSpans(final List<SpanData> spans, final CallTree node, final String traceId,
+            @CheckForNull final String parentSpanId, final long startEpochNanos, final long endEpochNanos,
+            final boolean root) {
+        final String spanId = newSpanId();
+        final ImmutableMap.Builder<String, Long> attributes = ImmutableMap.<String, Long>builder()
+                .put("performance.count", Long.valueOf(node.getCount()))
+                .put("performance.cpu_nanos", Long.valueOf(node.getCpuDuration()))
+                .put("performance.user_nanos", Long.valueOf(node.getUserDuration()))
+                .put("performance.max_nanos", Long.valueOf(node.getMaxDuration()));
+        if (node.getAllocatedBytes() > 0) {
+            attributes.put("performance.allocated_bytes", Long.valueOf(node.getAllocatedBytes()));
+        }
+        if (root) {
+            attributes.put("performance.sample_weight", Long.valueOf(node.getSampleWeight()));
+        }
+        spans.add(new SpanData(traceId, spanId, parentSpanId, node.getMethodSignature(), startEpochNanos, endEpochNanos,
+                attributes.build()));
+
+        long childStart = startEpochNanos;
+        for (final CallTree child : ImmutableList.sortedCopyOf(BY_DURATION_DESC, node.getChildren())) {
+            // the children of tasks which ran in parallel can take longer than their parent
+            final long childEnd = Math.min(childStart + child.getDuration(), endEpochNanos);
+            addSpans(spans, child, traceId, spanId, childStart, childEnd, false);
+            childStart = childEnd;
+        }
+    }
+
+    private static String newTraceId() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return String.format("%016x%016x", Long.valueOf(random.nextLong()), Long.valueOf(random.nextLong() | 1));
+    }
+
+    private static String newSpanId() {
+        return String.format("%016x", Long.valueOf(ThreadLocalRandom.current().nextLong() | 1));
+    }
+
+    /**
+     * a call tree or a flush marker
+     */
+    private static final class Item {
+
+        @CheckForNull
+        final CallTree _callTree;
+        final long _endEpochNanos;
+        @CheckForNull
+        final CountDownLatch _flushed;
+
+        Item(@CheckForNull final CallTree callTree, final long endEpochNanos, @CheckForNull final CountDownLatch flushed) {
+            _callTree = callTree;
+            _endEpochNanos = endEpochNanos;
+            _flushed = flushed;
+        }
+
+    }
+
+}
@@ -0,0 +1,20 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Receives the span batches of a {@link SpanExportPerformanceSink}, e.g. {@link OtlpJsonFileSpanExporter}.
+ */
+@FunctionalInterface
+@ParametersAreNonnullByDefault
+public interface SpanExporter {
+
+    /**
+     * export a batch of spans, this is only called by the export thread of the sink. the spans of a call tree may be
+     * split into several batches.
+     */
+    void export(List<SpanData> spans);
+
+}
@@ -0,0 +1,161 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.justsoftware.toolbox.performance.PerformanceLogger.CallTreeNode;
+
+/**
+ * Samples the stack traces of threads whose traced request runs longer than a threshold, so the time spent in code
+ * which isn't instrumented can be explained. This class is only loaded if stack sampling is enabled in
+ * {@link PerformanceLogger}.
+ *
+ * Request threads publish their running roots in a fixed array of slots with a compare and set, the watchdog thread
+ * scans the slots without any locks. If all slots which are probed for a thread are taken, the request isn't sampled.
+ * The samples are aggregated in the root as collapsed stacks, see {@link CallTree#getStackSamples()}.
+ */
+@ParametersAreNonnullByDefault
+final class StackSamplingWatchdog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StackSamplingWatchdog.class);
+
+    private static final int SLOT_COUNT = 4096;
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+    private static final int PROBE_COUNT = 8;
+
+    /**
+     * only the frames nearest to the sampled method are kept
+     */
+    static final int MAX_FRAMES = 128;
+
+    /**
+     * further distinct stacks of a root are counted as {@link #OTHER_STACK}
+     */
+    static final int MAX_STACKS_PER_ROOT = 1000;
+    static final String OTHER_STACK = "[other]";
+
+    private static final AtomicReferenceArray<CallTreeNode> IN_FLIGHT = new AtomicReferenceArray<>(SLOT_COUNT);
+
+    private static volatile long _thresholdNanos = TimeUnit.SECONDS.toNanos(1);
+    private static volatile long _intervalMillis = 10;
+
+    /**
+     * the running watchdog thread, a replaced thread stops itself. writes are guarded by the class lock.
+     */
+    private static volatile Thread _thread;
+
+    private StackSamplingWatchdog() {
+        super();
+    }
+
+    static synchronized void start(final long thresholdNanos, final long intervalMillis) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("intervalMillis must be positive: " + intervalMillis);
+        }
+        _thresholdNanos = thresholdNanos;
+        _intervalMillis = intervalMillis;
+        if (_thread == null) {
+            final Thread thread = new Thread(StackSamplingWatchdog::run, "PerformanceLogger-watchdog");
+            thread.setDaemon(true);
+            _thread = thread;
+            thread.start();
+        }
+    }
+
+    static synchronized void stop() {
+        final Thread thread = _thread;
+        if (thread != null) {
+            _thread = null;
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * publish a root which was started by the current thread
+     *
+     * @return the slot which has to be passed to {@link #unregister}, -1 if no slot was free
+     */
+    static int register(final CallTreeNode root) {
+        root._thread = Thread.currentThread();
+        final int start = (int) Thread.currentThread().getId();
+        for (int i = 0; i < PROBE_COUNT; i++) {
+            final int slot = (start + i) & SLOT_MASK;
+            if (IN_FLIGHT.get(slot) == null && IN_FLIGHT.compareAndSet(slot, null, root)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    static void unregister(final int slot) {
+        IN_FLIGHT.set(slot, null);
+    }
+
+    private static void run() {
+        while (_thread == Thread.currentThread()) {
+            try {
+                Thread.sleep(_intervalMillis);
+            } catch (final InterruptedException e) {
+                return;
+            }
+            try {
+                sample(System.nanoTime());
+            } catch (final RuntimeException e) {
+                LOG.error("unable to sample stack traces: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static void sample(final long nanoTime) {
+        final long thresholdNanos = _thresholdNanos;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            final CallTreeNode root = IN_FLIGHT.get(slot);
+            if (root == null || nanoTime - root._startNanoTime < thresholdNanos) {
+                continue;
+            }
+            final StackTraceElement[] stackTrace = root._thread.getStackTrace();
+            // the root may have finished while the stack was taken, then the stack belongs to something else
+            if (IN_FLIGHT.get(slot) == root && stackTrace.length > 0) {
+                addSample(root, stackTrace);
+            }
+        }
+    }
+
+    private static void addSample(final CallTreeNode root, final StackTraceElement[] stackTrace) {
+        Map<String, Long> samples = root._stackSamples;
+        if (samples == null) {
+            samples = new ConcurrentHashMap<>();
+            root._stackSamples = samples;
+        }
+        final String stack = collapse(stackTrace);
+        final String key = samples.size() < MAX_STACKS_PER_ROOT || samples.containsKey(stack)
+            ? stack
+            : OTHER_STACK;
+        samples.merge(key, Long.valueOf(1), Long::sum);
+    }
+
+    /**
+     * @return the frames from the outermost to the sampled method separated by ';', like the collapsed stacks of
+     *         {@link FlameGraphPerformanceSink}
+     */
+    @Nonnull
+    static String collapse(final StackTraceElement[] stackTrace) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = Math.min(stackTrace.length, MAX_FRAMES) - 1; i >= 0; i--) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(stackTrace[i].getClassName()).append('.').append(stackTrace[i].getMethodName());
+        }
+        return sb.toString();
+    }
+
+}
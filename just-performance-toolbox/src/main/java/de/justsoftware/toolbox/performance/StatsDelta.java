@@ -0,0 +1,51 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import de.justsoftware.toolbox.performance.TotalCount.Snapshot;
+
+/**
+ * Returns the stats of {@link PerformanceLogger} since the previous call, e.g. for a metrics scraper which expects
+ * values per interval. Every consumer needs its own instance.
+ *
+ * The percentiles and the maximum of an interval are calculated from the histogram buckets which got values in the
+ * interval, so the maximum is only as precise as the percentiles. If the stats of a method were removed since the previous
+ * call (see {@link PerformanceLogger#setMaxTrackedMethods}), the delta contains all stats collected since then.
+ */
+@ParametersAreNonnullByDefault
+public final class StatsDelta {
+
+    private Map<Integer, Snapshot> _previous = ImmutableMap.of();
+
+    /**
+     * the first call returns the stats since the start of the JVM
+     *
+     * @return the stats of the methods which were invoked since the previous call, ordered by their total duration
+     */
+    @Nonnull
+    public synchronized ImmutableList<MethodStats> next() {
+        final ImmutableList<Snapshot> current = PerformanceLogger.totalCountSnapshots();
+        final ImmutableList.Builder<Snapshot> delta = ImmutableList.builder();
+        final ImmutableMap.Builder<Integer, Snapshot> next = ImmutableMap.builder();
+        for (final Snapshot snapshot : current) {
+            final Integer methodId = Integer.valueOf(snapshot._methodId);
+            next.put(methodId, snapshot);
+            final Snapshot previous = _previous.get(methodId);
+            final Snapshot methodDelta = previous == null
+                ? snapshot
+                : snapshot.minus(previous);
+            if (methodDelta.getCount() > 0 || methodDelta.getBypassedCount() > 0) {
+                delta.add(methodDelta);
+            }
+        }
+        _previous = next.build();
+        return PerformanceLogger.toSortedMethodStats(delta.build());
+    }
+
+}
@@ -0,0 +1,99 @@
+package de.justsoftware.toolbox.performance;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Reads the bytes allocated by the current thread with {@link com.sun.management.ThreadMXBean}. This class is only
+ * loaded if allocation tracking is enabled in {@link PerformanceLogger}.
+ *
+ * Java 14 and later have a fast {@code getCurrentThreadAllocatedBytes()}, older versions look up the thread by id and
+ * allocate a small array for every read, which is included in the reported bytes.
+ */
+@ParametersAreNonnullByDefault
+final class ThreadAllocations {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThreadAllocations.class);
+
+    @CheckForNull
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = threadMXBean();
+
+    @CheckForNull
+    private static final MethodHandle CURRENT_THREAD_ALLOCATED_BYTES = currentThreadAllocatedBytesHandle();
+
+    static final boolean SUPPORTED = THREAD_MX_BEAN != null;
+
+    private ThreadAllocations() {
+        super();
+    }
+
+    @CheckForNull
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            LOG.error("allocated bytes of threads are not supported by this jvm");
+            return null;
+        }
+        final com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) bean;
+        if (!result.isThreadAllocatedMemorySupported()) {
+            LOG.error("allocated bytes of threads are not supported by this jvm");
+            return null;
+        }
+        try {
+            result.setThreadAllocatedMemoryEnabled(true);
+        } catch (final RuntimeException e) {
+            LOG.error("unable to setThreadAllocatedMemoryEnabled: " + e.getMessage(), e);
+            return null;
+        }
+        return result;
+    }
+
+    @CheckForNull
+    private static MethodHandle currentThreadAllocatedBytesHandle() {
+        if (THREAD_MX_BEAN == null) {
+            return null;
+        }
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(com.sun.management.ThreadMXBean.class, "getCurrentThreadAllocatedBytes",
+                            MethodType.methodType(long.class))
+                    .bindTo(THREAD_MX_BEAN);
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            // before java 14
+            return null;
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the current thread since it was started, 0 if this isn't {@link #SUPPORTED}
+     */
+    static long currentThreadAllocatedBytes() {
+        final com.sun.management.ThreadMXBean bean = THREAD_MX_BEAN;
+        if (bean == null) {
+            return 0;
+        }
+        final MethodHandle handle = CURRENT_THREAD_ALLOCATED_BYTES;
+        if (handle == null) {
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        //CSOFF: IllegalCatch invokeExact declares Throwable
+        try {
+            return (long) handle.invokeExact();
+        } catch (final Throwable e) {
+            //CSON: .
+            Throwables.throwIfUnchecked(e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
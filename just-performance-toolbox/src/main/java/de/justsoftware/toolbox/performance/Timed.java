@@ -0,0 +1,27 @@
+package de.justsoftware.toolbox.performance;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks methods and constructors which should be tracked by the {@link PerformanceLogger}. An annotated type marks all
+ * of its methods and constructors.
+ *
+ * There are two ways to use the annotation:
+ * <ul>
+ * <li>weave {@link TimedAspect}, at compile time with ajc, at load time or with spring aop. The method id is looked up
+ * in a map on every invocation.</li>
+ * <li>let the {@link TimedProcessor} generate a class with the method ids and invoke
+ * {@link PerformanceLogger#startMethod(int)} and {@link PerformanceLogger#finishMethod(int)} manually. The method id is
+ * a static field read.</li>
+ * </ul>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.CONSTRUCTOR, ElementType.TYPE })
+public @interface Timed {
+    // marker annotation
+}
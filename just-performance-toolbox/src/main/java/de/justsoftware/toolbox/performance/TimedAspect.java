@@ -0,0 +1,33 @@
+package de.justsoftware.toolbox.performance;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * Aspect which tracks the methods and constructors annotated with {@link Timed}.
+ *
+ * The woven classes create the static part of each join point in their static initializer, the method id of a join
+ * point is computed from its signature on the first invocation without any reflection lookup and cached by the static
+ * part, see {@link PerformanceLogger#logJoinPoint}. So every invocation costs a map lookup of the static part, the ids
+ * generated by the {@link TimedProcessor} only cost a static field read.
+ */
+@Aspect
+public class TimedAspect {
+
+    //CSOFF: IllegalThrows|Jsr305Annotations Throwable is declared correctly 
+    // and nullness annotations would be weaved to classes and will result in findbugs errors
+    @Around("execution(@de.justsoftware.toolbox.performance.Timed * *(..))"
+            + " || execution(* (@de.justsoftware.toolbox.performance.Timed *).*(..))")
+    public Object timedMethod(final ProceedingJoinPoint joinPoint) throws Throwable {
+        return PerformanceLogger.logJoinPoint(joinPoint);
+    }
+
+    @Around("execution(@de.justsoftware.toolbox.performance.Timed new(..))"
+            + " || execution((@de.justsoftware.toolbox.performance.Timed *).new(..))")
+    public Object timedConstructor(final ProceedingJoinPoint joinPoint) throws Throwable {
+        return PerformanceLogger.logJoinPoint(joinPoint);
+    }
+    //CSON: .
+
+}
@@ -0,0 +1,223 @@
+package de.justsoftware.toolbox.performance;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor for projects which can't weave the {@link TimedAspect}: for every class with {@link Timed}
+ * methods or constructors it generates a class {@code <ClassName>_Timed} in the same package, which registers all of
+ * them in static fields, e.g. {@code MyService_Timed.LOAD_UUID} for {@code MyService.load(UUID)} and
+ * {@code MyService_Timed.NEW} for the default constructor.
+ *
+ * The ids are computed once when the generated class is initialized, so starting a method costs only a static field read:
+ *
+ * <pre>
+ * PerformanceLogger.startMethod(MyService_Timed.LOAD_UUID);
+ * try {
+ *     ...
+ * } finally {
+ *     PerformanceLogger.finishMethod(MyService_Timed.LOAD_UUID);
+ * }
+ * </pre>
+ *
+ * Methods of private classes are skipped with a warning, because the generated class can't reference them.
+ */
+@SupportedAnnotationTypes(TimedProcessor.TIMED)
+@ParametersAreNonnullByDefault
+public class TimedProcessor extends AbstractProcessor {
+
+    static final String TIMED = "de.justsoftware.toolbox.performance.Timed";
+
+    static final String SUFFIX = "_Timed";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        final Map<TypeElement, Set<ExecutableElement>> timedByType = new LinkedHashMap<>();
+        for (final TypeElement annotation : annotations) {
+            for (final Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind().isClass() || element.getKind() == ElementKind.ENUM) {
+                    final TypeElement type = (TypeElement) element;
+                    final Set<ExecutableElement> timed = timedByType.computeIfAbsent(type, t -> new HashSet<>());
+                    timed.addAll(ElementFilter.constructorsIn(type.getEnclosedElements()));
+                    timed.addAll(ElementFilter.methodsIn(type.getEnclosedElements()));
+                } else if (element instanceof ExecutableElement) {
+                    timedByType.computeIfAbsent((TypeElement) element.getEnclosingElement(), t -> new HashSet<>())
+                            .add((ExecutableElement) element);
+                }
+            }
+        }
+        for (final Map.Entry<TypeElement, Set<ExecutableElement>> entry : timedByType.entrySet()) {
+            if (isAccessible(entry.getKey())) {
+                generate(entry.getKey(), entry.getValue());
+            } else {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "@Timed is ignored for private classes", entry.getKey());
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAccessible(final TypeElement type) {
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void generate(final TypeElement type, final Set<ExecutableElement> timed) {
+        final String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String generatedName = generatedSimpleName(type);
+        final String className = type.getQualifiedName().toString();
+
+        // sorted by position in the source, so the generated constants are stable
+        final List<ExecutableElement> sorted = new ArrayList<>();
+        for (final Element enclosed : type.getEnclosedElements()) {
+            if (timed.contains(enclosed)) {
+                sorted.add((ExecutableElement) enclosed);
+            }
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        sb.append("/**\n * ids of the {@code @Timed} methods of {@link ").append(className)
+                .append("}, generated by {@link ").append(TimedProcessor.class.getName()).append("}\n */\n");
+        sb.append("public final class ").append(generatedName).append(" {\n\n");
+        final Set<String> constants = new HashSet<>();
+        for (final ExecutableElement executable : sorted) {
+            final String constant = unique(constantName(executable), constants);
+            sb.append("    public static final int ").append(constant).append(" = ");
+            if (executable.getKind() == ElementKind.CONSTRUCTOR) {
+                sb.append(PerformanceLogger.class.getName()).append(".registerConstructor(").append(className)
+                        .append(".class");
+            } else {
+                sb.append(PerformanceLogger.class.getName()).append(".registerMethod(").append(className)
+                        .append(".class, \"").append(executable.getSimpleName()).append('"');
+            }
+            for (final VariableElement parameter : executable.getParameters()) {
+                sb.append(", ").append(erasedName(parameter.asType())).append(".class");
+            }
+            sb.append(");\n\n");
+        }
+        sb.append("    private ").append(generatedName).append("() {\n        super();\n    }\n\n}\n");
+
+        final String qualifiedName = packageName.isEmpty()
+            ? generatedName
+            : packageName + "." + generatedName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter()) {
+            writer.write(sb.toString());
+        } catch (final IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "can't generate " + qualifiedName + ": " + e.getMessage(), type);
+        }
+    }
+
+    /**
+     * @return e.g. {@code Outer_Inner_Timed} for a nested class {@code Outer.Inner}
+     */
+    @Nonnull
+    static String generatedSimpleName(final TypeElement type) {
+        final StringBuilder sb = new StringBuilder(type.getSimpleName());
+        for (Element element = type.getEnclosingElement(); !(element instanceof PackageElement);
+                element = element.getEnclosingElement()) {
+            sb.insert(0, '_').insert(0, element.getSimpleName());
+        }
+        return sb.append(SUFFIX).toString();
+    }
+
+    /**
+     * @return e.g. {@code LOAD_ALL_UUID} for {@code loadAll(UUID)} and {@code NEW_STRING_ARRAY} for a constructor with a
+     *         {@code String[]} parameter
+     */
+    @Nonnull
+    private String constantName(final ExecutableElement executable) {
+        final StringBuilder sb = new StringBuilder(executable.getKind() == ElementKind.CONSTRUCTOR
+            ? "NEW"
+            : toConstantCase(executable.getSimpleName().toString()));
+        for (final VariableElement parameter : executable.getParameters()) {
+            sb.append('_').append(toConstantCase(simpleName(processingEnv.getTypeUtils().erasure(parameter.asType()))));
+        }
+        return sb.toString();
+    }
+
+    @Nonnull
+    private static String unique(final String name, final Set<String> used) {
+        String result = name;
+        for (int i = 2; !used.add(result); i++) {
+            result = name + "_" + i;
+        }
+        return result;
+    }
+
+    @Nonnull
+    static String toConstantCase(final String camelCase) {
+        final StringBuilder sb = new StringBuilder(camelCase.length() + 4);
+        for (int i = 0; i < camelCase.length(); i++) {
+            final char c = camelCase.charAt(i);
+            if (i > 0 && Character.isUpperCase(c) && !Character.isUpperCase(camelCase.charAt(i - 1))) {
+                sb.append('_');
+            }
+            sb.append(c);
+        }
+        return sb.toString().toUpperCase(Locale.ROOT);
+    }
+
+    @Nonnull
+    private String simpleName(final TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return simpleName(((ArrayType) type).getComponentType()) + "Array";
+        } else if (type.getKind().isPrimitive()) {
+            return type.getKind().name().toLowerCase(Locale.ROOT);
+        }
+        return processingEnv.getTypeUtils().asElement(type).getSimpleName().toString();
+    }
+
+    /**
+     * @return the name of the erased type which can be used in a class literal, without any type annotations
+     */
+    @Nonnull
+    private String erasedName(final TypeMirror type) {
+        final TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        if (erased.getKind() == TypeKind.ARRAY) {
+            return erasedName(((ArrayType) erased).getComponentType()) + "[]";
+        } else if (erased.getKind().isPrimitive()) {
+            return erased.getKind().name().toLowerCase(Locale.ROOT);
+        }
+        return ((TypeElement) processingEnv.getTypeUtils().asElement(erased)).getQualifiedName().toString();
+    }
+
+}
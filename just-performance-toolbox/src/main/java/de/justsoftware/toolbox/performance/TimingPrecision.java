@@ -0,0 +1,33 @@
+package de.justsoftware.toolbox.performance;
+
+/**
+ * Which timers {@link PerformanceLogger} reads for every traced method invocation.
+ *
+ * The wall time is a cheap {@link System#nanoTime()}, the cpu and user time of the current thread need a system call
+ * each, which may be more expensive than a small method itself.
+ */
+public enum TimingPrecision {
+
+    /**
+     * only the wall time is measured, cpu and user time are reported as 0
+     */
+    WALL,
+
+    /**
+     * wall and cpu time are measured, user time is reported as 0
+     */
+    WALL_AND_CPU,
+
+    /**
+     * wall, cpu and user time are measured, this is the default
+     */
+    FULL,
+
+    /**
+     * wall, cpu and user time are measured for top level requests and for methods which took longer than the method
+     * threshold (see {@link PerformanceLogger#setThresholdMethodNanos}) in the last counted call tree, other methods
+     * only measure the wall time and aren't part of {@link MethodStats#getTimedCount()}
+     */
+    ROOTS_AND_SLOW_METHODS,
+
+}
@@ -0,0 +1,255 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Accumulated statistics of a method over all call trees.
+ *
+ * The values are striped {@link LongAdder}s, so request threads updating the same method don't contend on a single
+ * cache line. Reading is more expensive, but only done for the stats output.
+ *
+ * The {@link LatencyHistogram}s get one value per call tree node: multiple invocations of a method by the same parent
+ * are recorded with their mean, the maximum of the wall time is tracked exactly.
+ *
+ * The cpu and user durations are only measured for some invocations depending on the {@link TimingPrecision}, their
+ * histograms get one value per call tree node for these timed invocations only.
+ *
+ * If requests are sampled (see {@link RequestSampler}) every value is multiplied by the weight of the sampled request.
+ */
+@ParametersAreNonnullByDefault
+final class TotalCount {
+
+    /**
+     * a method is bypassed by adaptive join points after this many invocations with a mean duration below
+     * 1/{@value #ADAPTIVE_CHEAP_RATIO} of the method threshold
+     */
+    static final int ADAPTIVE_WARM_UP_INVOCATIONS = 1000;
+    static final int ADAPTIVE_CHEAP_RATIO = 10;
+
+    /**
+     * every this many bypassed invocations a bypassed method is measured again, must be a power of two
+     */
+    static final int ADAPTIVE_PROBE_INTERVAL = 1 << 16;
+
+    final int _methodId;
+    private final String _methodSignature;
+
+    /**
+     * distinguishes a count from a removed count of the same method, see {@link TotalCounts}
+     */
+    private final long _generation;
+
+    private final LongAdder _duration = new LongAdder();
+    private final LongAdder _cpuDuration = new LongAdder();
+    private final LongAdder _userDuration = new LongAdder();
+    private final LongAdder _allocatedBytes = new LongAdder();
+    private final LongAdder _count = new LongAdder();
+    private final LongAdder _timedCount = new LongAdder();
+    private final LongAdder _bypassedCount = new LongAdder();
+
+    final LatencyHistogram _durationHistogram = new LatencyHistogram();
+    final LatencyHistogram _cpuDurationHistogram = new LatencyHistogram();
+    final LatencyHistogram _userDurationHistogram = new LatencyHistogram();
+
+    /**
+     * whether the mean duration in the last counted call tree was above the method threshold, see
+     * {@link TimingPrecision#ROOTS_AND_SLOW_METHODS}
+     */
+    volatile boolean _slow = false;
+
+    /**
+     * when the method was counted the last time, used to remove the least recently used counts, see {@link TotalCounts}
+     */
+    volatile long _lastUsedMillis = System.currentTimeMillis();
+
+    /**
+     * state of adaptive join points, see {@link PerformanceLogger#setAdaptiveJoinPointsEnabled}. the counters are
+     * atomic, so every {@value #ADAPTIVE_PROBE_INTERVAL}th bypassed invocation is measured even if many threads invoke
+     * the method.
+     */
+    private final AtomicLong _cheapInvocations = new AtomicLong();
+    private final AtomicInteger _bypassedInvocations = new AtomicInteger();
+    private volatile boolean _bypassed = false;
+
+    TotalCount(final int methodId, final String methodSignature, final long generation) {
+        _methodId = methodId;
+        _methodSignature = methodSignature;
+        _generation = generation;
+    }
+
+    //CSOFF: ParameterNumber value object
+    void increment(final long count, final long timedCount, final long duration, final long cpuDuration,
+            final long userDuration, final long allocatedBytes, final long maxDuration, final int weight) {
+        //CSON: .
+        _count.add(count * weight);
+        _timedCount.add(timedCount * weight);
+        _duration.add(duration * weight);
+        _cpuDuration.add(cpuDuration * weight);
+        _userDuration.add(userDuration * weight);
+        _allocatedBytes.add(allocatedBytes * weight);
+        if (count > 0) {
+            _durationHistogram.record(duration / count, count * weight);
+            _durationHistogram.recordMax(maxDuration);
+        }
+        if (timedCount > 0) {
+            _cpuDurationHistogram.record(cpuDuration / timedCount, timedCount * weight);
+            _userDurationHistogram.record(userDuration / timedCount, timedCount * weight);
+        }
+    }
+
+    /**
+     * update the adaptive state with the invocations of a counted call tree node, the method is bypassed if all
+     * invocations of the warm-up window were cheap
+     */
+    void countAdaptive(final long count, final long duration, final long thresholdMethodNanos) {
+        if (count == 0) {
+            return;
+        }
+        if (duration < thresholdMethodNanos / ADAPTIVE_CHEAP_RATIO * count) {
+            if (_cheapInvocations.addAndGet(count) >= ADAPTIVE_WARM_UP_INVOCATIONS) {
+                _bypassed = true;
+            }
+        } else {
+            _cheapInvocations.set(0);
+        }
+    }
+
+    /**
+     * @return whether the current invocation of the method should be bypassed, every
+     *         {@value #ADAPTIVE_PROBE_INTERVAL}th bypassed invocation starts a new warm-up window instead
+     */
+    boolean bypass() {
+        if (!_bypassed) {
+            return false;
+        }
+        if ((_bypassedInvocations.incrementAndGet() & (ADAPTIVE_PROBE_INTERVAL - 1)) != 0) {
+            _bypassedCount.increment();
+            return true;
+        }
+        _cheapInvocations.set(0);
+        _bypassed = false;
+        return false;
+    }
+
+    long getCount() {
+        return _count.sum();
+    }
+
+    long getTimedCount() {
+        return _timedCount.sum();
+    }
+
+    long getBypassedCount() {
+        return _bypassedCount.sum();
+    }
+
+    long getDuration() {
+        return _duration.sum();
+    }
+
+    long getCpuDuration() {
+        return _cpuDuration.sum();
+    }
+
+    long getUserDuration() {
+        return _userDuration.sum();
+    }
+
+    long getAllocatedBytes() {
+        return _allocatedBytes.sum();
+    }
+
+    @Nonnull
+    Snapshot snapshot() {
+        return new Snapshot(_methodId, _methodSignature, _generation, getCount(), getTimedCount(), getBypassedCount(),
+                getDuration(), getCpuDuration(), getUserDuration(), getAllocatedBytes(), _durationHistogram.snapshot(),
+                _cpuDurationHistogram.snapshot(), _userDurationHistogram.snapshot());
+    }
+
+    @Nonnull
+    MethodStats toMethodStats() {
+        return snapshot().toMethodStats();
+    }
+
+    /**
+     * the values of a {@link TotalCount} at a point in time
+     */
+    static final class Snapshot {
+
+        final int _methodId;
+        private final String _methodSignature;
+        private final long _generation;
+        private final long _count;
+        private final long _timedCount;
+        private final long _bypassedCount;
+        private final long _duration;
+        private final long _cpuDuration;
+        private final long _userDuration;
+        private final long _allocatedBytes;
+        private final LatencyHistogram.Snapshot _durationHistogram;
+        private final LatencyHistogram.Snapshot _cpuDurationHistogram;
+        private final LatencyHistogram.Snapshot _userDurationHistogram;
+
+        //CSOFF: ParameterNumber value object
+        Snapshot(final int methodId, final String methodSignature, final long generation, final long count,
+                final long timedCount, final long bypassedCount, final long duration, final long cpuDuration,
+                final long userDuration, final long allocatedBytes, final LatencyHistogram.Snapshot durationHistogram,
+                final LatencyHistogram.Snapshot cpuDurationHistogram,
+                final LatencyHistogram.Snapshot userDurationHistogram) {
+            //CSON: .
+            _methodId = methodId;
+            _methodSignature = methodSignature;
+            _generation = generation;
+            _count = count;
+            _timedCount = timedCount;
+            _bypassedCount = bypassedCount;
+            _duration = duration;
+            _cpuDuration = cpuDuration;
+            _userDuration = userDuration;
+            _allocatedBytes = allocatedBytes;
+            _durationHistogram = durationHistogram;
+            _cpuDurationHistogram = cpuDurationHistogram;
+            _userDurationHistogram = userDurationHistogram;
+        }
+
+        long getCount() {
+            return _count;
+        }
+
+        long getBypassedCount() {
+            return _bypassedCount;
+        }
+
+        /**
+         * @return the values which were added since the given snapshot of the same method, all values if the count was
+         *         removed and created again since the given snapshot
+         */
+        @Nonnull
+        Snapshot minus(final Snapshot previous) {
+            if (previous._generation != _generation) {
+                return this;
+            }
+            return new Snapshot(_methodId, _methodSignature, _generation, _count - previous._count,
+                    _timedCount - previous._timedCount, _bypassedCount - previous._bypassedCount,
+                    _duration - previous._duration,
+                    _cpuDuration - previous._cpuDuration, _userDuration - previous._userDuration,
+                    _allocatedBytes - previous._allocatedBytes, _durationHistogram.minus(previous._durationHistogram),
+                    _cpuDurationHistogram.minus(previous._cpuDurationHistogram),
+                    _userDurationHistogram.minus(previous._userDurationHistogram));
+        }
+
+        @Nonnull
+        MethodStats toMethodStats() {
+            return new MethodStats(_methodId, _methodSignature, _count, _timedCount, _bypassedCount, _duration,
+                    _cpuDuration, _userDuration, _allocatedBytes, _durationHistogram, _cpuDurationHistogram,
+                    _userDurationHistogram);
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+package de.justsoftware.toolbox.performance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The {@link TotalCount}s of all methods indexed by their method id (see {@link MethodRegistry}).
+ *
+ * Looking up a count is a plain array access, only the creation of a new count is synchronized. The number of counts is
+ * limited, if a new count exceeds the limit the least recently used counts are removed until only 90% of the limit are
+ * left including the new count. A removed count is created again (with empty stats and a new generation) if its method
+ * is counted again.
+ *
+ * Only the counting of call trees creates counts, see {@link #get}. Request threads only use {@link #peek}, so they never
+ * allocate a count or wait for an eviction.
+ */
+@ParametersAreNonnullByDefault
+final class TotalCounts {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * the array is replaced when it grows, writes are guarded by this
+     */
+    private volatile TotalCount[] _counts = new TotalCount[INITIAL_CAPACITY];
+
+    /**
+     * number of counts in {@link #_counts}, guarded by this
+     */
+    private int _size = 0;
+
+    private volatile int _maxSize;
+
+    /**
+     * the generation of the next created count, guarded by this
+     */
+    private long _nextGeneration = 0;
+
+    TotalCounts(final int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    void setMaxSize(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        _maxSize = maxSize;
+    }
+
+    /**
+     * @return the count of the given method, null if it doesn't exist (yet), the count isn't created
+     */
+    @CheckForNull
+    TotalCount peek(final int methodId) {
+        final TotalCount[] counts = _counts;
+        return methodId < counts.length ? counts[methodId] : null;
+    }
+
+    /**
+     * @return the count of the given method, it is created if it doesn't exist yet
+     */
+    @Nonnull
+    TotalCount get(final int methodId) {
+        final TotalCount[] counts = _counts;
+        if (methodId < counts.length) {
+            final TotalCount result = counts[methodId];
+            if (result != null) {
+                return result;
+            }
+        }
+        return create(methodId);
+    }
+
+    @Nonnull
+    private synchronized TotalCount create(final int methodId) {
+        TotalCount[] counts = _counts;
+        if (methodId < counts.length && counts[methodId] != null) {
+            return counts[methodId];
+        }
+        if (methodId >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(counts.length * 2, methodId + 1));
+        }
+        if (_size >= _maxSize) {
+            evict(counts, _size - _maxSize / 10 * 9 + 1);
+        }
+        final TotalCount result = new TotalCount(methodId, MethodRegistry.get(methodId).getMethodSignature(),
+                _nextGeneration++);
+        counts[methodId] = result;
+        _size++;
+        _counts = counts;
+        return result;
+    }
+
+    /**
+     * remove the given number of least recently used counts, the least frequently used first if they were used in the
+     * same millisecond
+     */
+    private void evict(final TotalCount[] counts, final int number) {
+        // the values are copied because they change concurrently
+        final List<long[]> candidates = new ArrayList<>(_size);
+        for (final TotalCount count : counts) {
+            if (count != null) {
+                candidates.add(new long[] { count._lastUsedMillis, count.getCount(), count._methodId });
+            }
+        }
+        candidates.sort(Comparator.<long[]> comparingLong(candidate -> candidate[0])
+                .thenComparingLong(candidate -> candidate[1]));
+        for (final long[] candidate : candidates.subList(0, Math.min(number, candidates.size()))) {
+            counts[(int) candidate[2]] = null;
+            _size--;
+        }
+    }
+
+    /**
+     * @return all counts which were created so far
+     */
+    @Nonnull
+    ImmutableList<TotalCount> values() {
+        final ImmutableList.Builder<TotalCount> result = ImmutableList.builder();
+        for (final TotalCount count : _counts) {
+            if (count != null) {
+                result.add(count);
+            }
+        }
+        return result.build();
+    }
+
+}
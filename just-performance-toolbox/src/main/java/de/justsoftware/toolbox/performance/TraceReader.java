@@ -0,0 +1,114 @@
+package de.justsoftware.toolbox.performance;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
+
+/**
+ * Reads the files written by {@link MappedTraceRecorder} and {@link BinaryFilePerformanceSink}.
+ *
+ * Can be used as command line tool: {@code TraceReader [--stats] <file>...} prints the call trees in the text format of
+ * the log output, or with {@code --stats} the stats aggregated over all call trees of the given files.
+ */
+@ParametersAreNonnullByDefault
+public final class TraceReader {
+
+    private TraceReader() {
+        super();
+    }
+
+    /**
+     * @return the call trees of the given file in the order they were written
+     */
+    @Nonnull
+    public static ImmutableList<CallTree> readCallTrees(final Path file) {
+        return ImmutableList.copyOf(decode(file));
+    }
+
+    @Nonnull
+    private static ImmutableList<DecodedCallTree> decode(final Path file) {
+        final ImmutableList.Builder<DecodedCallTree> result = ImmutableList.builder();
+        final BinaryTraceDecoder decoder;
+        try {
+            decoder = new BinaryTraceDecoder(ByteBuffer.wrap(Files.readAllBytes(file)));
+        } catch (final IOException e) {
+            throw new IllegalStateException("unable to read " + file, e);
+        }
+        for (DecodedCallTree callTree = decoder.next(); callTree != null; callTree = decoder.next()) {
+            result.add(callTree);
+        }
+        return result.build();
+    }
+
+    /**
+     * @return the stats of all methods in the given call trees, ordered by their total duration
+     */
+    @Nonnull
+    public static ImmutableList<MethodStats> aggregateStats(final Iterable<? extends CallTree> callTrees) {
+        final Map<Integer, TotalCount> counts = new HashMap<>();
+        for (final CallTree callTree : callTrees) {
+            count(counts, callTree, callTree.getSampleWeight());
+        }
+        return Ordering
+                .natural()
+                .reverse()
+                .onResultOf(MethodStats::getDuration)
+                .immutableSortedCopy(Iterables.transform(counts.values(), TotalCount::toMethodStats));
+    }
+
+    private static void count(final Map<Integer, TotalCount> counts, final CallTree node, final int weight) {
+        counts
+                .computeIfAbsent(Integer.valueOf(node.getMethodId()),
+                        methodId -> new TotalCount(methodId.intValue(), node.getMethodSignature(), 0))
+                // the binary format doesn't record which invocations were timed
+                .increment(node.getCount(), node.getCount(), node.getDuration(), node.getCpuDuration(),
+                        node.getUserDuration(), node.getAllocatedBytes(), node.getMaxDuration(), weight);
+        for (final CallTree child : node.getChildren()) {
+            count(counts, child, weight);
+        }
+    }
+
+    public static void main(final String[] args) {
+        final boolean stats = args.length > 0 && "--stats".equals(args[0]);
+        final List<String> files = ImmutableList.copyOf(args).subList(stats
+            ? 1
+            : 0, args.length);
+        if (files.isEmpty()) {
+            System.err.println("usage: TraceReader [--stats] <file>...");
+            System.exit(1);
+        }
+        print(System.out, stats, files.stream().map(Paths::get).collect(ImmutableList.toImmutableList()));
+    }
+
+    private static void print(final PrintStream out, final boolean stats, final List<Path> files) {
+        final ImmutableList.Builder<CallTree> callTrees = ImmutableList.builder();
+        for (final Path file : files) {
+            for (final DecodedCallTree callTree : decode(file)) {
+                if (stats) {
+                    callTrees.add(callTree);
+                } else {
+                    out.println(Instant.ofEpochMilli(callTree.getEndEpochMillis()));
+                    out.println(CallTreeTextFormat.formatCallTree(callTree, PerformanceLogger.getThresholdMethodNanos()));
+                }
+            }
+        }
+        if (stats) {
+            out.print(CallTreeTextFormat.formatStats(aggregateStats(callTrees.build())));
+        }
+    }
+
+}
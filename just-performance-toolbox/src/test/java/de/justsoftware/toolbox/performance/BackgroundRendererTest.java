@@ -0,0 +1,131 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * tests for {@link BackgroundRenderer}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class BackgroundRendererTest {
+
+    /**
+     * renders all items, but the first one blocks the render thread until {@link #release()} is called
+     */
+    private static final class BlockingRenderer implements Consumer<String> {
+
+        private final CountDownLatch _started = new CountDownLatch(1);
+        private final CountDownLatch _released = new CountDownLatch(1);
+        private final List<String> _rendered = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void accept(final String item) {
+            _started.countDown();
+            try {
+                _released.await(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            _rendered.add(item);
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue(_started.await(10, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            _released.countDown();
+        }
+
+    }
+
+    @Nonnull
+    private static List<String> renderWithFullQueue(final CallTreeDropPolicy dropPolicy) throws InterruptedException {
+        final BlockingRenderer renderer = new BlockingRenderer();
+        final BackgroundRenderer<String> backgroundRenderer =
+                new BackgroundRenderer<>("test-renderer", renderer, 2, dropPolicy);
+        backgroundRenderer.submit("blocking");
+        renderer.awaitStarted();
+        for (final String item : ImmutableList.of("a", "b", "c")) {
+            backgroundRenderer.submit(item);
+        }
+        renderer.release();
+        final long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (backgroundRenderer.getRenderedCount() + backgroundRenderer.getDroppedCount() < 4
+                && System.nanoTime() < timeout) {
+            Thread.sleep(1);
+        }
+        assertEquals(backgroundRenderer.getQueueSize(), 0);
+        return renderer._rendered;
+    }
+
+    public void dropNewestShouldDropSubmittedItem() throws InterruptedException {
+        assertEquals(renderWithFullQueue(CallTreeDropPolicy.DROP_NEWEST), ImmutableList.of("blocking", "a", "b"));
+    }
+
+    public void dropOldestShouldDropQueuedItem() throws InterruptedException {
+        assertEquals(renderWithFullQueue(CallTreeDropPolicy.DROP_OLDEST), ImmutableList.of("blocking", "b", "c"));
+    }
+
+    public void renderOnCallerShouldNotDrop() throws InterruptedException {
+        final BlockingRenderer renderer = new BlockingRenderer();
+        renderer.release();
+        final BackgroundRenderer<String> backgroundRenderer =
+                new BackgroundRenderer<>("test-renderer", renderer, 1, CallTreeDropPolicy.RENDER_ON_CALLER);
+        for (int i = 0; i < 100; i++) {
+            backgroundRenderer.submit(Integer.toString(i));
+        }
+        final long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (backgroundRenderer.getRenderedCount() < 100 && System.nanoTime() < timeout) {
+            Thread.sleep(1);
+        }
+        assertEquals(backgroundRenderer.getDroppedCount(), 0);
+        assertEquals(renderer._rendered.size(), 100);
+    }
+
+    public void errorsOfTheRendererShouldNotStopRendering() throws InterruptedException {
+        final List<String> rendered = new CopyOnWriteArrayList<>();
+        final BackgroundRenderer<String> backgroundRenderer = new BackgroundRenderer<>("test-renderer", item -> {
+            if (item.equals("deep")) {
+                throw new StackOverflowError();
+            }
+            if (item.equals("fatal")) {
+                // ends the thread
+                throw new InternalError("fatal");
+            }
+            rendered.add(item);
+        }, 10, CallTreeDropPolicy.DROP_NEWEST);
+        backgroundRenderer.submit("deep");
+        backgroundRenderer.submit("a");
+        awaitRendered(rendered, 1);
+        backgroundRenderer.submit("fatal");
+        // the thread may not have ended yet, then it renders the item itself
+        Thread.sleep(100);
+        backgroundRenderer.submit("b");
+        awaitRendered(rendered, 2);
+        assertEquals(rendered, ImmutableList.of("a", "b"));
+    }
+
+    private static void awaitRendered(final List<String> rendered, final int size) throws InterruptedException {
+        final long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (rendered.size() < size && System.nanoTime() < timeout) {
+            Thread.sleep(1);
+        }
+        assertEquals(rendered.size(), size);
+    }
+
+}
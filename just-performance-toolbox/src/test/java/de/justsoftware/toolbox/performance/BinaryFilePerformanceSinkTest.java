@@ -0,0 +1,77 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * tests for {@link BinaryFilePerformanceSink}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class BinaryFilePerformanceSinkTest {
+
+    public void writtenCallTreesShouldBeReadable() throws IOException {
+        final Path file = Files.createTempFile("trace", ".bin");
+        final DecodedCallTree child = new DecodedCallTree(2, "A.child( String )", 3, 300_000, 0, 0, 200_000, 2, 0,
+                ImmutableList.of());
+        final DecodedCallTree tree = new DecodedCallTree(1, "A.root(  )", 1, 1_000_000, 500_000, 250_000, 1_000_000, 2,
+                0, ImmutableList.of(child));
+        try {
+            try (BinaryFilePerformanceSink sink = new BinaryFilePerformanceSink(file, 1_000_000)) {
+                assertEquals(sink.getThresholdNanos(), 1_000_000);
+                sink.acceptCallTree(tree);
+                // every call tree is flushed, so it can be read before the sink is closed
+                assertEquals(TraceReader.readCallTrees(file).size(), 1);
+                sink.acceptCallTree(tree);
+            }
+            final List<CallTree> read = TraceReader.readCallTrees(file);
+            assertEquals(read.size(), 2);
+            assertEquals(CallTreeTextFormat.formatCallTree(read.get(1), 0), CallTreeTextFormat.formatCallTree(tree, 0));
+            assertEquals(read.get(1).getSampleWeight(), 2);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void callTreesBelowTheThresholdShouldNotBeWritten() throws IOException {
+        final Path fast = Files.createTempFile("fast", ".bin");
+        final Path all = Files.createTempFile("all", ".bin");
+        final int root = PerformanceLogger.registerMethod(BinaryFilePerformanceSinkTest.class, "written");
+        try {
+            try (BinaryFilePerformanceSink fastSink = new BinaryFilePerformanceSink(fast, Long.MAX_VALUE);
+                    BinaryFilePerformanceSink allSink = new BinaryFilePerformanceSink(all, 0)) {
+                PerformanceLogger.setPerformanceLoggerEnabled(true);
+                PerformanceLogger.setAsyncRendering(false);
+                PerformanceLogger.addSink(fastSink);
+                PerformanceLogger.addSink(allSink);
+                try {
+                    PerformanceLogger.startMethod(root);
+                    PerformanceLogger.finishMethod(root);
+                } finally {
+                    PerformanceLogger.removeSink(allSink);
+                    PerformanceLogger.removeSink(fastSink);
+                    PerformanceLogger.setAsyncRendering(true);
+                    PerformanceLogger.setPerformanceLoggerEnabled(false);
+                }
+            }
+            assertTrue(TraceReader.readCallTrees(fast).isEmpty());
+            final CallTree written = TraceReader.readCallTrees(all).get(0);
+            assertEquals(written.getMethodSignature(), "BinaryFilePerformanceSinkTest.written(  )");
+        } finally {
+            Files.delete(fast);
+            Files.delete(all);
+        }
+    }
+
+}
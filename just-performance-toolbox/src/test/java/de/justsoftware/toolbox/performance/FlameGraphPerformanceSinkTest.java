@@ -0,0 +1,52 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * tests for {@link FlameGraphPerformanceSink}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class FlameGraphPerformanceSinkTest {
+
+    private static DecodedCallTree callTree(final int methodId, final long duration, final DecodedCallTree... children) {
+        return new DecodedCallTree(methodId, "m" + methodId, 1, duration, duration / 2, 0, duration, 1, 0,
+                ImmutableList.copyOf(children));
+    }
+
+    private static ImmutableSet<String> lines(final String collapsedStacks) {
+        return ImmutableSet.copyOf(Arrays.asList(collapsedStacks.split("\n")));
+    }
+
+    public void collapsedStacksShouldContainSelfTime() {
+        final FlameGraphPerformanceSink sink = new FlameGraphPerformanceSink(100, 0);
+        sink.acceptCallTree(callTree(1, 100, callTree(2, 30), callTree(3, 50, callTree(2, 50))));
+        sink.acceptCallTree(callTree(1, 100, callTree(2, 40)));
+        assertEquals(lines(sink.getCollapsedStacks(FlameGraphWeight.WALL)),
+                ImmutableSet.of("m1 80", "m1;m2 70", "m1;m3;m2 50"));
+        assertEquals(lines(sink.getCollapsedStacks(FlameGraphWeight.CPU)),
+                ImmutableSet.of("m1 40", "m1;m2 35", "m1;m3;m2 25"));
+        assertEquals(sink.getNodeCount(), 4);
+    }
+
+    public void coldPathsShouldBeEvicted() {
+        final FlameGraphPerformanceSink sink = new FlameGraphPerformanceSink(4, 0);
+        sink.acceptCallTree(callTree(1, 100, callTree(2, 30, callTree(3, 10))));
+        sink.acceptCallTree(callTree(1, 100, callTree(4, 50)));
+        sink.acceptCallTree(callTree(1, 100, callTree(5, 50)));
+        // m2 and m3 are removed, their time is reported for m1
+        assertEquals(sink.getNodeCount(), 3);
+        assertEquals(lines(sink.getCollapsedStacks(FlameGraphWeight.WALL)),
+                ImmutableSet.of("m1 200", "m1;m4 50", "m1;m5 50"));
+    }
+
+}
@@ -0,0 +1,96 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * tests for {@link JfrSpans} and {@link MethodSpanEvent}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class JfrSpansTest {
+
+    private static final String EVENT_NAME = "de.justsoftware.toolbox.performance.MethodSpan";
+
+    public void spansAboveTheThresholdShouldBeRecorded() throws IOException, InterruptedException {
+        final int root = PerformanceLogger.registerMethod(JfrSpansTest.class, "spanRoot");
+        final int slow = PerformanceLogger.registerMethod(JfrSpansTest.class, "slowSpan");
+        final int fast = PerformanceLogger.registerMethod(JfrSpansTest.class, "fastSpan");
+        final Path file = Files.createTempFile("spans", ".jfr");
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setJfrEventsEnabled(true);
+        PerformanceLogger.setJfrThresholdNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        try (Recording recording = new Recording()) {
+            recording.enable(EVENT_NAME).withoutThreshold();
+            recording.start();
+            PerformanceLogger.startMethod(root);
+            PerformanceLogger.startMethod(slow);
+            Thread.sleep(50);
+            PerformanceLogger.finishMethod(slow);
+            PerformanceLogger.startMethod(fast);
+            PerformanceLogger.finishMethod(fast);
+            PerformanceLogger.finishMethod(root);
+            recording.stop();
+            recording.dump(file);
+        } finally {
+            PerformanceLogger.setJfrThresholdNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            PerformanceLogger.setJfrEventsEnabled(false);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        final List<RecordedEvent> events;
+        try {
+            events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> EVENT_NAME.equals(event.getEventType().getName()))
+                    .collect(Collectors.toList());
+        } finally {
+            Files.delete(file);
+        }
+
+        // the fast method is below the threshold, the child is committed before its parent
+        assertEquals(events.size(), 2);
+        final RecordedEvent child = events.get(0);
+        final RecordedEvent parent = events.get(1);
+        assertEquals(parent.getString("method"), "JfrSpansTest.spanRoot(  )");
+        assertEquals(parent.getInt("depth"), 0);
+        assertEquals(parent.getLong("parentSpanId"), 0);
+        assertNull(parent.getString("parentMethod"));
+        assertEquals(child.getString("method"), "JfrSpansTest.slowSpan(  )");
+        assertEquals(child.getInt("depth"), 1);
+        assertEquals(child.getLong("parentSpanId"), parent.getLong("spanId"));
+        assertEquals(child.getString("parentMethod"), "JfrSpansTest.spanRoot(  )");
+        final long wallTime = child.getLong("wallTime");
+        assertTrue(wallTime >= TimeUnit.MILLISECONDS.toNanos(50), Long.toString(wallTime));
+        assertTrue(parent.getLong("wallTime") >= wallTime);
+    }
+
+    public void noSpansShouldBeCreatedWithoutRecording() {
+        final int root = PerformanceLogger.registerMethod(JfrSpansTest.class, "unrecordedRoot");
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setJfrEventsEnabled(true);
+        try {
+            assertNull(JfrSpans.begin());
+            PerformanceLogger.startMethod(root);
+            PerformanceLogger.finishMethod(root);
+        } finally {
+            PerformanceLogger.setJfrEventsEnabled(false);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+    }
+
+}
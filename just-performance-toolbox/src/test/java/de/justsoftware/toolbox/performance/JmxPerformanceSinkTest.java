@@ -0,0 +1,78 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * tests for {@link JmxPerformanceSink}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class JmxPerformanceSinkTest {
+
+    private static DecodedCallTree callTree(final String signature, final long duration) {
+        return new DecodedCallTree(1, signature, 1, duration, 0, 0, duration, 1, 0, ImmutableList.of());
+    }
+
+    public void callTreesShouldBeReadableAsAttributes() throws JMException {
+        final ObjectName objectName = new ObjectName("de.justsoftware.toolbox.performance:type=PerformanceSinkTest");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final JmxPerformanceSink sink = new JmxPerformanceSink(objectName, 2, 1_000);
+        sink.register();
+        try {
+            assertEquals(server.getAttribute(objectName, "ThresholdNanos"), Long.valueOf(1_000));
+            sink.acceptCallTree(callTree("A.first(  )", 1_000));
+            sink.acceptCallTree(callTree("A.second(  )", 2_000));
+            sink.acceptCallTree(callTree("A.third(  )", 3_000));
+
+            assertEquals(server.getAttribute(objectName, "AcceptedCount"), Long.valueOf(3));
+            final String[] recent = (String[]) server.getAttribute(objectName, "RecentCallTrees");
+            assertEquals(recent.length, 2);
+            assertTrue(recent[0].contains("A.third(  )"), recent[0]);
+            assertTrue(recent[1].contains("A.second(  )"), recent[1]);
+
+            server.setAttribute(objectName, new Attribute("ThresholdNanos", Long.valueOf(5_000)));
+            assertEquals(sink.getThresholdNanos(), 5_000);
+        } finally {
+            sink.unregister();
+        }
+        assertFalse(server.isRegistered(objectName));
+    }
+
+    public void callTreesBelowTheThresholdShouldNotBeKept() {
+        final int fast = PerformanceLogger.registerMethod(JmxPerformanceSinkTest.class, "fast");
+        final JmxPerformanceSink sink = new JmxPerformanceSink(2, Long.MAX_VALUE);
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.addSink(sink);
+        try {
+            PerformanceLogger.startMethod(fast);
+            PerformanceLogger.finishMethod(fast);
+            assertEquals(sink.getAcceptedCount(), 0);
+
+            sink.setThresholdNanos(0);
+            PerformanceLogger.startMethod(fast);
+            PerformanceLogger.finishMethod(fast);
+        } finally {
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        assertEquals(sink.getAcceptedCount(), 1);
+        assertTrue(sink.getRecentCallTrees().get(0).contains("JmxPerformanceSinkTest.fast(  )"));
+    }
+
+}
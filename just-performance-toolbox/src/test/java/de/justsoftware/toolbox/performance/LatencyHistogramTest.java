@@ -0,0 +1,75 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+/**
+ * tests for {@link LatencyHistogram}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class LatencyHistogramTest {
+
+    public void emptyHistogramShouldReturnZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMax(), 0);
+        assertEquals(histogram.getValueAtPercentile(99), 0);
+    }
+
+    public void smallValuesShouldBeExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 20; i++) {
+            histogram.record(i, 1);
+        }
+        assertEquals(histogram.getCount(), 20);
+        assertEquals(histogram.getValueAtPercentile(50), 10);
+        assertEquals(histogram.getValueAtPercentile(100), 20);
+        assertEquals(histogram.getMax(), 20);
+    }
+
+    public void percentilesShouldBeWithinPrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000, 1);
+        }
+        assertWithinPrecision(histogram.getValueAtPercentile(50), 50_000_000);
+        assertWithinPrecision(histogram.getValueAtPercentile(90), 90_000_000);
+        assertWithinPrecision(histogram.getValueAtPercentile(99), 99_000_000);
+        assertWithinPrecision(histogram.getValueAtPercentile(99.9), 99_900_000);
+        assertEquals(histogram.getMax(), 100_000_000);
+    }
+
+    public void countShouldWeightValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10, 99);
+        histogram.record(1_000_000, 1);
+        assertEquals(histogram.getCount(), 100);
+        assertEquals(histogram.getValueAtPercentile(99), 10);
+        assertWithinPrecision(histogram.getValueAtPercentile(99.9), 1_000_000);
+    }
+
+    public void recordMaxShouldOnlyUpdateMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10, 2);
+        histogram.recordMax(30);
+        assertEquals(histogram.getCount(), 2);
+        assertEquals(histogram.getMax(), 30);
+    }
+
+    public void hugeValuesShouldBeCapped() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE, 1);
+        assertEquals(histogram.getMax(), LatencyHistogram.MAX_TRACKABLE_VALUE);
+        assertEquals(histogram.getValueAtPercentile(50), LatencyHistogram.MAX_TRACKABLE_VALUE);
+    }
+
+    private static void assertWithinPrecision(final long actual, final long expected) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16, actual + " is not near " + expected);
+    }
+
+}
@@ -0,0 +1,101 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * tests for {@link MappedTraceRecorder} and {@link TraceReader}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class MappedTraceRecorderTest {
+
+    private static DecodedCallTree callTree(final int methodId, final String signature, final long duration,
+            final DecodedCallTree... children) {
+        return new DecodedCallTree(methodId, signature, 2, duration, duration / 2, duration / 4, duration / 2 + 1, 3, 0,
+                ImmutableList.copyOf(children));
+    }
+
+    public void recordedCallTreesShouldBeReadable() throws IOException {
+        final Path directory = Files.createTempDirectory("trace");
+        final DecodedCallTree tree = callTree(1, "A.root(  )", 1_000_000,
+                callTree(2, "A.child( String )", 300_000),
+                callTree(3, "B.other(  )", 500_000, callTree(2, "A.child( String )", 100)));
+        try (MappedTraceRecorder recorder = new MappedTraceRecorder(directory, "test", 4096, 2, 0)) {
+            recorder.acceptCallTree(tree);
+            recorder.acceptCallTree(tree);
+            final List<CallTree> read = TraceReader.readCallTrees(recorder.getCurrentFile());
+            assertEquals(read.size(), 2);
+            assertEquals(CallTreeTextFormat.formatCallTree(read.get(1), 0), CallTreeTextFormat.formatCallTree(tree, 0));
+            assertEquals(read.get(1).getSampleWeight(), 3);
+            assertEquals(read.get(1).getMaxDuration(), 500_001);
+
+            final List<MethodStats> stats = TraceReader.aggregateStats(read);
+            assertEquals(stats.get(0).getMethodSignature(), "A.root(  )");
+            assertEquals(stats.get(0).getCount(), 12);
+            assertEquals(stats.get(0).getDuration(), 6_000_000);
+            assertEquals(stats.get(2).getMethodSignature(), "A.child( String )");
+            assertEquals(stats.get(2).getCount(), 24);
+        }
+    }
+
+    public void recorderShouldRotateFiles() throws IOException {
+        final Path directory = Files.createTempDirectory("trace");
+        final DecodedCallTree tree = callTree(1, "A.root(  )", 1_000_000);
+        try (MappedTraceRecorder recorder = new MappedTraceRecorder(directory, "test", 100, 2, 0)) {
+            for (int i = 0; i < 20; i++) {
+                recorder.acceptCallTree(tree);
+            }
+            final List<Path> files;
+            try (Stream<Path> list = Files.list(directory)) {
+                files = list.sorted().collect(Collectors.toList());
+            }
+            assertEquals(files.size(), 2);
+            assertEquals(files.get(1), recorder.getCurrentFile());
+            final int recorded = files.stream().mapToInt(file -> TraceReader.readCallTrees(file).size()).sum();
+            // a file holds 3 records (40 bytes with method definition and length, 27 bytes without) and the last file 2
+            assertEquals(recorded, 3 + 2);
+            assertEquals(recorder.getDroppedCount(), 0);
+        }
+    }
+
+    public void recordsWhichWereNotWrittenShouldBeSkipped() throws IOException {
+        final Path directory = Files.createTempDirectory("trace");
+        final Path file;
+        try (MappedTraceRecorder recorder = new MappedTraceRecorder(directory, "test", 4096, 2, 0)) {
+            recorder.acceptCallTree(callTree(1, "A.root(  )", 1_000));
+            recorder.acceptCallTree(callTree(1, "A.root(  )", 2_000));
+            recorder.acceptCallTree(callTree(1, "A.root(  )", 3_000));
+            file = recorder.getCurrentFile();
+        }
+        // simulate a crash while the second record was written: it is reserved, but not committed
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        final int second = 5 + Integer.BYTES + buffer.getInt(5);
+        final int length = buffer.getInt(second);
+        buffer.putInt(second, -length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(second + Integer.BYTES + i, (byte) 0);
+        }
+        Files.write(file, buffer.array());
+
+        final List<CallTree> read = TraceReader.readCallTrees(file);
+        assertEquals(read.size(), 2);
+        assertEquals(read.get(0).getDuration(), 1_000);
+        assertEquals(read.get(1).getDuration(), 3_000);
+        assertEquals(read.get(1).getMethodSignature(), "A.root(  )");
+    }
+
+}
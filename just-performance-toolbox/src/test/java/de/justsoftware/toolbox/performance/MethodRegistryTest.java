@@ -0,0 +1,38 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+import de.justsoftware.toolbox.performance.PerformanceLogger.MethodDescription;
+
+/**
+ * tests for {@link MethodRegistry}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class MethodRegistryTest {
+
+    public void methodsAboveTheLimitShouldShareTheOverflowId() {
+        final int registered = MethodRegistry.register(new MethodDescription(MethodRegistryTest.class, "registered"));
+        MethodRegistry.setMaxSize(MethodRegistry.size());
+        final int overflow;
+        try {
+            overflow = MethodRegistry.register(new MethodDescription(MethodRegistryTest.class, "overflow"));
+            assertEquals(overflow, MethodRegistry.OVERFLOW_ID);
+            assertEquals(MethodRegistry.register(new MethodDescription(MethodRegistryTest.class, "registered")),
+                    registered);
+            assertEquals(MethodRegistry.get(overflow).getMethodSignature(), "PerformanceLogger.overflow(  )");
+        } finally {
+            MethodRegistry.setMaxSize(1 << 16);
+        }
+        // methods above the limit are not remembered
+        final int later = MethodRegistry.register(new MethodDescription(MethodRegistryTest.class, "overflow"));
+        assertNotEquals(later, MethodRegistry.OVERFLOW_ID);
+        assertEquals(MethodRegistry.get(later).getMethodSignature(), "MethodRegistryTest.overflow(  )");
+    }
+
+}
@@ -0,0 +1,34 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+/**
+ * tests for {@link ObjectPool}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class ObjectPoolTest {
+
+    public void releasedObjectShouldBeAcquiredAgain() {
+        final ObjectPool<Object> pool = new ObjectPool<>(8);
+        assertNull(pool.acquire());
+        final Object object = new Object();
+        assertTrue(pool.release(object));
+        assertSame(pool.acquire(), object);
+        assertNull(pool.acquire());
+    }
+
+    public void fullPoolShouldRejectObjects() {
+        final ObjectPool<Object> pool = new ObjectPool<>(1);
+        assertTrue(pool.release(new Object()));
+        assertFalse(pool.release(new Object()));
+    }
+
+}
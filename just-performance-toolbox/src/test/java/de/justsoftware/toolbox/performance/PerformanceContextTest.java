@@ -0,0 +1,164 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * tests for {@link PerformanceContext}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class PerformanceContextTest {
+
+    private final RingBufferPerformanceSink _sink = new RingBufferPerformanceSink(10, 0);
+    private ExecutorService _executor;
+
+    @BeforeClass
+    public void setUp() {
+        _executor = Executors.newFixedThreadPool(2);
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.addSink(_sink);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        PerformanceLogger.removeSink(_sink);
+        PerformanceLogger.setAsyncRendering(true);
+        PerformanceLogger.setPerformanceLoggerEnabled(false);
+        _executor.shutdown();
+    }
+
+    private static void traced(final int methodId) {
+        PerformanceLogger.startMethod(methodId);
+        PerformanceLogger.finishMethod(methodId);
+    }
+
+    public void tasksShouldBeAddedToTheCapturingTree() {
+        final int root = PerformanceLogger.registerMethod(PerformanceContextTest.class, "root");
+        final int task = PerformanceLogger.registerMethod(PerformanceContextTest.class, "task");
+        final long accepted = _sink.getAcceptedCount();
+        PerformanceLogger.startMethod(root);
+        CompletableFuture
+                .allOf(
+                        PerformanceContext.runAsync(() -> traced(task), _executor),
+                        PerformanceContext.runAsync(() -> traced(task), _executor),
+                        CompletableFuture.runAsync(PerformanceContext.capture().wrap(() -> traced(task)),
+                                PerformanceContext.wrap(_executor)))
+                .join();
+        PerformanceLogger.finishMethod(root);
+
+        assertEquals(_sink.getAcceptedCount(), accepted + 1);
+        final CallTree tree = _sink.getCallTrees().get(0);
+        assertEquals(tree.getMethodId(), root);
+        final CallTree async = Iterables.getOnlyElement(tree.getChildren());
+        assertEquals(async.getMethodSignature(), "PerformanceLogger.async(  )");
+        assertEquals(async.getCount(), 3);
+        final CallTree taskNode = Iterables.getOnlyElement(async.getChildren());
+        assertEquals(taskNode.getMethodId(), task);
+        assertEquals(taskNode.getCount(), 3);
+    }
+
+    public void tasksFinishingLaterShouldBeSeparateTrees() throws Exception {
+        final int root = PerformanceLogger.registerMethod(PerformanceContextTest.class, "fireAndForgetRoot");
+        final int task = PerformanceLogger.registerMethod(PerformanceContextTest.class, "fireAndForgetTask");
+        final long accepted = _sink.getAcceptedCount();
+        PerformanceLogger.startMethod(root);
+        final Runnable wrapped = PerformanceContext.capture().wrap(() -> traced(task));
+        PerformanceLogger.finishMethod(root);
+        _executor.submit(wrapped).get();
+
+        assertEquals(_sink.getAcceptedCount(), accepted + 2);
+        final CallTree orphan = _sink.getCallTrees().get(0);
+        assertEquals(orphan.getMethodSignature(), "PerformanceLogger.async(  )");
+        assertEquals(Iterables.getOnlyElement(orphan.getChildren()).getMethodId(), task);
+        assertEquals(_sink.getCallTrees().get(1).getChildren().size(), 0);
+    }
+
+    public void nestedTasksFinishingAfterTheirTaskShouldBeSeparateTrees() throws Exception {
+        final int root = PerformanceLogger.registerMethod(PerformanceContextTest.class, "nestingRoot");
+        final int task = PerformanceLogger.registerMethod(PerformanceContextTest.class, "nestingTask");
+        final int nested = PerformanceLogger.registerMethod(PerformanceContextTest.class, "nestedTask");
+        final long accepted = _sink.getAcceptedCount();
+        final Callable<Runnable> capturingTask = () -> {
+            PerformanceLogger.startMethod(task);
+            try {
+                return PerformanceContext.capture().wrap(() -> traced(nested));
+            } finally {
+                PerformanceLogger.finishMethod(task);
+            }
+        };
+        PerformanceLogger.startMethod(root);
+        final Runnable nestedTask = _executor.submit(PerformanceContext.capture().wrap(capturingTask)).get();
+        // the task is finished and attached, but the tree of the root is still running
+        _executor.submit(nestedTask).get();
+        PerformanceLogger.finishMethod(root);
+
+        assertEquals(_sink.getAcceptedCount(), accepted + 2);
+        final CallTree orphan = _sink.getCallTrees().get(1);
+        assertEquals(orphan.getMethodSignature(), "PerformanceLogger.async(  )");
+        assertEquals(Iterables.getOnlyElement(orphan.getChildren()).getMethodId(), nested);
+        final CallTree tree = _sink.getCallTrees().get(0);
+        assertEquals(tree.getMethodId(), root);
+        final CallTree async = Iterables.getOnlyElement(tree.getChildren());
+        final CallTree taskNode = Iterables.getOnlyElement(async.getChildren());
+        assertEquals(taskNode.getMethodId(), task);
+        assertEquals(taskNode.getChildren().size(), 0);
+    }
+
+    public void tasksExceedingTheNodeBudgetShouldBeSeparateTrees() {
+        final int root = PerformanceLogger.registerMethod(PerformanceContextTest.class, "budgetRoot");
+        final int task = PerformanceLogger.registerMethod(PerformanceContextTest.class, "budgetTask");
+        final int child = PerformanceLogger.registerMethod(PerformanceContextTest.class, "budgetChild");
+        final long accepted = _sink.getAcceptedCount();
+        PerformanceLogger.setMaxCallTreeNodes(3);
+        try {
+            PerformanceLogger.startMethod(root);
+            final PerformanceContext context = PerformanceContext.capture();
+            for (int i = 0; i < 2; i++) {
+                // every task has 3 nodes: the async node, the task and its child
+                CompletableFuture.runAsync(context.wrap(() -> {
+                    PerformanceLogger.startMethod(task);
+                    traced(child);
+                    PerformanceLogger.finishMethod(task);
+                }), _executor).join();
+            }
+            PerformanceLogger.finishMethod(root);
+        } finally {
+            PerformanceLogger.setMaxCallTreeNodes(10000);
+        }
+
+        assertEquals(_sink.getAcceptedCount(), accepted + 2);
+        final CallTree tree = _sink.getCallTrees().get(0);
+        assertEquals(tree.getMethodId(), root);
+        final CallTree async = Iterables.getOnlyElement(tree.getChildren());
+        assertEquals(async.getCount(), 1);
+        final CallTree separate = _sink.getCallTrees().get(1);
+        assertEquals(separate.getMethodSignature(), "PerformanceLogger.async(  )");
+        assertEquals(Iterables.getOnlyElement(separate.getChildren()).getMethodId(), task);
+    }
+
+    public void tasksExecutedByTracedThreadShouldBeNormalChildren() {
+        final int root = PerformanceLogger.registerMethod(PerformanceContextTest.class, "directRoot");
+        final int task = PerformanceLogger.registerMethod(PerformanceContextTest.class, "directTask");
+        PerformanceLogger.startMethod(root);
+        PerformanceContext.wrap(Runnable::run).execute(() -> traced(task));
+        PerformanceLogger.finishMethod(root);
+
+        final CallTree tree = _sink.getCallTrees().get(0);
+        assertEquals(Iterables.getOnlyElement(tree.getChildren()).getMethodId(), task);
+    }
+
+}
@@ -0,0 +1,389 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.runtime.internal.AroundClosure;
+import org.aspectj.runtime.reflect.Factory;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * tests for {@link PerformanceLogger}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class PerformanceLoggerTest {
+
+    public void registerMethodShouldReturnSameIdForSameSignature() {
+        final int id = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "method", String.class);
+        assertEquals(PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "method", String.class), id);
+        assertNotEquals(PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "method"), id);
+    }
+
+    public void registerConstructorShouldNotNeedAPublicConstructor() {
+        final int id = PerformanceLogger.registerConstructor(PrivateConstructor.class, String.class);
+        assertEquals(PerformanceLogger.registerConstructor(PrivateConstructor.class, String.class), id);
+        PerformanceLogger.startMethod(id);
+        PerformanceLogger.finishMethod(id);
+    }
+
+    public void registeredMethodsShouldBeNestable() {
+        final int outer = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "outer");
+        final int inner = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "inner");
+        final RingBufferPerformanceSink sink = new RingBufferPerformanceSink(1, 0);
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.addSink(sink);
+        final long beforeMillis = System.currentTimeMillis();
+        final long afterMillis;
+        try {
+            PerformanceLogger.startMethod(outer);
+            for (int i = 0; i < 3; i++) {
+                PerformanceLogger.startMethod(inner);
+                PerformanceLogger.finishMethod(inner);
+            }
+            PerformanceLogger.finishMethod(outer);
+            afterMillis = System.currentTimeMillis();
+        } finally {
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        final CallTree tree = Iterables.getOnlyElement(sink.getCallTrees());
+        assertEquals(tree.getMethodId(), outer);
+        assertEquals(tree.getMethodSignature(), "PerformanceLoggerTest.outer(  )");
+        assertEquals(tree.getCount(), 1);
+        final CallTree child = Iterables.getOnlyElement(tree.getChildren());
+        assertEquals(child.getMethodId(), inner);
+        assertEquals(child.getCount(), 3);
+        assertTrue(child.getChildren().isEmpty());
+        assertTrue(tree.getDuration() >= child.getDuration());
+        assertTrue(tree.getEndEpochMillis() >= beforeMillis && tree.getEndEpochMillis() <= afterMillis);
+        assertEquals(countOf("outer"), 1);
+        assertEquals(countOf("inner"), 3);
+    }
+
+    /**
+     * @return the counted invocations of a method of this class without parameters
+     */
+    private static long countOf(final String method) {
+        final String signature = PerformanceLoggerTest.class.getSimpleName() + "." + method + "(  )";
+        return PerformanceLogger.getStats().stream()
+                .filter(stats -> signature.equals(stats.getMethodSignature()))
+                .mapToLong(MethodStats::getCount)
+                .sum();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void finishMethodShouldFailForOtherMethod() {
+        final int started = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "started");
+        final int other = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "other");
+        PerformanceLogger.startMethod(started);
+        PerformanceLogger.finishMethod(other);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void finishMethodShouldFailWithoutStart() {
+        PerformanceLogger.finishMethod(PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "notStarted"));
+    }
+
+    public void notSampledRequestsShouldSkipTheStack() {
+        final int root = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "notSampledRoot");
+        final int child = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "notSampledChild");
+        final RingBufferPerformanceSink sink = new RingBufferPerformanceSink(1, 0);
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.addSink(sink);
+        try {
+            PerformanceLogger.setRequestSampler(() -> 0);
+            try {
+                PerformanceLogger.startMethod(root);
+                PerformanceLogger.startMethod(child);
+                assertSame(PerformanceLogger.captureContext(), PerformanceContext.UNSAMPLED);
+                // the methods are not verified, because the stack is skipped
+                PerformanceLogger.finishMethod(root);
+                PerformanceLogger.finishMethod(root);
+            } finally {
+                PerformanceLogger.setRequestSampler(RequestSampler.all());
+            }
+            assertEquals(sink.getAcceptedCount(), 0);
+            assertEquals(countOf("notSampledRoot"), 0);
+            assertEquals(countOf("notSampledChild"), 0);
+            // the stack was released, so the thread doesn't trace anything
+            assertSame(PerformanceLogger.captureContext(), PerformanceContext.NONE);
+
+            PerformanceLogger.startMethod(root);
+            PerformanceLogger.startMethod(child);
+            PerformanceLogger.finishMethod(child);
+            PerformanceLogger.finishMethod(root);
+        } finally {
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        assertEquals(sink.getAcceptedCount(), 1);
+        assertEquals(countOf("notSampledRoot"), 1);
+        assertEquals(countOf("notSampledChild"), 1);
+    }
+
+    public void childrenAboveLimitShouldBeCountedAsOther() {
+        final int root = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "limitedRoot");
+        final int[] children = new int[5];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "limitedChild" + i);
+        }
+        final RingBufferPerformanceSink sink = new RingBufferPerformanceSink(1, 0);
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.setMaxChildrenPerNode(2);
+        PerformanceLogger.addSink(sink);
+        try {
+            PerformanceLogger.startMethod(root);
+            for (final int child : children) {
+                PerformanceLogger.startMethod(child);
+                PerformanceLogger.startMethod(root);
+                PerformanceLogger.finishMethod(root);
+                PerformanceLogger.finishMethod(child);
+            }
+            PerformanceLogger.finishMethod(root);
+        } finally {
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setMaxChildrenPerNode(1000);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        final CallTree tree = sink.getCallTrees().get(0);
+        assertEquals(tree.getChildren().size(), 3);
+        final CallTree other = Iterables.find(tree.getChildren(),
+                child -> "PerformanceLogger.other(  )".equals(child.getMethodSignature()));
+        assertEquals(other.getCount(), 3);
+        assertEquals(Iterables.getOnlyElement(other.getChildren()).getCount(), 3);
+    }
+
+    public void nodesAboveTheTreeLimitShouldBeCountedAsOther() {
+        final int root = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "budgetRoot");
+        final int[] children = new int[4];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "budgetChild" + i);
+        }
+        final RingBufferPerformanceSink sink = new RingBufferPerformanceSink(1, 0);
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.setMaxCallTreeNodes(3);
+        PerformanceLogger.addSink(sink);
+        try {
+            PerformanceLogger.startMethod(root);
+            for (final int child : children) {
+                PerformanceLogger.startMethod(child);
+                // not traced below the other node
+                PerformanceLogger.startMethod(root);
+                PerformanceLogger.finishMethod(root);
+                PerformanceLogger.finishMethod(child);
+            }
+            PerformanceLogger.finishMethod(root);
+        } finally {
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setMaxCallTreeNodes(10000);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        final CallTree tree = Iterables.getOnlyElement(sink.getCallTrees());
+        // the root and the first child use the budget, the nested root of the first child needs the third node
+        assertEquals(tree.getChildren().size(), 2);
+        final CallTree first = Iterables.find(tree.getChildren(), child -> child.getMethodId() == children[0]);
+        assertEquals(Iterables.getOnlyElement(first.getChildren()).getMethodId(), root);
+        final CallTree other = Iterables.find(tree.getChildren(),
+                child -> "PerformanceLogger.other(  )".equals(child.getMethodSignature()));
+        assertEquals(other.getCount(), 3);
+        assertTrue(other.getChildren().isEmpty());
+        assertEquals(countOf("budgetChild0"), 1);
+        assertEquals(countOf("budgetChild3"), 0);
+    }
+
+    public void allocatedBytesShouldBeTracked() {
+        final int root = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "allocatingRoot");
+        final int child = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "allocatingChild");
+        final RingBufferPerformanceSink sink = new RingBufferPerformanceSink(1, 0);
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.addSink(sink);
+        final boolean tracked = PerformanceLogger.setAllocationTrackingEnabled(true);
+        final byte[] allocated;
+        try {
+            PerformanceLogger.startMethod(root);
+            PerformanceLogger.startMethod(child);
+            allocated = new byte[1024 * 1024];
+            PerformanceLogger.finishMethod(child);
+            PerformanceLogger.finishMethod(root);
+        } finally {
+            PerformanceLogger.setAllocationTrackingEnabled(false);
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        if (!tracked) {
+            throw new SkipException("allocations are not supported by this jvm");
+        }
+        final CallTree tree = sink.getCallTrees().get(0);
+        final CallTree allocating = Iterables.getOnlyElement(tree.getChildren());
+        assertTrue(allocating.getAllocatedBytes() >= allocated.length, Long.toString(allocating.getAllocatedBytes()));
+        assertTrue(tree.getAllocatedBytes() >= allocating.getAllocatedBytes());
+        assertTrue(CallTreeTextFormat.formatCallTree(tree, 0).contains(" alloc[kB] "));
+    }
+
+    public void timingPrecisionShouldSelectTheTimedInvocations() {
+        assertTimedCounts(TimingPrecision.WALL, 0, 0);
+        assertTimedCounts(TimingPrecision.WALL_AND_CPU, 2, 2);
+        assertTimedCounts(TimingPrecision.FULL, 2, 2);
+        // the child is slow in the first tree, so only its second invocation is timed
+        assertTimedCounts(TimingPrecision.ROOTS_AND_SLOW_METHODS, 2, 1);
+    }
+
+    /**
+     * run two call trees with a root and a child, every method is slow
+     */
+    private static void assertTimedCounts(final TimingPrecision timingPrecision, final long rootTimedCount,
+            final long childTimedCount) {
+        final String prefix = "precision" + timingPrecision;
+        final int root = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, prefix + "Root");
+        final int child = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, prefix + "Child");
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.setTimingPrecision(timingPrecision);
+        PerformanceLogger.setThresholdMethodNanos(0);
+        try {
+            for (int i = 0; i < 2; i++) {
+                PerformanceLogger.startMethod(root);
+                PerformanceLogger.startMethod(child);
+                PerformanceLogger.finishMethod(child);
+                PerformanceLogger.finishMethod(root);
+            }
+        } finally {
+            PerformanceLogger.setThresholdMethodNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            PerformanceLogger.setTimingPrecision(TimingPrecision.FULL);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        final MethodStats rootStats = statsOf(prefix + "Root");
+        final MethodStats childStats = statsOf(prefix + "Child");
+        assertEquals(rootStats.getCount(), 2);
+        assertEquals(childStats.getCount(), 2);
+        assertEquals(rootStats.getTimedCount(), rootTimedCount, timingPrecision.toString());
+        assertEquals(childStats.getTimedCount(), childTimedCount, timingPrecision.toString());
+        if (childTimedCount == 0) {
+            assertEquals(childStats.getCpuDuration(), 0);
+            assertEquals(childStats.getUserDuration(), 0);
+        }
+    }
+
+    @Nonnull
+    private static MethodStats statsOf(final String method) {
+        final String signature = PerformanceLoggerTest.class.getSimpleName() + "." + method + "(  )";
+        return Iterables.find(PerformanceLogger.getStats(), stats -> signature.equals(stats.getMethodSignature()));
+    }
+
+    public void adaptiveJoinPointsShouldBypassCheapMethods() throws Throwable {
+        final Factory factory = new Factory("PerformanceLoggerTest.java", PerformanceLoggerTest.class);
+        final JoinPoint.StaticPart cheap = factory.makeSJP(JoinPoint.METHOD_EXECUTION,
+                factory.makeMethodSig("1", "cheap", PerformanceLoggerTest.class.getName(), "", "", "", "int"), 1);
+        final AroundClosure body = new AroundClosure() {
+
+            @Override
+            public Object run(final Object[] args) {
+                return Integer.valueOf(42);
+            }
+        };
+        final RingBufferPerformanceSink sink = new RingBufferPerformanceSink(1, 0);
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.setTimingPrecision(TimingPrecision.WALL);
+        PerformanceLogger.setThresholdMethodNanos(TimeUnit.SECONDS.toNanos(1));
+        PerformanceLogger.setAdaptiveJoinPointsEnabled(true);
+        PerformanceLogger.addSink(sink);
+        try {
+            for (int i = 0; i < TotalCount.ADAPTIVE_WARM_UP_INVOCATIONS; i++) {
+                assertEquals(invoke(cheap, body), Integer.valueOf(42));
+            }
+            assertEquals(sink.getAcceptedCount(), TotalCount.ADAPTIVE_WARM_UP_INVOCATIONS);
+            assertEquals(statsOf("cheap").getBypassedCount(), 0);
+            for (int i = 1; i < TotalCount.ADAPTIVE_PROBE_INTERVAL; i++) {
+                assertEquals(invoke(cheap, body), Integer.valueOf(42));
+            }
+            assertEquals(sink.getAcceptedCount(), TotalCount.ADAPTIVE_WARM_UP_INVOCATIONS);
+            assertEquals(statsOf("cheap").getCount(), TotalCount.ADAPTIVE_WARM_UP_INVOCATIONS);
+            assertEquals(statsOf("cheap").getBypassedCount(), TotalCount.ADAPTIVE_PROBE_INTERVAL - 1);
+            invoke(cheap, body);
+            assertEquals(sink.getAcceptedCount(), TotalCount.ADAPTIVE_WARM_UP_INVOCATIONS + 1);
+            assertEquals(statsOf("cheap").getCount(), TotalCount.ADAPTIVE_WARM_UP_INVOCATIONS + 1);
+        } finally {
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setAdaptiveJoinPointsEnabled(false);
+            PerformanceLogger.setThresholdMethodNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            PerformanceLogger.setTimingPrecision(TimingPrecision.FULL);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+    }
+
+    private Object invoke(final JoinPoint.StaticPart staticPart, final AroundClosure body) throws Throwable {
+        final ProceedingJoinPoint joinPoint = (ProceedingJoinPoint) Factory.makeJP(staticPart, this, this);
+        joinPoint.set$AroundClosure(body);
+        return PerformanceLogger.logJoinPoint(joinPoint);
+    }
+
+    public void slowRequestsShouldBeSampled() throws InterruptedException {
+        final int root = PerformanceLogger.registerMethod(PerformanceLoggerTest.class, "sampledRoot");
+        final RingBufferPerformanceSink sink = new RingBufferPerformanceSink(1, 0);
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.addSink(sink);
+        PerformanceLogger.setStackSamplingIntervalMillis(1);
+        PerformanceLogger.setStackSamplingThresholdNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        try {
+            PerformanceLogger.startMethod(root);
+            notInstrumented();
+            PerformanceLogger.finishMethod(root);
+        } finally {
+            PerformanceLogger.setStackSamplingThresholdNanos(0);
+            PerformanceLogger.setStackSamplingIntervalMillis(10);
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        final CallTree tree = sink.getCallTrees().get(0);
+        assertTrue(tree.getStackSamples().keySet().stream().anyMatch(
+                stack -> stack.contains(PerformanceLoggerTest.class.getName() + ".notInstrumented;")),
+                tree.getStackSamples().toString());
+        assertTrue(CallTreeTextFormat.formatCallTree(tree, 0).contains("stack samples:\n"));
+    }
+
+    private static void notInstrumented() throws InterruptedException {
+        Thread.sleep(100);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void startMethodShouldFailForUnknownId() {
+        PerformanceLogger.startMethod(Integer.MAX_VALUE);
+    }
+
+    private static final class PrivateConstructor {
+
+        private PrivateConstructor(@SuppressWarnings("unused") final String name) {
+            super();
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+/**
+ * tests for {@link RequestSampler}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class RequestSamplerTest {
+
+    public void allShouldSampleEveryRequest() {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(RequestSampler.all().sample(), 1);
+        }
+    }
+
+    public void oneInShouldReturnWeightOfSampledRequests() {
+        final RequestSampler sampler = RequestSampler.oneIn(10);
+        int sampled = 0;
+        for (int i = 0; i < 10_000; i++) {
+            final int weight = sampler.sample();
+            assertTrue(weight == 0 || weight == 10, Integer.toString(weight));
+            if (weight > 0) {
+                sampled++;
+            }
+        }
+        assertTrue(sampled > 500 && sampled < 1500, Integer.toString(sampled));
+    }
+
+    public void perSecondShouldLimitSampledRequests() {
+        final RequestSampler sampler = RequestSampler.perSecond(5);
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampler.sample() > 0) {
+                sampled++;
+            }
+        }
+        // the loop may cross a second boundary
+        assertTrue(sampled >= 5 && sampled <= 10, Integer.toString(sampled));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void oneInShouldRejectZero() {
+        RequestSampler.oneIn(0);
+    }
+
+}
@@ -0,0 +1,62 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+/**
+ * tests for {@link RingBufferPerformanceSink}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class RingBufferPerformanceSinkTest {
+
+    public void sinkShouldKeepMostRecentCallTrees() {
+        final RingBufferPerformanceSink sink = new RingBufferPerformanceSink(2, 0);
+        final int[] methodIds = {
+            PerformanceLogger.registerMethod(RingBufferPerformanceSinkTest.class, "first"),
+            PerformanceLogger.registerMethod(RingBufferPerformanceSinkTest.class, "second"),
+            PerformanceLogger.registerMethod(RingBufferPerformanceSinkTest.class, "third"),
+        };
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.addSink(sink);
+        try {
+            for (final int methodId : methodIds) {
+                PerformanceLogger.startMethod(methodId);
+                PerformanceLogger.finishMethod(methodId);
+            }
+        } finally {
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        assertEquals(sink.getAcceptedCount(), 3);
+        assertEquals(sink.getCallTrees().stream().map(CallTree::getMethodId).collect(Collectors.toList()),
+                Arrays.asList(Integer.valueOf(methodIds[2]), Integer.valueOf(methodIds[1])));
+    }
+
+    public void sinkShouldSkipCallTreesBelowThreshold() {
+        final RingBufferPerformanceSink sink = new RingBufferPerformanceSink(2, Long.MAX_VALUE);
+        final int methodId = PerformanceLogger.registerMethod(RingBufferPerformanceSinkTest.class, "fast");
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        PerformanceLogger.addSink(sink);
+        try {
+            PerformanceLogger.startMethod(methodId);
+            PerformanceLogger.finishMethod(methodId);
+        } finally {
+            PerformanceLogger.removeSink(sink);
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+        assertEquals(sink.getAcceptedCount(), 0);
+        assertEquals(sink.getCallTrees().size(), 0);
+    }
+
+}
@@ -0,0 +1,94 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * tests for {@link Slf4jPerformanceSink}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class Slf4jPerformanceSinkTest {
+
+    /**
+     * the default thresholds of {@link PerformanceLogger}
+     */
+    private static final long TOTAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long WARN = TimeUnit.SECONDS.toNanos(1);
+
+    private static Logger logger(final boolean info, final boolean debug) {
+        final Logger log = mock(Logger.class);
+        when(Boolean.valueOf(log.isWarnEnabled())).thenReturn(Boolean.TRUE);
+        when(Boolean.valueOf(log.isInfoEnabled())).thenReturn(Boolean.valueOf(info));
+        when(Boolean.valueOf(log.isDebugEnabled())).thenReturn(Boolean.valueOf(debug));
+        return log;
+    }
+
+    private static CallTree callTree(final long duration) {
+        return new DecodedCallTree(1, "A.root(  )", 1, duration, 0, 0, duration, 1, 0, ImmutableList.of());
+    }
+
+    public void thresholdShouldDependOnTheLogLevel() {
+        assertEquals(new Slf4jPerformanceSink(logger(true, true)).getThresholdNanos(), 0);
+        assertEquals(new Slf4jPerformanceSink(logger(true, false)).getThresholdNanos(), TOTAL);
+        assertEquals(new Slf4jPerformanceSink(logger(false, false)).getThresholdNanos(), WARN);
+    }
+
+    public void callTreesAboveTheWarnThresholdShouldBeWarned() {
+        final Logger log = logger(true, true);
+        new Slf4jPerformanceSink(log).acceptCallTree(callTree(WARN + 1));
+        verify(log).warn(contains("A.root(  )"));
+        verify(log, never()).info(anyString());
+        verify(log, never()).debug(anyString());
+    }
+
+    public void callTreesAtTheWarnThresholdShouldBeLoggedOnInfo() {
+        final Logger log = logger(true, true);
+        new Slf4jPerformanceSink(log).acceptCallTree(callTree(WARN));
+        verify(log, never()).warn(anyString());
+        verify(log).info(contains("A.root(  )"));
+    }
+
+    public void callTreesAtTheTotalThresholdShouldBeLoggedOnDebug() {
+        final Logger log = logger(true, true);
+        new Slf4jPerformanceSink(log).acceptCallTree(callTree(TOTAL));
+        verify(log, never()).info(anyString());
+        verify(log).debug(contains("A.root(  )"));
+    }
+
+    public void callTreesAtTheTotalThresholdShouldNotBeLoggedOnInfoLevel() {
+        final Logger log = logger(true, false);
+        final Slf4jPerformanceSink sink = new Slf4jPerformanceSink(log);
+        final CallTree callTree = callTree(TOTAL);
+        // the call tree is passed to the sink, because the threshold is inclusive
+        assertEquals(callTree.getDuration(), sink.getThresholdNanos());
+        sink.acceptCallTree(callTree);
+        verify(log, never()).warn(anyString());
+        verify(log, never()).info(anyString());
+        verify(log, never()).debug(anyString());
+
+        sink.acceptCallTree(callTree(TOTAL + 1));
+        verify(log).info(contains("A.root(  )"));
+    }
+
+    public void statsShouldBeWarned() {
+        final Logger log = logger(false, false);
+        new Slf4jPerformanceSink(log).acceptStats(TraceReader.aggregateStats(ImmutableList.of(callTree(TOTAL))));
+        verify(log).warn(contains("A.root(  )"));
+    }
+
+}
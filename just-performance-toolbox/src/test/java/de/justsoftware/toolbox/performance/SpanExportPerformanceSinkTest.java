@@ -0,0 +1,159 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+/**
+ * tests for {@link SpanExportPerformanceSink}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class SpanExportPerformanceSinkTest {
+
+    private static DecodedCallTree callTree(final int methodId, final long duration, final DecodedCallTree... children) {
+        return new DecodedCallTree(methodId, "m" + methodId, 1, duration, duration / 2, 0, duration, 1, 0,
+                ImmutableList.copyOf(children));
+    }
+
+    public void spansShouldFollowTheTreeStructure() throws IOException {
+        final List<List<SpanData>> batches = new CopyOnWriteArrayList<>();
+        try (SpanExportPerformanceSink sink = new SpanExportPerformanceSink(batches::add, 0, 10, 2, 60_000)) {
+            sink.acceptCallTree(callTree(1, 100, callTree(2, 30), callTree(3, 50, callTree(4, 20))));
+            sink.flush();
+            assertEquals(sink.getExportedSpanCount(), 4);
+        }
+        assertEquals(batches.size(), 2);
+        final Map<String, SpanData> spans = Maps.uniqueIndex(Iterables.concat(batches), SpanData::getName);
+        final SpanData root = spans.get("m1");
+        assertNull(root.getParentSpanId());
+        assertEquals(root.getEndEpochNanos() - root.getStartEpochNanos(), 100);
+        assertEquals(root.getAttributes().get("performance.cpu_nanos"), Long.valueOf(50));
+        assertEquals(spans.get("m2").getParentSpanId(), root.getSpanId());
+        assertEquals(spans.get("m3").getParentSpanId(), root.getSpanId());
+        assertEquals(spans.get("m4").getParentSpanId(), spans.get("m3").getSpanId());
+        assertEquals(spans.values().stream().map(SpanData::getTraceId).distinct().count(), 1);
+
+        // the children are laid out one after another, the slowest first
+        assertEquals(spans.get("m3").getStartEpochNanos(), root.getStartEpochNanos());
+        assertEquals(spans.get("m2").getStartEpochNanos(), spans.get("m3").getEndEpochNanos());
+        assertEquals(spans.get("m4").getStartEpochNanos(), spans.get("m3").getStartEpochNanos());
+    }
+
+    public void spansShouldEndWithTheRootInvocation() throws IOException {
+        final List<List<SpanData>> batches = new CopyOnWriteArrayList<>();
+        // e.g. tasks which ran in parallel take longer than their parent
+        final DecodedCallTree tree = new DecodedCallTree(1, "m1", 1, 100, 0, 0, 100, 1, 1_000,
+                ImmutableList.of(callTree(2, 80), callTree(3, 60)));
+        try (SpanExportPerformanceSink sink = new SpanExportPerformanceSink(batches::add, 0, 10, 10, 60_000)) {
+            sink.acceptCallTree(tree);
+            sink.flush();
+        }
+        final Map<String, SpanData> spans = Maps.uniqueIndex(Iterables.concat(batches), SpanData::getName);
+        final SpanData root = spans.get("m1");
+        assertEquals(root.getEndEpochNanos(), 1_000_000_000);
+        assertEquals(root.getStartEpochNanos(), 1_000_000_000 - 100);
+        assertEquals(spans.get("m2").getEndEpochNanos(), root.getStartEpochNanos() + 80);
+        assertEquals(spans.get("m3").getStartEpochNanos(), spans.get("m2").getEndEpochNanos());
+        assertEquals(spans.get("m3").getEndEpochNanos(), root.getEndEpochNanos());
+    }
+
+    public void fullQueueShouldDropCallTrees() throws IOException {
+        final SpanExporter blocked = spans -> {
+            synchronized (SpanExportPerformanceSinkTest.class) {
+                // waits until the test released the lock
+            }
+        };
+        try (SpanExportPerformanceSink sink = new SpanExportPerformanceSink(blocked, 0, 2, 1, 60_000)) {
+            synchronized (SpanExportPerformanceSinkTest.class) {
+                for (int i = 0; i < 10; i++) {
+                    sink.acceptCallTree(callTree(1, 100));
+                }
+            }
+            sink.flush();
+            assertTrue(sink.getDroppedCount() >= 7, Long.toString(sink.getDroppedCount()));
+            assertEquals(sink.getDroppedCount() + sink.getExportedSpanCount(), 10);
+        }
+    }
+
+    public void flushShouldReturnAfterClose() throws IOException {
+        final List<List<SpanData>> batches = new CopyOnWriteArrayList<>();
+        final SpanExportPerformanceSink sink = new SpanExportPerformanceSink(batches::add, 0, 10, 2, 60_000);
+        sink.acceptCallTree(callTree(1, 100));
+        sink.close();
+        sink.flush();
+        sink.acceptCallTree(callTree(2, 100));
+        sink.flush();
+        assertEquals(batches.size(), 1);
+        assertEquals(sink.getExportedSpanCount(), 1);
+        assertEquals(sink.getDroppedCount(), 1);
+    }
+
+    public void exporterErrorsShouldNotStopTheExport() throws IOException {
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<List<SpanData>> batches = new CopyOnWriteArrayList<>();
+        final SpanExporter failingOnce = spans -> {
+            if (failed.compareAndSet(false, true)) {
+                throw new AssertionError("failing exporter");
+            }
+            batches.add(spans);
+        };
+        try (SpanExportPerformanceSink sink = new SpanExportPerformanceSink(failingOnce, 0, 10, 2, 60_000)) {
+            sink.acceptCallTree(callTree(1, 100));
+            sink.flush();
+            assertTrue(failed.get());
+            assertEquals(sink.getExportedSpanCount(), 0);
+
+            sink.acceptCallTree(callTree(2, 100));
+            sink.flush();
+            assertEquals(sink.getExportedSpanCount(), 1);
+        }
+        assertEquals(Iterables.getOnlyElement(Iterables.getOnlyElement(batches)).getName(), "m2");
+    }
+
+    public void fileExporterShouldWriteOtlpJsonLines() throws IOException {
+        final Path file = Files.createTempFile("spans", ".json");
+        try {
+            try (SpanExportPerformanceSink sink = new SpanExportPerformanceSink(
+                    new OtlpJsonFileSpanExporter(file, "test \"service\""), 0)) {
+                sink.acceptCallTree(callTree(1, 100, callTree(2, 30)));
+                sink.acceptCallTree(callTree(3, 100));
+            }
+            final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            assertEquals(lines.size(), 1);
+            final String line = lines.get(0);
+            assertTrue(line.startsWith("{\"resourceSpans\":[{\"resource\":{\"attributes\":[{\"key\":\"service.name\","
+                    + "\"value\":{\"stringValue\":\"test \\\"service\\\"\"}}]},\"scopeSpans\":[{\"scope\":{\"name\":"
+                    + "\"de.justsoftware.toolbox.performance\"},\"spans\":[{\"traceId\":\""), line);
+            assertEquals(count(line, "\"spanId\""), 3);
+            assertEquals(count(line, "\"parentSpanId\""), 1);
+            assertTrue(line.contains("\"name\":\"m2\",\"kind\":1,\"startTimeUnixNano\":\""), line);
+            assertTrue(line.contains("{\"key\":\"performance.count\",\"value\":{\"intValue\":\"1\"}}"), line);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static int count(final String text, final String part) {
+        return text.split(Pattern.quote(part), -1).length - 1;
+    }
+
+}
@@ -0,0 +1,79 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * tests for {@link StatsDelta} and {@link PerformanceLogger#getStats()}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class StatsDeltaTest {
+
+    private static void invoke(final int methodId, final int times) {
+        PerformanceLogger.setPerformanceLoggerEnabled(true);
+        PerformanceLogger.setAsyncRendering(false);
+        try {
+            for (int i = 0; i < times; i++) {
+                PerformanceLogger.startMethod(methodId);
+                PerformanceLogger.finishMethod(methodId);
+            }
+        } finally {
+            PerformanceLogger.setAsyncRendering(true);
+            PerformanceLogger.setPerformanceLoggerEnabled(false);
+        }
+    }
+
+    private static MethodStats stats(final List<MethodStats> stats, final int methodId) {
+        return Iterables.find(stats, methodStats -> methodStats.getMethodId() == methodId);
+    }
+
+    public void deltaShouldOnlyContainNewInvocations() {
+        final int first = PerformanceLogger.registerMethod(StatsDeltaTest.class, "first");
+        final int second = PerformanceLogger.registerMethod(StatsDeltaTest.class, "second");
+        invoke(first, 3);
+        final StatsDelta delta = new StatsDelta();
+        assertEquals(stats(delta.next(), first).getCount(), 3);
+
+        invoke(second, 2);
+        final List<MethodStats> next = delta.next();
+        assertEquals(stats(next, second).getCount(), 2);
+        assertTrue(next.stream().noneMatch(methodStats -> methodStats.getMethodId() == first));
+
+        assertEquals(stats(PerformanceLogger.getStats(), first).getCount(), 3);
+        assertEquals(stats(PerformanceLogger.getStats(), second).getCount(), 2);
+    }
+
+    public void deltaShouldStartFromZeroForRemovedStats() throws InterruptedException {
+        final int evicted = PerformanceLogger.registerMethod(StatsDeltaTest.class, "evicted");
+        invoke(evicted, 5);
+        final StatsDelta delta = new StatsDelta();
+        assertEquals(stats(delta.next(), evicted).getCount(), 5);
+
+        PerformanceLogger.setMaxTrackedMethods(10);
+        try {
+            // the count of the method is the least recently used one after 10 newer methods
+            Thread.sleep(2);
+            for (int i = 0; i < 10; i++) {
+                invoke(PerformanceLogger.registerMethod(StatsDeltaTest.class, "evicting" + i), 1);
+            }
+            assertTrue(PerformanceLogger.getStats().stream().noneMatch(stats -> stats.getMethodId() == evicted));
+            invoke(evicted, 2);
+        } finally {
+            PerformanceLogger.setMaxTrackedMethods(2000);
+        }
+        assertEquals(stats(PerformanceLogger.getStats(), evicted).getCount(), 2);
+        assertEquals(stats(delta.next(), evicted).getCount(), 2);
+        invoke(evicted, 1);
+        assertEquals(stats(delta.next(), evicted).getCount(), 1);
+    }
+
+}
@@ -0,0 +1,86 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.testng.annotations.Test;
+
+/**
+ * tests for {@link TimedProcessor}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class TimedProcessorTest {
+
+    private static final String SOURCE = "package test;\n"
+            + "import de.justsoftware.toolbox.performance.Timed;\n"
+            + "import java.util.List;\n"
+            + "public class Service {\n"
+            + "    @Timed public Service(String name) {}\n"
+            + "    @Timed public void loadAll(List<String> ids, int[] limits) {}\n"
+            + "    @Timed void loadAll() {}\n"
+            + "    public void notTimed() {}\n"
+            + "    @Timed public static class Inner {\n"
+            + "        public <T extends Number> T convert(T value) { return value; }\n"
+            + "    }\n"
+            + "}\n";
+
+    public void processorShouldGenerateMethodIds() throws IOException, URISyntaxException {
+        final Path generated = Files.createTempDirectory("timed");
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final String classPath = new File(Timed.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .getPath();
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, null, null,
+                Arrays.asList("-proc:only", "-classpath", classPath, "-s", generated.toString()), null,
+                Collections.singletonList(new SimpleJavaFileObject(URI.create("string:///test/Service.java"),
+                        JavaFileObject.Kind.SOURCE) {
+
+                    @Override
+                    public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                        return SOURCE;
+                    }
+                }));
+        task.setProcessors(Collections.singletonList(new TimedProcessor()));
+        assertTrue(task.call().booleanValue());
+
+        final String service = new String(Files.readAllBytes(generated.resolve("test/Service_Timed.java")),
+                StandardCharsets.UTF_8);
+        assertTrue(service.contains("public static final int NEW_STRING = de.justsoftware.toolbox.performance."
+                + "PerformanceLogger.registerConstructor(test.Service.class, java.lang.String.class);"), service);
+        assertTrue(service.contains("public static final int LOAD_ALL_LIST_INT_ARRAY = de.justsoftware.toolbox."
+                + "performance.PerformanceLogger.registerMethod(test.Service.class, \"loadAll\", java.util.List.class,"
+                + " int[].class);"), service);
+        assertTrue(service.contains("public static final int LOAD_ALL = "), service);
+        assertEquals(service.indexOf("NOT_TIMED"), -1);
+
+        final String inner = new String(Files.readAllBytes(generated.resolve("test/Service_Inner_Timed.java")),
+                StandardCharsets.UTF_8);
+        assertTrue(inner.contains("public static final int CONVERT_NUMBER = de.justsoftware.toolbox.performance."
+                + "PerformanceLogger.registerMethod(test.Service.Inner.class, \"convert\", java.lang.Number.class);"),
+                inner);
+        assertTrue(inner.contains("registerConstructor(test.Service.Inner.class);"), inner);
+    }
+
+    public void constantCaseShouldSplitWords() {
+        assertEquals(TimedProcessor.toConstantCase("loadAll"), "LOAD_ALL");
+        assertEquals(TimedProcessor.toConstantCase("UUID"), "UUID");
+        assertEquals(TimedProcessor.toConstantCase("int"), "INT");
+    }
+
+}
@@ -0,0 +1,95 @@
+package de.justsoftware.toolbox.performance;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * tests for {@link TotalCounts} and {@link TotalCount}
+ */
+@Test
+@ParametersAreNonnullByDefault
+public class TotalCountsTest {
+
+    public void leastRecentlyUsedCountsShouldBeEvicted() {
+        final TotalCounts counts = new TotalCounts(10);
+        final int[] methodIds = new int[11];
+        for (int i = 0; i < methodIds.length; i++) {
+            methodIds[i] = PerformanceLogger.registerMethod(TotalCountsTest.class, "method" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            counts.get(methodIds[i])._lastUsedMillis = i;
+        }
+        final TotalCount recentlyUsed = counts.get(methodIds[9]);
+        final TotalCount leastRecentlyUsed = counts.get(methodIds[0]);
+
+        counts.get(methodIds[10]);
+
+        // the counts are reduced to 90% of the limit including the new count
+        assertEquals(counts.values().size(), 9);
+        assertSame(counts.get(methodIds[9]), recentlyUsed);
+        assertNotSame(counts.get(methodIds[0]), leastRecentlyUsed);
+    }
+
+    public void peekShouldNotCreateCounts() {
+        final TotalCounts counts = new TotalCounts(10);
+        final int methodId = PerformanceLogger.registerMethod(TotalCountsTest.class, "peeked");
+        assertNull(counts.peek(methodId));
+        assertEquals(counts.values().size(), 0);
+
+        final TotalCount created = counts.get(methodId);
+        assertSame(counts.peek(methodId), created);
+        assertNull(counts.peek(Integer.MAX_VALUE));
+    }
+
+    public void statsShouldHaveWallCpuAndUserPercentiles() {
+        final int methodId = PerformanceLogger.registerMethod(TotalCountsTest.class, "percentiles");
+        final TotalCount count = new TotalCount(methodId, "TotalCountsTest.percentiles(  )", 0);
+        // a node with 4 invocations, 2 of them timed, and a node with a single timed invocation
+        count.increment(4, 2, 4_000_000, 1_000_000, 500_000, 0, 3_000_000, 1);
+        count.increment(1, 1, 100_000_000, 80_000_000, 40_000_000, 0, 100_000_000, 1);
+
+        final MethodStats stats = count.toMethodStats();
+        assertApproximately(stats.getP50(), 1_000_000);
+        assertApproximately(stats.getP999(), 100_000_000);
+        // the maximum of single invocations is exact
+        assertEquals(stats.getMax(), 100_000_000);
+        assertApproximately(stats.getCpuP50(), 500_000);
+        assertApproximately(stats.getCpuP99(), 80_000_000);
+        assertApproximately(stats.getUserP50(), 250_000);
+        assertApproximately(stats.getUserP999(), 40_000_000);
+        assertTrue(CallTreeTextFormat.formatStats(ImmutableList.of(stats)).contains(" cpu50[ms] cpu99[ms] "));
+    }
+
+    public void bypassedMethodsShouldBeProbedWithConcurrentInvocations() throws InterruptedException {
+        final TotalCount count = new TotalCount(1, "TotalCountsTest.cheap(  )", 0);
+        count.countAdaptive(TotalCount.ADAPTIVE_WARM_UP_INVOCATIONS, 0, 1_000);
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < TotalCount.ADAPTIVE_PROBE_INTERVAL / 2; j++) {
+                    count.bypass();
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        // no invocation is lost, so the method was probed exactly after the probe interval
+        assertEquals(count.getBypassedCount(), TotalCount.ADAPTIVE_PROBE_INTERVAL - 1);
+    }
+
+    private static void assertApproximately(final long actual, final long expected) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16, actual + " instead of " + expected);
+    }
+
+}